@@ -0,0 +1,88 @@
+package com.datasonnet.benchmarks;
+
+/*-
+ * Copyright 2019-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import com.datasonnet.Mapper;
+import com.datasonnet.document.DefaultDocument;
+import com.datasonnet.document.Document;
+import com.datasonnet.document.MediaTypes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scripts that build arrays and read their elements more than once, which is where the evaluation of the lazy array
+ * elements shows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ArrayBenchmark {
+
+    @Param({"1000", "20000"})
+    public int records;
+
+    private Document<String> payload;
+    private Mapper aggregate;
+    private Mapper indexed;
+    private Mapper nested;
+
+    @Setup
+    public void setup() {
+        payload = new DefaultDocument<>(Payloads.jsonFlatRecords(records), MediaTypes.APPLICATION_JSON);
+        aggregate = new Mapper("local totals = [r.price * r.qty for r in payload];\n" +
+                "{ sum: std.foldl(function(acc, t) acc + t, totals, 0),\n" +
+                "  max: std.foldl(function(acc, t) if t > acc then t else acc, totals, 0),\n" +
+                "  big: std.length(std.filter(function(t) t > 100, totals)) }");
+        indexed = new Mapper("local prices = std.map(function(r) r.price, payload), n = std.length(prices);\n" +
+                "[prices[i] - prices[n - 1 - i] for i in std.range(0, n - 1)]");
+        nested = new Mapper("local rows = [{ id: r.id, line: [r.sku, r.qty, r.price] } for r in payload];\n" +
+                "[row.line[1] * row.line[2] for row in rows if row.line[1] > 1]");
+    }
+
+    @Benchmark
+    public String aggregate() {
+        return run(aggregate);
+    }
+
+    @Benchmark
+    public String indexed() {
+        return run(indexed);
+    }
+
+    @Benchmark
+    public String nested() {
+        return run(nested);
+    }
+
+    private String run(Mapper mapper) {
+        return mapper.transform(payload, Collections.emptyMap(), MediaTypes.APPLICATION_JSON).getContent();
+    }
+}
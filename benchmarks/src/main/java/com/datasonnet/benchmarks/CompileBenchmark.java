@@ -0,0 +1,82 @@
+package com.datasonnet.benchmarks;
+
+/*-
+ * Copyright 2019-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import com.datasonnet.Mapper;
+import com.datasonnet.MapperBuilder;
+import com.datasonnet.MapperTemplate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of compiling a script, with the {@link Mapper} constructor, compared to creating a mapper from a
+ * {@link MapperTemplate} compiled beforehand.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompileBenchmark {
+
+    static final String SCRIPT = "/** DataSonnet\n" +
+            "version=2.0\n" +
+            "output application/json\n" +
+            "*/\n" +
+            "local total(lines) = std.foldl(function(acc, l) acc + l.qty * l.price, lines, 0);\n" +
+            "local label(r) = ds.upper(r.customer) + '-' + r.id;\n" +
+            "local status(r) = if r.qty > 5 then 'bulk' else if r.qty > 1 then 'multi' else 'single';\n" +
+            "{\n" +
+            "  count: std.length(payload),\n" +
+            "  total: total(payload),\n" +
+            "  orders: ds.map(payload, function(r, i) {\n" +
+            "    index: i,\n" +
+            "    label: label(r),\n" +
+            "    status: status(r),\n" +
+            "    sku: std.asciiLower(r.sku),\n" +
+            "    amount: r.qty * r.price,\n" +
+            "  }),\n" +
+            "  byCustomer: ds.groupBy(payload, function(r) r.customer),\n" +
+            "}\n";
+
+    private MapperTemplate template;
+
+    @Setup
+    public void setup() {
+        template = new MapperBuilder(SCRIPT).compile();
+    }
+
+    @Benchmark
+    public Mapper compile() {
+        return new Mapper(SCRIPT);
+    }
+
+    @Benchmark
+    public Mapper fromTemplate() {
+        return template.newMapper();
+    }
+}
@@ -0,0 +1,65 @@
+package com.datasonnet.benchmarks;
+
+/*-
+ * Copyright 2019-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import com.datasonnet.spi.ujsonUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ujson.Value;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the single pass JSON reader with the previous read, rewrite and re-parse pipeline.
+ * Run with {@code -prof gc} to see the allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonReadBenchmark {
+
+    @Param({"1000", "50000"})
+    public int records;
+
+    private String json;
+
+    @Setup
+    public void setup() {
+        json = Payloads.jsonRecords(records);
+    }
+
+    @Benchmark
+    public Value singlePass() {
+        return ujsonUtils.parse(json);
+    }
+
+    @Benchmark
+    public Value rewriteAndReparse() {
+        return ujsonUtils.read(ujson.Readable.fromString(ujsonUtils.replaceLargeNumbers(json)), false);
+    }
+}
@@ -0,0 +1,98 @@
+package com.datasonnet.benchmarks;
+
+/*-
+ * Copyright 2019-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import com.datasonnet.Mapper;
+import com.datasonnet.document.DefaultDocument;
+import com.datasonnet.document.Document;
+import com.datasonnet.document.MediaTypes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@code ds} library functions that dominate typical record processing scripts, applied to a JSON array of flat
+ * records.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LibraryBenchmark {
+
+    @Param({"1000", "20000"})
+    public int records;
+
+    private Document<String> payload;
+    private Mapper groupBy;
+    private Mapper orderBy;
+    private Mapper distinctBy;
+    private Mapper joinBy;
+    private Mapper join;
+
+    @Setup
+    public void setup() {
+        payload = new DefaultDocument<>(Payloads.jsonFlatRecords(records), MediaTypes.APPLICATION_JSON);
+        groupBy = new Mapper("ds.groupBy(payload, function(r) r.customer)");
+        orderBy = new Mapper("ds.orderBy(payload, function(r) r.price)");
+        distinctBy = new Mapper("ds.distinctBy(payload, function(r) r.sku)");
+        joinBy = new Mapper("ds.joinBy(ds.map(payload, function(r) r.sku), ',')");
+        join = new Mapper("local customers = ds.distinctBy(payload, function(r) r.customer);\n" +
+                "ds.arrays.join(payload, customers, function(r) r.customer, function(c) c.customer)");
+    }
+
+    @Benchmark
+    public String groupBy() {
+        return run(groupBy);
+    }
+
+    @Benchmark
+    public String orderBy() {
+        return run(orderBy);
+    }
+
+    @Benchmark
+    public String distinctBy() {
+        return run(distinctBy);
+    }
+
+    @Benchmark
+    public String joinBy() {
+        return run(joinBy);
+    }
+
+    @Benchmark
+    public String join() {
+        return run(join);
+    }
+
+    private String run(Mapper mapper) {
+        return mapper.transform(payload, Collections.emptyMap(), MediaTypes.APPLICATION_JSON).getContent();
+    }
+}
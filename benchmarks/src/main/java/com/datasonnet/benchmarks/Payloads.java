@@ -0,0 +1,140 @@
+package com.datasonnet.benchmarks;
+
+/*-
+ * Copyright 2019-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Deterministic payloads shared by the benchmarks.
+ */
+final class Payloads {
+
+    private Payloads() {
+    }
+
+    /**
+     * An array of order records, roughly 170 bytes each, mixing strings, small and large numbers and nested arrays.
+     */
+    static String jsonRecords(int records) {
+        StringBuilder sb = new StringBuilder(records * 180);
+        sb.append('[');
+        for (int i = 0; i < records; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"id\":").append(i)
+                    .append(",\"account\":").append(102506060000000000L + i)
+                    .append(",\"customer\":\"customer-").append(i % 997).append('"')
+                    .append(",\"price\":").append(i % 1000).append('.').append(i % 100)
+                    .append(",\"active\":").append(i % 3 == 0)
+                    .append(",\"tags\":[\"t").append(i % 7).append("\",\"t").append(i % 11).append("\"]")
+                    .append(",\"lines\":[{\"sku\":\"S").append(i % 5000).append("\",\"qty\":").append(i % 9 + 1).append("}]")
+                    .append('}');
+        }
+        sb.append(']');
+        return sb.toString();
+    }
+
+    /**
+     * Flat records with the same fields in every format: id, customer, price, sku and qty.
+     */
+    static String jsonFlatRecords(int records) {
+        StringBuilder sb = new StringBuilder(records * 90);
+        sb.append('[');
+        for (int i = 0; i < records; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"id\":").append(i)
+                    .append(",\"customer\":\"").append(customer(i)).append('"')
+                    .append(",\"price\":").append(price(i))
+                    .append(",\"sku\":\"").append(sku(i)).append('"')
+                    .append(",\"qty\":").append(qty(i))
+                    .append('}');
+        }
+        sb.append(']');
+        return sb.toString();
+    }
+
+    static String csvFlatRecords(int records) {
+        StringBuilder sb = new StringBuilder(records * 40);
+        sb.append("id,customer,price,sku,qty\n");
+        for (int i = 0; i < records; i++) {
+            sb.append(i).append(',').append(customer(i)).append(',').append(price(i)).append(',')
+                    .append(sku(i)).append(',').append(qty(i)).append('\n');
+        }
+        return sb.toString();
+    }
+
+    static String xmlFlatRecords(int records) {
+        StringBuilder sb = new StringBuilder(records * 120);
+        sb.append("<orders>");
+        for (int i = 0; i < records; i++) {
+            sb.append("<order><id>").append(i).append("</id>")
+                    .append("<customer>").append(customer(i)).append("</customer>")
+                    .append("<price>").append(price(i)).append("</price>")
+                    .append("<sku>").append(sku(i)).append("</sku>")
+                    .append("<qty>").append(qty(i)).append("</qty></order>");
+        }
+        sb.append("</orders>");
+        return sb.toString();
+    }
+
+    static String yamlFlatRecords(int records) {
+        StringBuilder sb = new StringBuilder(records * 80);
+        for (int i = 0; i < records; i++) {
+            sb.append("- id: ").append(i)
+                    .append("\n  customer: ").append(customer(i))
+                    .append("\n  price: ").append(price(i))
+                    .append("\n  sku: ").append(sku(i))
+                    .append("\n  qty: ").append(qty(i)).append('\n');
+        }
+        return sb.toString();
+    }
+
+    static List<Map<String, Object>> javaFlatRecords(int records) {
+        List<Map<String, Object>> list = new ArrayList<>(records);
+        for (int i = 0; i < records; i++) {
+            Map<String, Object> record = new LinkedHashMap<>();
+            record.put("id", i);
+            record.put("customer", customer(i));
+            record.put("price", Double.parseDouble(price(i)));
+            record.put("sku", sku(i));
+            record.put("qty", qty(i));
+            list.add(record);
+        }
+        return list;
+    }
+
+    private static String customer(int i) {
+        return "customer-" + (i % 97);
+    }
+
+    private static String price(int i) {
+        return (i % 1000) + "." + (i % 100);
+    }
+
+    private static String sku(int i) {
+        return "S" + (i % 5000);
+    }
+
+    private static int qty(int i) {
+        return i % 9 + 1;
+    }
+}
@@ -0,0 +1,103 @@
+package com.datasonnet.benchmarks;
+
+/*-
+ * Copyright 2019-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import com.datasonnet.Mapper;
+import com.datasonnet.document.DefaultDocument;
+import com.datasonnet.document.Document;
+import com.datasonnet.document.MediaType;
+import com.datasonnet.document.MediaTypes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end {@code transform} latency: read the payload with the format plugin, evaluate a record mapping and write
+ * the result back in the same format.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransformBenchmark {
+
+    private static final String MAPPING = "ds.map(%s, function(r) { id: %s, customer: ds.upper(%s), sku: %s })";
+
+    @Param({"json", "xml", "csv", "yaml", "java"})
+    public String format;
+
+    @Param({"10", "1000", "20000"})
+    public int records;
+
+    private Mapper mapper;
+    private Document<?> payload;
+    private MediaType output;
+    private Class<?> target;
+
+    @Setup
+    public void setup() {
+        target = String.class;
+        switch (format) {
+            case "json":
+                mapper = new Mapper(String.format(MAPPING, "payload", "r.id", "r.customer", "r.sku"));
+                payload = new DefaultDocument<>(Payloads.jsonFlatRecords(records), MediaTypes.APPLICATION_JSON);
+                output = MediaTypes.APPLICATION_JSON;
+                break;
+            case "xml":
+                mapper = new Mapper("{ orders: { order: " +
+                        String.format(MAPPING, "payload.orders.order", "r.id['$']", "r.customer['$']", "r.sku['$']") + " } }");
+                payload = new DefaultDocument<>(Payloads.xmlFlatRecords(records), MediaTypes.APPLICATION_XML);
+                output = MediaTypes.APPLICATION_XML;
+                break;
+            case "csv":
+                mapper = new Mapper(String.format(MAPPING, "payload", "r.id", "r.customer", "r.sku"));
+                payload = new DefaultDocument<>(Payloads.csvFlatRecords(records), MediaTypes.APPLICATION_CSV);
+                output = MediaTypes.APPLICATION_CSV;
+                break;
+            case "yaml":
+                mapper = new Mapper(String.format(MAPPING, "payload", "r.id", "r.customer", "r.sku"));
+                payload = new DefaultDocument<>(Payloads.yamlFlatRecords(records), MediaTypes.APPLICATION_YAML);
+                output = MediaTypes.APPLICATION_YAML;
+                break;
+            case "java":
+                mapper = new Mapper(String.format(MAPPING, "payload", "r.id", "r.customer", "r.sku"));
+                payload = new DefaultDocument<>(Payloads.javaFlatRecords(records), MediaTypes.APPLICATION_JAVA);
+                output = MediaTypes.APPLICATION_JAVA;
+                target = Object.class;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown format " + format);
+        }
+    }
+
+    @Benchmark
+    public Object transform() {
+        return mapper.transform(payload, Collections.emptyMap(), output, target).getContent();
+    }
+}
@@ -38,6 +38,8 @@ public class MapperBuilder {
     private DataFormatService service = DataFormatService.DEFAULT;
     private boolean asFunction = true;
     private MediaType defaultOutput = MediaTypes.APPLICATION_JSON;
+    private boolean debuggable = false;
+    private boolean bytecode = false;
 
     public MapperBuilder(String script) {
         this.script = script;
@@ -102,7 +104,36 @@ public class MapperBuilder {
         return this;
     }
 
+    /**
+     * Lets the debugger stop in the script once a debugging session attaches, even if the mapper was built before.
+     * A debuggable mapper is evaluated without the optimizations that need the script as written, so only enable
+     * this for debugging.
+     */
+    public MapperBuilder enableDebugging(boolean debuggable) {
+        this.debuggable = debuggable;
+        return this;
+    }
+
+    /**
+     * Compiles the script to a JVM class of its own, which the JIT compiles like any other code, instead of evaluating
+     * it with the closure-compiled interpreter. Expressions the compiler does not support are still interpreted, and the
+     * classes are shared by all the mappers of the same script. Compiling takes longer, so this pays off for scripts
+     * that transform many documents.
+     */
+    public MapperBuilder enableBytecodeCompilation(boolean bytecode) {
+        this.bytecode = bytecode;
+        return this;
+    }
+
+    /**
+     * Compiles the script once. The returned template can be kept and used to create any number of mappers that share
+     * the parsed script, the libraries and the evaluated imports.
+     */
+    public MapperTemplate compile() {
+        return new MapperTemplate(script, inputNames, imports, asFunction, libs, service, defaultOutput, debuggable, bytecode);
+    }
+
     public Mapper build() {
-        return new Mapper(script, inputNames, imports, asFunction, libs, service, defaultOutput);
+        return compile().newMapper();
     }
 }
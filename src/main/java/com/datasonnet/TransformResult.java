@@ -0,0 +1,84 @@
+package com.datasonnet;
+
+/*-
+ * Copyright 2019-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import com.datasonnet.document.Document;
+
+import java.util.Objects;
+
+/**
+ * The outcome of transforming one document of a batch, see {@link Mapper#transformAll}: either the transformed
+ * document or the exception that the transformation of that document threw.
+ *
+ * @param <T> the content of the transformed document
+ */
+public final class TransformResult<T> {
+    private final int index;
+    private final Document<T> document;
+    private final RuntimeException error;
+
+    private TransformResult(int index, Document<T> document, RuntimeException error) {
+        this.index = index;
+        this.document = document;
+        this.error = error;
+    }
+
+    public static <T> TransformResult<T> success(int index, Document<T> document) {
+        return new TransformResult<>(index, Objects.requireNonNull(document), null);
+    }
+
+    public static <T> TransformResult<T> failure(int index, RuntimeException error) {
+        return new TransformResult<>(index, null, Objects.requireNonNull(error));
+    }
+
+    /**
+     * The position of the transformed document in the batch.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    /**
+     * Returns the transformed document.
+     *
+     * @throws RuntimeException the error of the transformation, if it failed
+     */
+    public Document<T> getDocument() {
+        if (error != null) {
+            throw error;
+        }
+        return document;
+    }
+
+    /**
+     * Returns the error of the transformation, or {@code null} if it succeeded.
+     */
+    public RuntimeException getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return "TransformResult{" +
+                "index=" + index +
+                (error == null ? ", document=" + document : ", error=" + error) +
+                '}';
+    }
+}
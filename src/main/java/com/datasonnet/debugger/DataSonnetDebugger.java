@@ -43,7 +43,7 @@ public class DataSonnetDebugger {
     /**
      * Instance
      */
-    private static DataSonnetDebugger DEBUGGER;
+    private static final DataSonnetDebugger DEBUGGER = new DataSonnetDebugger();
 
     /**
      * Key is line number
@@ -83,9 +83,6 @@ public class DataSonnetDebugger {
     private EvalScope currentEvalScope;
 
     public static DataSonnetDebugger getDebugger() {
-        if (DEBUGGER == null) {
-            DEBUGGER = new DataSonnetDebugger();
-        }
         return DEBUGGER;
     }
 
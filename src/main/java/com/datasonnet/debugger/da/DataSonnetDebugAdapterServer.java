@@ -33,6 +33,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
 
 import com.datasonnet.Mapper;
+import com.datasonnet.MapperBuilder;
 import com.datasonnet.debugger.DataSonnetDebugger;
 import com.datasonnet.debugger.SourcePos;
 import com.datasonnet.debugger.StoppedProgramContext;
@@ -367,7 +368,8 @@ public class DataSonnetDebugAdapterServer implements IDebugProtocolServer, DataS
               this.outputType = MediaType.parseMediaType(outputMime);
             }
             logger.info("Running mapper for script: " + this.script);
-            mapper = new Mapper(this.script);
+            // the debugger attaches later, in configurationDone
+            mapper = new MapperBuilder(this.script).enableDebugging(true).build();
             DataSonnetDebugger debugger = DataSonnetDebugger.getDebugger();
 //            debugger.setStepMode(true);
             // don't start it yet!
@@ -357,6 +357,16 @@ public class MediaTypes {
      */
     public static final String APPLICATION_YAML_VALUE = "application/x-yaml";
 
+    /**
+     * Public constant media type for newline delimited JSON, {@code application/x-ndjson}.
+     */
+    public static final MediaType APPLICATION_NDJSON;
+
+    /**
+     * A String equivalent of {@link MediaTypes#APPLICATION_NDJSON}.
+     */
+    public static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+
     // See Null Object pattern
     /**
      * Public constant media type for representing an unknown content type. This is meant to used to signal to Datasonnet
@@ -401,6 +411,7 @@ public class MediaTypes {
         APPLICATION_CSV = new MediaType("application", "csv");
         UNKNOWN = new MediaType("unknown", "unknown");
         APPLICATION_YAML = new MediaType("application", "x-yaml");
+        APPLICATION_NDJSON = new MediaType("application", "x-ndjson");
     }
 
     // TODO: 8/11/20 add explicit file extension support to MediaType class
@@ -417,6 +428,9 @@ public class MediaTypes {
             case "yml":
             case "yaml":
                 return Optional.of(APPLICATION_YAML);
+            case "ndjson":
+            case "jsonl":
+                return Optional.of(APPLICATION_NDJSON);
             default:
                 return Optional.empty();
         }
@@ -0,0 +1,107 @@
+package com.datasonnet.modules;
+
+/*-
+ * Copyright 2019-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.datasonnet.RecentsMap;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Compiled regular expressions by their source, shared by all threads and retaining the
+ * most recently compiled ones, up to the maximum size given to the constructor.
+ * <p>Patterns are compiled outside of the lock, so two threads that miss the same
+ * expression at once may both compile it, and the first one stored is kept.
+ * Expressions that fail to compile are not stored.
+ *
+ * @param <P> the type of the compiled patterns
+ */
+public class PatternCache<P> {
+
+    private final int maximumSize;
+
+    private final Function<String, P> compiler;
+
+    private final Map<String, P> patterns;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    public PatternCache(int maximumSize, Function<String, P> compiler) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("The maximum size of a pattern cache should be positive");
+        }
+        this.maximumSize = maximumSize;
+        this.compiler = Objects.requireNonNull(compiler, "The compiler should not be null");
+        this.patterns = Collections.synchronizedMap(new RecentsMap<>(maximumSize));
+    }
+
+    /**
+     * Returns the compiled pattern, compiling it on the first use.
+     *
+     * @param expr the source of the regular expression
+     * @return the compiled pattern
+     */
+    public P get(String expr) {
+        P pattern = patterns.get(expr);
+        if (pattern != null) {
+            hits.increment();
+            return pattern;
+        }
+
+        misses.increment();
+        P compiled = compiler.apply(expr);
+        pattern = patterns.putIfAbsent(expr, compiled);
+        return pattern != null ? pattern : compiled;
+    }
+
+    /**
+     * Compiles the pattern without storing it, for callers that keep it themselves.
+     *
+     * @param expr the source of the regular expression
+     * @return the compiled pattern
+     */
+    public P compile(String expr) {
+        return compiler.apply(expr);
+    }
+
+    /**
+     * The number of lookups that found a compiled pattern.
+     */
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * The number of lookups that had to compile their pattern.
+     */
+    public long missCount() {
+        return misses.sum();
+    }
+
+    public int size() {
+        return patterns.size();
+    }
+
+    public int maximumSize() {
+        return maximumSize;
+    }
+}
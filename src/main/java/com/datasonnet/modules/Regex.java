@@ -31,16 +31,33 @@ import java.util.function.Function;
 
 public class Regex {
 
+    /**
+     * The expressions that scripts compute rather than write literally, shared by all mappers, since scripts
+     * usually apply the same few to every element.
+     */
+    public static final PatternCache<Pattern> PATTERNS = new PatternCache<>(256, Pattern::compile);
+
     public static Value regexFullMatch(String expr, String str) throws RegexException {
-        return regexMatch(expr, str, true);
+        return regexFullMatch(PATTERNS.get(expr), str);
+    }
+
+    public static Value regexFullMatch(Pattern pattern, String str) throws RegexException {
+        return regexMatch(pattern, str, true);
     }
 
     public static Value regexPartialMatch(String expr, String str) throws RegexException {
-        return regexMatch(expr, str, false);
+        return regexPartialMatch(PATTERNS.get(expr), str);
+    }
+
+    public static Value regexPartialMatch(Pattern pattern, String str) throws RegexException {
+        return regexMatch(pattern, str, false);
     }
 
     public static Value regexScan(String expr, String str) throws RegexException {
-        Pattern pattern = Pattern.compile(expr);
+        return regexScan(PATTERNS.get(expr), str);
+    }
+
+    public static Value regexScan(Pattern pattern, String str) throws RegexException {
         Matcher matcher = pattern.matcher(str);
         ArrayNode regexMatch = scan(matcher);
 
@@ -52,16 +69,27 @@ public class Regex {
     }
 
     public static String regexReplace(String str, String pattern, String replace) {
+        return regexReplace(str, PATTERNS.get(pattern), replace);
+    }
+
+    public static String regexReplace(String str, Pattern pattern, String replace) {
         return replace(str, pattern, replace, false);
     }
 
     public static String regexGlobalReplace(String str, String pattern, String replace) {
+        return regexGlobalReplace(str, PATTERNS.get(pattern), replace);
+    }
+
+    public static String regexGlobalReplace(String str, Pattern pattern, String replace) {
         return replace(str, pattern, replace, true);
     }
 
     public static String regexGlobalReplace(String str, String pattern, Function<Value, String> replace) throws RegexException {
-        Pattern p = Pattern.compile(pattern);
-        Matcher matcher = p.matcher(str);
+        return regexGlobalReplace(str, PATTERNS.get(pattern), replace);
+    }
+
+    public static String regexGlobalReplace(String str, Pattern pattern, Function<Value, String> replace) throws RegexException {
+        Matcher matcher = pattern.matcher(str);
         StringBuffer sb = new StringBuffer();
 
         while (matcher.find()) {
@@ -72,13 +100,12 @@ public class Regex {
         return sb.toString();
     }
 
-    private static String replace(String str, String pattern, String replace, boolean isGlobal) {
-        Matcher matcher = Pattern.compile(pattern).matcher(str);
+    private static String replace(String str, Pattern pattern, String replace, boolean isGlobal) {
+        Matcher matcher = pattern.matcher(str);
         return isGlobal ? matcher.replaceAll(replace) : matcher.replaceFirst(replace);
     }
 
-    private static Value regexMatch(String expr, String str, boolean isFull) throws RegexException {
-        Pattern pattern = Pattern.compile(expr);
+    private static Value regexMatch(Pattern pattern, String str, boolean isFull) throws RegexException {
         Matcher matcher = pattern.matcher(str);
 
         boolean hasMatch = isFull ? matcher.matches() : matcher.find();
@@ -20,22 +20,34 @@ import com.datasonnet.document.DefaultDocument;
 import com.datasonnet.document.Document;
 import com.datasonnet.document.MediaType;
 import com.datasonnet.document.MediaTypes;
+import com.datasonnet.spi.ElementStreamingVisitor;
 import com.datasonnet.spi.PluginException;
 import com.datasonnet.spi.ujsonUtils;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.SequenceWriter;
 import com.fasterxml.jackson.dataformat.csv.CsvMapper;
 import com.fasterxml.jackson.dataformat.csv.CsvParser;
 import com.fasterxml.jackson.dataformat.csv.CsvSchema;
 import ujson.Value;
+import upickle.core.Visitor;
 
 import javax.swing.text.html.Option;
 import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -48,6 +60,7 @@ public class DefaultCSVFormatPlugin extends BaseJacksonDataFormatPlugin {
     public static final String DS_PARAM_NEW_LINE = "newline";
     public static final String DS_PARAM_HEADERS = "headers";
     public static final String DS_PARAM_DISABLE_QUOTES = "disablequotes";
+    public static final String DS_PARAM_STREAMING = "streaming";
 
     private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
     private static final CsvMapper CSV_MAPPER = new CsvMapper();
@@ -69,6 +82,7 @@ public class DefaultCSVFormatPlugin extends BaseJacksonDataFormatPlugin {
         readerParams.add(DS_PARAM_DISABLE_QUOTES);
 
         writerParams.addAll(readerParams);
+        readerParams.add(DS_PARAM_STREAMING);
 
         readerSupportedClasses.add(InputStream.class);
         readerSupportedClasses.add(byte[].class);
@@ -129,6 +143,45 @@ public class DefaultCSVFormatPlugin extends BaseJacksonDataFormatPlugin {
         }
     }
 
+    @Override
+    public boolean canStreamRead(Document<?> doc) {
+        return doc.getContent() != null && Boolean.parseBoolean(doc.getMediaType().getParameter(DS_PARAM_STREAMING));
+    }
+
+    @Override
+    public Iterator<Value> streamingReader(Document<?> doc) throws PluginException {
+        ObjectReader reader = CSV_MAPPER
+                .readerFor(JsonNode.class)
+                .with(this.getBuilder(doc.getMediaType()).build());
+
+        try {
+            MappingIterator<JsonNode> rows;
+            if (String.class.isAssignableFrom(doc.getContent().getClass())) {
+                rows = reader.readValues((String) doc.getContent());
+            } else if (byte[].class.isAssignableFrom(doc.getContent().getClass())) {
+                rows = reader.readValues((byte[]) doc.getContent());
+            } else if (InputStream.class.isAssignableFrom(doc.getContent().getClass())) {
+                rows = reader.readValues((InputStream) doc.getContent());
+            } else {
+                throw new PluginException(new IllegalArgumentException("Unsupported document content class, use the test method canRead before invoking read"));
+            }
+
+            return new Iterator<Value>() {
+                @Override
+                public boolean hasNext() {
+                    return rows.hasNext();
+                }
+
+                @Override
+                public Value next() {
+                    return ujsonFrom(rows.next());
+                }
+            };
+        } catch (IOException ioe) {
+            throw new PluginException("Unable to read CSV input", ioe);
+        }
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public <T> Document<T> write(Value input, MediaType mediaType, Class<T> targetType) throws PluginException {
@@ -178,6 +231,88 @@ public class DefaultCSVFormatPlugin extends BaseJacksonDataFormatPlugin {
         }
     }
 
+    @Override
+    public boolean canStream(MediaType mediaType) {
+        return canWrite(mediaType, OutputStream.class);
+    }
+
+    @Override
+    public Visitor<?, ?> streamingWriter(MediaType mediaType, OutputStream out) throws PluginException {
+        StreamingCsvWriter writer = new StreamingCsvWriter(mediaType, out);
+        return new ElementStreamingVisitor(writer::writeRow, writer::writeWhole, writer::finish);
+    }
+
+    /**
+     * Writes the rows of a top level array one at a time. The columns are taken from the headers parameter or from
+     * the first row, like {@link #write(Value, MediaType, Class)} does.
+     */
+    private class StreamingCsvWriter {
+        private final MediaType mediaType;
+        private final Writer out;
+        private SequenceWriter rows;
+
+        StreamingCsvWriter(MediaType mediaType, OutputStream out) {
+            Charset charset = mediaType.getCharset();
+            if (charset == null) {
+                charset = StandardCharsets.UTF_8;
+            }
+
+            this.mediaType = mediaType;
+            this.out = new BufferedWriter(new OutputStreamWriter(out, charset));
+        }
+
+        void writeRow(Value row) {
+            try {
+                JsonNode node = OBJECT_MAPPER.valueToTree(ujsonUtils.javaObjectFrom(row));
+                if (rows == null) {
+                    rows = CSV_MAPPER.writerFor(JsonNode.class)
+                            .with(schemaFor(node))
+                            .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                            .writeValues(out);
+                }
+                rows.write(node);
+            } catch (IOException e) {
+                throw new PluginException("Unable to processing CSV", e);
+            }
+        }
+
+        void writeWhole(Value value) {
+            try {
+                out.write(write(value, mediaType, String.class).getContent());
+            } catch (IOException e) {
+                throw new PluginException("Unable to processing CSV", e);
+            }
+        }
+
+        void finish() {
+            try {
+                if (rows != null) {
+                    rows.close();
+                } else if (mediaType.getParameters().containsKey(DS_PARAM_HEADERS)) {
+                    writeWhole(new ujson.Arr(new scala.collection.mutable.ArrayBuffer<>()));
+                }
+                out.flush();
+            } catch (IOException e) {
+                throw new PluginException("Unable to processing CSV", e);
+            }
+        }
+
+        private CsvSchema schemaFor(JsonNode firstRow) {
+            CsvSchema.Builder builder = getBuilder(mediaType);
+            if (isUseHeader(mediaType)) {
+                Map<String, String> params = mediaType.getParameters();
+                if (params.containsKey(DS_PARAM_HEADERS)) {
+                    for (String header : params.get(DS_PARAM_HEADERS).split(",")) {
+                        builder.addColumn(header);
+                    }
+                } else {
+                    firstRow.fieldNames().forEachRemaining(builder::addColumn);
+                }
+            }
+            return builder.build();
+        }
+    }
+
     private CsvSchema.Builder getBuilder(MediaType mediaType) {
         CsvSchema.Builder builder = CsvSchema.builder();
 
@@ -23,14 +23,19 @@ import com.datasonnet.spi.AbstractDataFormatPlugin;
 import com.datasonnet.spi.PluginException;
 import com.datasonnet.spi.ujsonUtils;
 import ujson.Value;
+import upickle.core.Visitor;
 
 import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 
 public class DefaultJSONFormatPlugin extends AbstractDataFormatPlugin {
@@ -132,4 +137,29 @@ public class DefaultJSONFormatPlugin extends AbstractDataFormatPlugin {
 
         throw new PluginException(new IllegalArgumentException("Unsupported document content class, use the test method canRead before invoking read"));
     }
+
+    @Override
+    public boolean canStream(MediaType mediaType) {
+        return canWrite(mediaType, OutputStream.class);
+    }
+
+    @Override
+    public Visitor<?, ?> streamingWriter(MediaType mediaType, OutputStream out) throws PluginException {
+        Charset charset = mediaType.getCharset();
+        if (charset == null) {
+            charset = StandardCharsets.UTF_8;
+        }
+
+        int indent = mediaType.getParameters().containsKey(DS_PARAM_INDENT) ? 4 : -1;
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, charset));
+
+        return new ujson.Renderer(writer, indent, false).map(result -> {
+            try {
+                writer.flush();
+            } catch (IOException e) {
+                throw new PluginException("Unable to write JSON output", e);
+            }
+            return result;
+        });
+    }
 }
@@ -0,0 +1,226 @@
+package com.datasonnet.plugins;
+
+/*-
+ * Copyright 2019-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import com.datasonnet.document.DefaultDocument;
+import com.datasonnet.document.Document;
+import com.datasonnet.document.MediaType;
+import com.datasonnet.document.MediaTypes;
+import com.datasonnet.spi.AbstractDataFormatPlugin;
+import com.datasonnet.spi.ElementStreamingVisitor;
+import com.datasonnet.spi.PluginException;
+import com.datasonnet.spi.ujsonUtils;
+import ujson.Value;
+import upickle.core.Visitor;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Newline delimited JSON (also known as JSON Lines): every non blank line holds one JSON value.
+ * <p>
+ * A document is read as an array with one element per line, and an array is written with one line per element. Any
+ * other value is written as a single line.
+ */
+public class DefaultNDJSONFormatPlugin extends AbstractDataFormatPlugin {
+    public static final String DS_PARAM_STREAMING = "streaming";
+
+    public DefaultNDJSONFormatPlugin() {
+        supportedTypes.add(MediaTypes.APPLICATION_NDJSON);
+        supportedTypes.add(new MediaType("application", "jsonl"));
+
+        readerParams.add(DS_PARAM_STREAMING);
+
+        readerSupportedClasses.add(java.lang.String.class);
+        readerSupportedClasses.add(java.lang.CharSequence.class);
+        readerSupportedClasses.add(java.io.InputStream.class);
+        readerSupportedClasses.add(byte[].class);
+
+        writerSupportedClasses.add(java.lang.String.class);
+        writerSupportedClasses.add(java.lang.CharSequence.class);
+        writerSupportedClasses.add(java.io.OutputStream.class);
+        writerSupportedClasses.add(byte[].class);
+    }
+
+    @Override
+    public Value read(Document<?> doc) throws PluginException {
+        if (doc.getContent() == null) {
+            return ujson.Null$.MODULE$;
+        }
+
+        ujson.Arr records = new ujson.Arr(new scala.collection.mutable.ArrayBuffer<>());
+        streamingReader(doc).forEachRemaining(records.value()::addOne);
+        return records;
+    }
+
+    @Override
+    public boolean canStreamRead(Document<?> doc) {
+        return doc.getContent() != null && Boolean.parseBoolean(doc.getMediaType().getParameter(DS_PARAM_STREAMING));
+    }
+
+    /**
+     * Parses one line at a time; blank lines are skipped. An {@link InputStream} content is read to its end but is
+     * not closed.
+     */
+    @Override
+    public Iterator<Value> streamingReader(Document<?> doc) throws PluginException {
+        BufferedReader lines = new BufferedReader(readerFor(doc));
+
+        return new Iterator<Value>() {
+            private String next = advance();
+
+            private String advance() {
+                try {
+                    String line;
+                    while ((line = lines.readLine()) != null) {
+                        if (!line.trim().isEmpty()) {
+                            return line;
+                        }
+                    }
+                    return null;
+                } catch (IOException e) {
+                    throw new PluginException("Unable to read NDJSON input", e);
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Value next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                String line = next;
+                next = advance();
+                return ujsonUtils.parse(line);
+            }
+        };
+    }
+
+    private Reader readerFor(Document<?> doc) throws PluginException {
+        Object content = doc.getContent();
+        if (content instanceof CharSequence) {
+            return new StringReader(content.toString());
+        }
+
+        Charset charset = charsetOf(doc.getMediaType());
+        if (content instanceof byte[]) {
+            return new InputStreamReader(new ByteArrayInputStream((byte[]) content), charset);
+        }
+        if (content instanceof InputStream) {
+            return new InputStreamReader((InputStream) content, charset);
+        }
+
+        throw new PluginException(new IllegalArgumentException("Unsupported document content class, use the test method canRead before invoking read"));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T> Document<T> write(Value input, MediaType mediaType, Class<T> targetType) throws PluginException {
+        Charset charset = charsetOf(mediaType);
+
+        if (targetType.isAssignableFrom(String.class) || targetType.isAssignableFrom(CharSequence.class)) {
+            StringWriter writer = new StringWriter();
+            writeLines(input, writer);
+            return new DefaultDocument<>((T) writer.toString(), MediaTypes.APPLICATION_NDJSON);
+        }
+
+        if (targetType.isAssignableFrom(OutputStream.class)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Writer writer = new OutputStreamWriter(out, charset);
+            writeLines(input, writer);
+            flush(writer);
+            return new DefaultDocument<>((T) out, MediaTypes.APPLICATION_NDJSON);
+        }
+
+        if (targetType.isAssignableFrom(byte[].class)) {
+            StringWriter writer = new StringWriter();
+            writeLines(input, writer);
+            return new DefaultDocument<>((T) writer.toString().getBytes(charset), MediaTypes.APPLICATION_NDJSON);
+        }
+
+        throw new PluginException(new IllegalArgumentException("Unsupported document content class, use the test method canWrite before invoking write"));
+    }
+
+    @Override
+    public boolean canStream(MediaType mediaType) {
+        return canWrite(mediaType, OutputStream.class);
+    }
+
+    /**
+     * Writes one line per element of a top level array as soon as the element has been materialized.
+     */
+    @Override
+    public Visitor<?, ?> streamingWriter(MediaType mediaType, OutputStream out) throws PluginException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, charsetOf(mediaType)));
+        return new ElementStreamingVisitor(
+                element -> writeLine(element, writer),
+                value -> writeLines(value, writer),
+                () -> flush(writer));
+    }
+
+    private static void writeLines(Value value, Writer writer) {
+        if (value instanceof ujson.Arr) {
+            ((ujson.Arr) value).value().foreach(element -> {
+                writeLine(element, writer);
+                return null;
+            });
+        } else {
+            writeLine(value, writer);
+        }
+    }
+
+    private static void writeLine(Value value, Writer writer) {
+        try {
+            ujsonUtils.writeTo(value, writer, -1, false);
+            writer.write('\n');
+        } catch (IOException e) {
+            throw new PluginException("Unable to write NDJSON output", e);
+        }
+    }
+
+    private static void flush(Writer writer) {
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            throw new PluginException("Unable to write NDJSON output", e);
+        }
+    }
+
+    // NDJSON is always UTF-8 unless the media type says otherwise
+    private static Charset charsetOf(MediaType mediaType) {
+        Charset charset = mediaType.getCharset();
+        return charset != null ? charset : StandardCharsets.UTF_8;
+    }
+}
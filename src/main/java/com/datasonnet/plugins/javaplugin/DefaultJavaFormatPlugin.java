@@ -52,7 +52,7 @@ public class DefaultJavaFormatPlugin extends BaseJacksonDataFormatPlugin {
     public static final String DS_PARAM_POLYMORPHIC_TYPE_ID_PROPERTY = "polymorphictypeidproperty";
     public static final String DS_PARAM_FIND_AND_REGISTER_MODULES = "findandregistermodules";
 
-    private static final Map<String, ObjectMapper> MAPPER_CACHE = new RecentsMap<>(64);
+    private static final Map<String, ObjectMapper> MAPPER_CACHE = Collections.synchronizedMap(new RecentsMap<>(64));
 
     static {
         SimpleModule module = new SimpleModule();
@@ -19,6 +19,10 @@ package com.datasonnet.spi;
 import com.datasonnet.document.Document;
 import com.datasonnet.document.MediaType;
 import ujson.Value;
+import upickle.core.Visitor;
+
+import java.io.OutputStream;
+import java.util.Iterator;
 
 public interface DataFormatPlugin {
 
@@ -33,4 +37,36 @@ public interface DataFormatPlugin {
     ujson.Value read(Document<?> doc) throws PluginException;
 
     <T> Document<T> write(Value input, MediaType mediaType, Class<T> targetType) throws PluginException;
+
+    /**
+     * Whether the given document should be read incrementally, see {@link #streamingReader(Document)}.
+     */
+    default boolean canStreamRead(Document<?> doc) {
+        return false;
+    }
+
+    /**
+     * Reads the given document as a sequence of records that are only parsed as they are requested. The records are
+     * exposed to the script as an array that can be traversed once.
+     */
+    default Iterator<Value> streamingReader(Document<?> doc) throws PluginException {
+        throw new PluginException(new UnsupportedOperationException("Streaming is not supported for " + doc.getMediaType()));
+    }
+
+    /**
+     * Whether this plugin can serialize values of the given media type straight to a stream, see
+     * {@link #streamingWriter(MediaType, OutputStream)}.
+     */
+    default boolean canStream(MediaType mediaType) {
+        return false;
+    }
+
+    /**
+     * Returns a visitor that serializes the visited value to the given stream as it is being materialized, so no
+     * intermediate {@link ujson.Value} needs to be built for the whole output. The visitor flushes the stream once the
+     * top level value is complete but never closes it.
+     */
+    default Visitor<?, ?> streamingWriter(MediaType mediaType, OutputStream out) throws PluginException {
+        throw new PluginException(new UnsupportedOperationException("Streaming is not supported for " + mediaType));
+    }
 }
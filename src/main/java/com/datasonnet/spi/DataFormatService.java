@@ -36,6 +36,7 @@ public class DataFormatService {
                     new DefaultCSVFormatPlugin(),
                     new DefaultPlainTextFormatPlugin(),
                     new DefaultYamlFormatPlugin(),
+                    new DefaultNDJSONFormatPlugin(),
                     new MimeMultipartPlugin()));
 
     public DataFormatService(List<DataFormatPlugin> plugins) {
@@ -55,6 +56,15 @@ public class DataFormatService {
         return Optional.empty();
     }
 
+    public Optional<DataFormatPlugin> thatCanStream(MediaType output) {
+        for (DataFormatPlugin plugin : plugins) {
+            if (plugin.canStream(output)) {
+                return Optional.of(plugin);
+            }
+        }
+        return Optional.empty();
+    }
+
     public Optional<DataFormatPlugin> thatCanRead(Document<?> doc) {
         for (DataFormatPlugin plugin : plugins) {
             if (plugin.canRead(doc)) {
@@ -20,8 +20,8 @@ import com.datasonnet.header.Header
 import com.datasonnet.jsonnet.Expr.Member.Visibility
 import com.datasonnet.jsonnet.ReadWriter.{ApplyerRead, ArrRead, StringRead}
 import com.datasonnet.jsonnet.Std._
-import com.datasonnet.jsonnet.{Applyer, Error, EvalScope, Expr, FileScope, Materializer, Val}
-import com.datasonnet.modules.{Crypto, JsonPath, Regex}
+import com.datasonnet.jsonnet.{Applyer, Error, EvalScope, Expr, FileScope, KeyedSort, Materializer, ObjShape, PackedSeq, Val}
+import com.datasonnet.modules.{Crypto, JsonPath, PatternCache, Regex}
 import com.datasonnet.spi.{DataFormatService, Library, ujsonUtils}
 import sourcecode.Macros.Chunk
 import ujson.Value
@@ -38,8 +38,10 @@ import java.util.function.Function
 import java.util.{Base64, Scanner, UUID}
 import javax.crypto.Cipher
 import javax.crypto.spec.{IvParameterSpec, SecretKeySpec}
+import scala.collection.immutable.ArraySeq
 import scala.collection.mutable
 import scala.jdk.CollectionConverters._
+import scala.reflect.ClassTag
 import scala.util.Random
 
 object DSLowercase extends Library {
@@ -49,27 +51,27 @@ object DSLowercase extends Library {
   override def libsonnets(): java.util.Set[String] = java.util.Collections.emptySet()
 
   override def functions(dataFormats: DataFormatService, header: Header): java.util.Map[String, Val.Func] = Map(
-    builtin("contains", "container", "value") {
+    compilesPattern(1, Regexes)(regexes => builtin("contains", "container", "value") {
       (_, _, container: Val, value: Val) =>
         container match {
           // See: scala.collection.IterableOnceOps.exists
           case Val.Arr(array) =>
             array.exists(_.force == value)
           case Val.Str(s) =>
-            value.cast[Val.Str].value.r.findAllMatchIn(s).nonEmpty;
+            regexes(value.cast[Val.Str].value).findAllMatchIn(s).nonEmpty;
           case i => throw Error.Delegate("Expected Array or String, got: " + i.prettyName)
         }
-    },
+    }),
 
     builtin("entriesOf", "obj") {
       (ev, fs, obj: Val.Obj) =>
         Val.Arr(obj.getVisibleKeys().keySet.collect({
           case key =>
             val currentObj = scala.collection.mutable.Map[String, Val.Obj.Member]()
-            currentObj += ("key" -> Val.Obj.Member(add = false, Visibility.Normal, (_, _, _, _) => Val.Lazy(Val.Str(key)).force))
+            currentObj += ("key" -> Val.Obj.Member(add = false, Visibility.Normal, (_, _, _, _) => Val.Str(key)))
             currentObj += ("value" -> Val.Obj.Member(add = false, Visibility.Normal, (_, _, _, _) => obj.value(key, -1)(fs, ev)))
 
-            Val.Lazy(new Val.Obj(currentObj, _ => (), None))
+            Val.Lazy.strict(new Val.Obj(currentObj, _ => (), None))
         }).toSeq)
     },
 
@@ -77,7 +79,7 @@ object DSLowercase extends Library {
       (_, _, value: Val, funct: Applyer) =>
         value match {
           case Val.Arr(array) => filter(array, funct)
-          case Val.Null => Val.Lazy(Val.Null).force
+          case Val.Null => Val.Null
           case i => throw Error.Delegate("Expected Array, got: " + i.prettyName)
         }
     },
@@ -86,30 +88,28 @@ object DSLowercase extends Library {
       (ev, fs, value: Val, func: Applyer) =>
         value match {
           case obj: Val.Obj => filterObject(obj, func, ev, fs)
-          case Val.Null => Val.Lazy(Val.Null).force
+          case Val.Null => Val.Null
           case i => throw Error.Delegate("Expected Object, got: " + i.prettyName)
         }
     },
 
-    builtin("find", "container", "value") {
+    compilesPattern(1, Regexes)(regexes => builtin("find", "container", "value") {
       (_, _, container: Val, value: Val) =>
         container match {
           case Val.Str(str) =>
             val sub = value.cast[Val.Str].value
-            Val.Arr(sub.r.findAllMatchIn(str).map(_.start).map(item => Val.Lazy(Val.Num(item))).toSeq)
+            Val.Arr(new PackedSeq.Numbers(regexes(sub).findAllMatchIn(str).map(_.start.toDouble).toArray))
           case Val.Arr(s) =>
-            Val.Arr(s.zipWithIndex.collect({
-              case (v, i) if v.force == value => Val.Lazy(Val.Num(i))
-            }))
+            Val.Arr(new PackedSeq.Numbers(s.indices.filter(s(_).force == value).map(_.toDouble).toArray))
           case i => throw Error.Delegate("Expected Array or String, got: " + i.prettyName)
         }
-    },
+    }),
 
     builtin("flatMap", "array", "funct") {
       (_, _, array: Val, funct: Applyer) =>
         array match {
           case Val.Arr(s) => flatMap(s, funct)
-          case Val.Null => Val.Lazy(Val.Null).force
+          case Val.Null => Val.Null
           case i => throw Error.Delegate("Expected Array, got: " + i.prettyName)
         }
     },
@@ -121,13 +121,13 @@ object DSLowercase extends Library {
             val out = collection.mutable.Buffer.empty[Val.Lazy]
             for (innerArray <- outerArray) {
               innerArray.force match {
-                case Val.Null => out.append(Val.Lazy(Val.Null))
+                case Val.Null => out.append(Val.Lazy.strict(Val.Null))
                 case Val.Arr(v) => out.appendAll(v)
                 case i => throw Error.Delegate("Expected Array, got: " + i.prettyName)
               }
             }
             Val.Arr(out.toSeq)
-          case Val.Null => Val.Lazy(Val.Null).force
+          case Val.Null => Val.Null: Val
           case i => throw Error.Delegate("Expected Array, got: " + i.prettyName)
         }
     },
@@ -155,7 +155,7 @@ object DSLowercase extends Library {
             groupBy(s, funct)
           case obj: Val.Obj =>
             groupBy(obj, funct, ev, fs)
-          case Val.Null => Val.Lazy(Val.Null).force
+          case Val.Null => Val.Null
           case i => throw Error.Delegate("Expected Array or Object, got: " + i.prettyName)
         }
     },
@@ -216,7 +216,7 @@ object DSLowercase extends Library {
 
     builtin("keysOf", "obj") {
       (_, _, obj: Val.Obj) =>
-        Val.Arr(obj.getVisibleKeys().keySet.map(item => Val.Lazy(Val.Str(item))).toSeq)
+        Val.Arr(obj.getVisibleKeys().keySet.map(item => Val.Lazy.strict(Val.Str(item))).toSeq)
     },
 
     builtin("lower", "str") {
@@ -229,7 +229,7 @@ object DSLowercase extends Library {
         array match {
           case Val.Arr(seq) =>
             map(seq, funct)
-          case Val.Null => Val.Lazy(Val.Null).force
+          case Val.Null => Val.Null
           case i =>throw Error.Delegate("Expected Array, got: " + i.prettyName)
         }
     },
@@ -239,7 +239,7 @@ object DSLowercase extends Library {
         value match {
           case obj: Val.Obj =>
             mapEntries(obj, funct, ev, fs)
-          case Val.Null => Val.Lazy(Val.Null).force
+          case Val.Null => Val.Null
           case i => throw Error.Delegate("Expected Object, got: " + i.prettyName)
         }
     },
@@ -249,24 +249,24 @@ object DSLowercase extends Library {
         value match {
           case obj: Val.Obj =>
             mapObject(obj, funct, ev, fs)
-          case Val.Null => Val.Lazy(Val.Null).force
+          case Val.Null => Val.Null
           case i => throw Error.Delegate("Expected Object, got: " + i.prettyName)
         }
     },
 
-    builtin("match", "string", "regex") {
+    compilesPattern(1, Regexes)(regexes => builtin("match", "string", "regex") {
       (_, _, string: String, regex: String) =>
         val out = collection.mutable.Buffer.empty[Val.Lazy]
-        regex.r.findAllMatchIn(string).foreach(
-          word => (0 to word.groupCount).foreach(index => out += Val.Lazy(Val.Str(word.group(index))))
+        regexes(regex).findAllMatchIn(string).foreach(
+          word => (0 to word.groupCount).foreach(index => out += Val.Lazy.strict(Val.Str(word.group(index))))
         )
         Val.Arr(out.toSeq)
-    },
+    }),
 
-    builtin("matches", "string", "regex") {
+    compilesPattern(1, Regexes)(regexes => builtin("matches", "string", "regex") {
       (_, _, string: String, regex: String) =>
-        regex.r.matches(string);
-    },
+        regexes(regex).matches(string);
+    }),
 
     builtin("max", "array") {
       (_, _, array: Val.Arr) =>
@@ -278,7 +278,7 @@ object DSLowercase extends Library {
                 value = x
               }
             case "boolean" =>
-              if (x.force == Val.Lazy(Val.True).force) {
+              if (x.force == Val.True) {
                 value = x
               }
             case "number" =>
@@ -321,7 +321,7 @@ object DSLowercase extends Library {
                 value = x
               }
             case "boolean" =>
-              if (x.force == Val.Lazy(Val.False).force) {
+              if (x.force == Val.False) {
                 value = x
               }
             case "number" =>
@@ -361,7 +361,7 @@ object DSLowercase extends Library {
             orderBy(array, funct)
           case obj: Val.Obj =>
             orderBy(obj, funct, ev, fs)
-          case Val.Null => Val.Lazy(Val.Null).force
+          case Val.Null => Val.Null
           case i => throw Error.Delegate("Expected Array or Object, got: " + i.prettyName)
         }
     },
@@ -369,13 +369,13 @@ object DSLowercase extends Library {
     // TODO: add step param
     builtin("range", "begin", "end") {
       (_, _, begin: Int, end: Int) =>
-        Val.Arr((begin to end).map(i => Val.Lazy(Val.Num(i))))
+        Val.Arr(new PackedSeq.Range(begin, end))
     },
 
-    builtin("replace", "string", "regex", "replacement") {
+    compilesPattern(1, Regexes)(regexes => builtin("replace", "string", "regex", "replacement") {
       (_, _, str: String, reg: String, replacement: String) =>
-        reg.r.replaceAllIn(str, replacement)
-    },
+        regexes(reg).replaceAllIn(str, replacement)
+    }),
 
     // moved from dataformats
     builtinWithDefaults("read",
@@ -412,16 +412,16 @@ object DSLowercase extends Library {
         }
     },
 
-    builtin("scan", "str", "regex") {
+    compilesPattern(1, Regexes)(regexes => builtin("scan", "str", "regex") {
       (_, _, str: String, regex: String) =>
         Val.Arr(
-          regex.r.findAllMatchIn(str).map(item => {
-            Val.Lazy(Val.Arr(
-              (0 to item.groupCount).map(i => Val.Lazy(Val.Str(item.group(i))))
+          regexes(regex).findAllMatchIn(str).map(item => {
+            Val.Lazy.strict(Val.Arr(
+              (0 to item.groupCount).map(i => Val.Lazy.strict(Val.Str(item.group(i))))
             ))
           }).toSeq
         )
-    },
+    }),
 
     builtin("select", "obj", "path") {
       (ev, fs, obj: Val.Obj, path: String) =>
@@ -440,10 +440,10 @@ object DSLowercase extends Library {
         }
     },
 
-    builtin("splitBy", "str", "regex") {
+    compilesPattern(1, Regexes)(regexes => builtin("splitBy", "str", "regex") {
       (_, _, str: String, regex: String) =>
-        Val.Arr(regex.r.split(str).toIndexedSeq.map(item => Val.Lazy(Val.Str(item))))
-    },
+        Val.Arr(regexes(regex).split(str).toIndexedSeq.map(item => Val.Lazy.strict(Val.Str(item))))
+    }),
 
     builtin("startsWith", "str1", "str2") {
       (_, _, str1: String, str2: String) =>
@@ -487,7 +487,7 @@ object DSLowercase extends Library {
           for (x <- array.value) {
             current.append(x.force.asInstanceOf[Val.Arr].value(i))
           }
-          out.append(Val.Lazy(Val.Arr(current.toSeq)))
+          out.append(Val.Lazy.strict(Val.Arr(current.toSeq)))
         }
         Val.Arr(out.toSeq)
     },
@@ -512,7 +512,7 @@ object DSLowercase extends Library {
             sb.append(AlphaNumericString.charAt(index))
           }
         }
-        Val.Lazy(Val.Str(sb.toString())).force
+        sb.toString()
     },
 
     builtin("valuesOf", "obj") {
@@ -551,7 +551,7 @@ object DSLowercase extends Library {
             current.append(bigArray(i))
             current.append(v)
           }
-          out.append(Val.Lazy(Val.Arr(current.toSeq)))
+          out.append(Val.Lazy.strict(Val.Arr(current.toSeq)))
         }
         Val.Arr(out.toSeq)
     },
@@ -586,7 +586,7 @@ object DSLowercase extends Library {
       var current = init
       for (item <- arr.value) {
         val c = current
-        current = func.apply(Val.Lazy(c), item)
+        current = func.apply(Val.Lazy.strict(c), item)
       }
       current
     },
@@ -597,7 +597,7 @@ object DSLowercase extends Library {
       var current = init
       for (item <- arr.value.reverse) {
         val c = current
-        current = func.apply(item, Val.Lazy(c))
+        current = func.apply(item, Val.Lazy.strict(c))
       }
       current
     },
@@ -624,15 +624,15 @@ object DSLowercase extends Library {
         first match {
           case Val.Str(str) =>
             second match {
-              case Val.Str(str2) => Val.Lazy(Val.Str(str.concat(str2))).force
+              case Val.Str(str2) => Val.Str(str.concat(str2))
               case Val.Num(num) =>
-                Val.Lazy(Val.Str(str.concat(
+                Val.Str(str.concat(
                   if (Math.ceil(num) == Math.floor(num)) {
                     num.toInt.toString
                   } else {
                     num.toString
                   }
-                ))).force
+                ))
               case i => throw Error.Delegate("Expected String or Number, got: " + i.prettyName)
             }
           case Val.Num(num) =>
@@ -642,15 +642,15 @@ object DSLowercase extends Library {
               num.toString
             }
             second match {
-              case Val.Str(str) => Val.Lazy(Val.Str(stringNum.concat(str))).force
+              case Val.Str(str) => Val.Str(stringNum.concat(str))
               case Val.Num(num2) =>
-                Val.Lazy(Val.Str(stringNum.concat(
+                Val.Str(stringNum.concat(
                   if (Math.ceil(num2) == Math.floor(num2)) {
                     num2.toInt.toString
                   } else {
                     num2.toString
                   }
-                ))).force
+                ))
               case i => throw Error.Delegate("Expected String or Number, got: " + i.prettyName)
             }
           case Val.Arr(arr) =>
@@ -730,19 +730,19 @@ object DSLowercase extends Library {
     builtin("append", "first", "second") {
       (_, _, arr: Val.Arr, second: Val) =>
         val out = collection.mutable.Buffer.empty[Val.Lazy]
-        Val.Arr(out.appendAll(arr.value).append(Val.Lazy(second)).toSeq)
+        Val.Arr(out.appendAll(arr.value).append(Val.Lazy.strict(second)).toSeq)
     },
 
     builtin("prepend", "first", "second") {
       (_, _, arr: Val.Arr, second: Val) =>
         val out = collection.mutable.Buffer.empty[Val.Lazy]
-        Val.Arr(out.append(Val.Lazy(second)).appendAll(arr.value).toSeq)
+        Val.Arr(out.append(Val.Lazy.strict(second)).appendAll(arr.value).toSeq)
     },
 
     builtin("reverse", "collection") {
       (ev, fs, collection: Val) =>
         collection match {
-          case Val.Str(str) => Val.Lazy(Val.Str(str.reverse)).force
+          case Val.Str(str) => Val.Str(str.reverse)
           case Val.Arr(arr) => Val.Arr(arr.reverse)
           case obj: Val.Obj =>
             var result: Seq[(String, Val.Obj.Member)] = Seq()
@@ -814,16 +814,16 @@ object DSLowercase extends Library {
             if zoneOffset exists but zoneId doesn't - use zoneOffset
             if both zoneId and zoneOffset exist - use zoneId
            */
-          val zoneId = out.getOrElse("zoneId",out.getOrElse("zoneOffset", Val.Lazy(Val.Str("Z")).force))
+          val zoneId = out.getOrElse("zoneId",out.getOrElse("zoneOffset", Val.Str("Z")))
 
           val datetimeObj = java.time.ZonedDateTime.of(
-            out.getOrElse("year",Val.Lazy(Val.Num(0)).force).cast[Val.Num].value.toInt,
-            out.getOrElse("month",Val.Lazy(Val.Num(1)).force).cast[Val.Num].value.toInt,
-            out.getOrElse("day",Val.Lazy(Val.Num(1)).force).cast[Val.Num].value.toInt,
-            out.getOrElse("hour",Val.Lazy(Val.Num(0)).force).cast[Val.Num].value.toInt,
-            out.getOrElse("minute",Val.Lazy(Val.Num(0)).force).cast[Val.Num].value.toInt,
-            out.getOrElse("second",Val.Lazy(Val.Num(0)).force).cast[Val.Num].value.toInt,
-            out.getOrElse("nano",Val.Lazy(Val.Num(0)).force).cast[Val.Num].value.toInt,
+            out.getOrElse("year",Val.Num(0)).cast[Val.Num].value.toInt,
+            out.getOrElse("month",Val.Num(1)).cast[Val.Num].value.toInt,
+            out.getOrElse("day",Val.Num(1)).cast[Val.Num].value.toInt,
+            out.getOrElse("hour",Val.Num(0)).cast[Val.Num].value.toInt,
+            out.getOrElse("minute",Val.Num(0)).cast[Val.Num].value.toInt,
+            out.getOrElse("second",Val.Num(0)).cast[Val.Num].value.toInt,
+            out.getOrElse("nano",Val.Num(0)).cast[Val.Num].value.toInt,
             ZoneId.of(zoneId.cast[Val.Str].value)
           )
 
@@ -1024,14 +1024,14 @@ object DSLowercase extends Library {
           val out = mutable.Map[String, Val]()
           obj.foreachVisibleKey( (key,_) => out.addOne(key, obj.value(key,-1)(fs,ev)))
           java.time.ZonedDateTime.of(
-            out.getOrElse("year",Val.Lazy(Val.Num(0)).force).cast[Val.Num].value.toInt,
-            out.getOrElse("month",Val.Lazy(Val.Num(1)).force).cast[Val.Num].value.toInt,
-            out.getOrElse("day",Val.Lazy(Val.Num(1)).force).cast[Val.Num].value.toInt,
-            out.getOrElse("hour",Val.Lazy(Val.Num(0)).force).cast[Val.Num].value.toInt,
-            out.getOrElse("minute",Val.Lazy(Val.Num(0)).force).cast[Val.Num].value.toInt,
-            out.getOrElse("second",Val.Lazy(Val.Num(0)).force).cast[Val.Num].value.toInt,
-            0, //out.getOrElse("nanosecond",Val.Lazy(Val.Num(0)).force).cast[Val.Num].value.toInt TODO?
-            ZoneId.of(out.getOrElse("timezone",Val.Lazy(Val.Str("Z")).force).cast[Val.Str].value)
+            out.getOrElse("year",Val.Num(0)).cast[Val.Num].value.toInt,
+            out.getOrElse("month",Val.Num(1)).cast[Val.Num].value.toInt,
+            out.getOrElse("day",Val.Num(1)).cast[Val.Num].value.toInt,
+            out.getOrElse("hour",Val.Num(0)).cast[Val.Num].value.toInt,
+            out.getOrElse("minute",Val.Num(0)).cast[Val.Num].value.toInt,
+            out.getOrElse("second",Val.Num(0)).cast[Val.Num].value.toInt,
+            0, //out.getOrElse("nanosecond",Val.Num(0)).cast[Val.Num].value.toInt TODO?
+            ZoneId.of(out.getOrElse("timezone",Val.Str("Z")).cast[Val.Str].value)
           ).format(DateTimeFormatter.ISO_OFFSET_DATE_TIME)
       },
 
@@ -1118,10 +1118,10 @@ object DSLowercase extends Library {
           val out = mutable.Map[String, Val]()
           obj.foreachVisibleKey( (key,_) => out.addOne(key, obj.value(key,-1)(fs,ev)))
           Duration.ZERO
-            .plusDays(out.getOrElse("days",Val.Lazy(Val.Num(0)).force).cast[Val.Num].value.toLong)
-            .plusHours(out.getOrElse("hours",Val.Lazy(Val.Num(0)).force).cast[Val.Num].value.toLong)
-            .plusMinutes(out.getOrElse("minutes",Val.Lazy(Val.Num(0)).force).cast[Val.Num].value.toLong)
-            .plusSeconds(out.getOrElse("seconds",Val.Lazy(Val.Num(0)).force).cast[Val.Num].value.toLong)
+            .plusDays(out.getOrElse("days",Val.Num(0)).cast[Val.Num].value.toLong)
+            .plusHours(out.getOrElse("hours",Val.Num(0)).cast[Val.Num].value.toLong)
+            .plusMinutes(out.getOrElse("minutes",Val.Num(0)).cast[Val.Num].value.toLong)
+            .plusSeconds(out.getOrElse("seconds",Val.Num(0)).cast[Val.Num].value.toLong)
             .toString
       },
 
@@ -1145,9 +1145,9 @@ object DSLowercase extends Library {
           val out = mutable.Map[String, Val]()
           obj.foreachVisibleKey( (key,_) => out.addOne(key, obj.value(key,-1)(fs,ev)))
           Period.ZERO
-            .plusYears(out.getOrElse("years",Val.Lazy(Val.Num(0)).force).cast[Val.Num].value.toLong)
-            .plusMonths(out.getOrElse("months",Val.Lazy(Val.Num(0)).force).cast[Val.Num].value.toLong)
-            .plusDays(out.getOrElse("days",Val.Lazy(Val.Num(0)).force).cast[Val.Num].value.toLong)
+            .plusYears(out.getOrElse("years",Val.Num(0)).cast[Val.Num].value.toLong)
+            .plusMonths(out.getOrElse("months",Val.Num(0)).cast[Val.Num].value.toLong)
+            .plusDays(out.getOrElse("days",Val.Num(0)).cast[Val.Num].value.toLong)
             .toString
       },
 
@@ -1310,53 +1310,53 @@ object DSLowercase extends Library {
     ),
 
     "regex" -> moduleFrom(
-      builtin("regexFullMatch", "expr", "str") {
+      compilesPattern(0, Regex.PATTERNS)(patterns => builtin("regexFullMatch", "expr", "str") {
         (_, _, expr: String, str: String) =>
-          Materializer.reverse(Regex.regexFullMatch(expr, str))
-      },
+          Materializer.reverse(Regex.regexFullMatch(patterns(expr), str))
+      }),
 
-      builtin("regexPartialMatch", "expr", "str") {
+      compilesPattern(0, Regex.PATTERNS)(patterns => builtin("regexPartialMatch", "expr", "str") {
         (_, _, expr: String, str: String) =>
-          Materializer.reverse(Regex.regexPartialMatch(expr, str))
-      },
+          Materializer.reverse(Regex.regexPartialMatch(patterns(expr), str))
+      }),
 
-      builtin("regexScan", "expr", "str") {
+      compilesPattern(0, Regex.PATTERNS)(patterns => builtin("regexScan", "expr", "str") {
         (_, _, expr: String, str: String) =>
-          Materializer.reverse(Regex.regexScan(expr, str))
-      },
+          Materializer.reverse(Regex.regexScan(patterns(expr), str))
+      }),
 
       builtin("regexQuoteMeta", "str") {
         (_, _, str: String) =>
           Regex.regexQuoteMeta(str)
       },
 
-      builtin("regexReplace", "str", "pattern", "replace") {
+      compilesPattern(1, Regex.PATTERNS)(patterns => builtin("regexReplace", "str", "pattern", "replace") {
         (_, _, str: String, pattern: String, replace: String) =>
-          Regex.regexReplace(str, pattern, replace)
-      },
+          Regex.regexReplace(str, patterns(pattern), replace)
+      }),
 
-      builtinWithDefaults("regexGlobalReplace", "str" -> None, "pattern" -> None, "replace" -> None) { (args, ev) =>
+      compilesPattern(1, Regex.PATTERNS)(patterns => builtinWithDefaults("regexGlobalReplace", "str" -> None, "pattern" -> None, "replace" -> None) { (args, ev) =>
         val replace = args("replace")
         val str = args("str").asInstanceOf[Val.Str].value
         val pattern = args("pattern").asInstanceOf[Val.Str].value
 
         replace match {
-          case replaceStr: Val.Str => Regex.regexGlobalReplace(str, pattern, replaceStr.value)
+          case replaceStr: Val.Str => Regex.regexGlobalReplace(str, patterns(pattern), replaceStr.value)
           case replaceF: Val.Func =>
             val func = new Function[Value, String] {
               override def apply(t: Value): String = {
                 val v = Materializer.reverse(t)
-                Applyer(replaceF, ev, null).apply(Val.Lazy(v)) match {
+                Applyer(replaceF, ev, null).apply(Val.Lazy.strict(v)) match {
                   case resultStr: Val.Str => resultStr.value
                   case _ => throw Error.Delegate("The result of the replacement function must be a String")
                 }
               }
             }
-            Regex.regexGlobalReplace(str, pattern, func)
+            Regex.regexGlobalReplace(str, patterns(pattern), func)
 
           case _ => throw Error.Delegate("'replace' parameter must be either String or Function")
         }
-      }
+      })
     ),
 
     "url" -> moduleFrom(
@@ -1389,13 +1389,16 @@ object DSLowercase extends Library {
       // See: https://gist.github.com/gclaramunt/5710280
       builtin("avg", "array") {
         (_, _, array: Val.Arr) =>
-          val (sum, length) = array.value.foldLeft((0.0, 0))({
-            case ((sum, length), num) =>
-              (num.force match {
-                case Val.Num(x) => sum + x
-                case i => throw Error.Delegate("Expected Array pf Numbers, got: Array of " + i.prettyName)
-              }, 1 + length)
-          })
+          var sum = 0.0
+          var length = 0
+          val items = array.value.iterator
+          while (items.hasNext) {
+            items.next().force match {
+              case n: Val.Num => sum += n.value
+              case i => throw Error.Delegate("Expected Array pf Numbers, got: Array of " + i.prettyName)
+            }
+            length += 1
+          }
           sum / length
       },
 
@@ -1449,12 +1452,15 @@ object DSLowercase extends Library {
 
       builtin("sum", "array") {
         (_, _, array: Val.Arr) =>
-          array.value.foldLeft(0.0)((sum, value) =>
-            value.force match {
-              case Val.Num(x) => sum + x
+          var sum = 0.0
+          val items = array.value.iterator
+          while (items.hasNext) {
+            items.next().force match {
+              case n: Val.Num => sum += n.value
               case i => throw Error.Delegate("Expected Array of Numbers, got: Array of " + i.prettyName)
             }
-          )
+          }
+          sum
       },
 
       // funcs below taken from Std but using Java's Math
@@ -1521,7 +1527,7 @@ object DSLowercase extends Library {
 
       builtin("divideBy", "array", "size") {
         (_, _, array: Val.Arr, size: Int) =>
-          Val.Arr(array.value.sliding(size, size).map(item => Val.Lazy(Val.Arr(item))).toSeq)
+          Val.Arr(array.value.sliding(size, size).map(item => Val.Lazy.strict(Val.Arr(item))).toSeq)
       },
 
       builtin("drop", "arr", "num") {
@@ -1564,8 +1570,8 @@ object DSLowercase extends Library {
       builtin("every", "value", "funct") {
         (_, _, value: Val, funct: Applyer) =>
           value match {
-            case Val.Arr(arr) => Val.bool(arr.forall(funct.apply(_) == Val.True))
-            case Val.Null => Val.Lazy(Val.True).force
+            case Val.Arr(arr) => arr.forall(funct.apply(_) == Val.True)
+            case Val.Null => true
             case i => throw Error.Delegate("Expected Array, got: " + i.prettyName)
           }
       },
@@ -1574,9 +1580,9 @@ object DSLowercase extends Library {
         (_, _, arr: Val.Arr, funct: Applyer) =>
           val args = funct.f.params.allIndices.size
           if (args == 2)
-            arr.value.zipWithIndex.find(item => funct.apply(item._1, Val.Lazy(Val.Num(item._2))) == Val.True).map(_._1).getOrElse(Val.Lazy(Val.Null)).force
+            arr.value.zipWithIndex.find(item => funct.apply(item._1, Val.Lazy.strict(Val.Num(item._2))) == Val.True).map(_._1).getOrElse(Val.Lazy.strict(Val.Null)).force
           else if (args == 1)
-            arr.value.find(funct.apply(_) == Val.True).getOrElse(Val.Lazy(Val.Null)).force
+            arr.value.find(funct.apply(_) == Val.True).getOrElse(Val.Lazy.strict(Val.Null)).force
           else {
             throw Error.Delegate("Expected embedded function to have 1 or 2 parameters, received: " + args)
           }
@@ -1590,16 +1596,16 @@ object DSLowercase extends Library {
       builtin("indexOf", "container", "value") {
         (_, _, container: Val, value: Val) =>
           container match {
-            case Val.Str(str) => Val.Lazy(Val.Num(str.indexOf(value.cast[Val.Str].value))).force
-            case Val.Arr(array) => Val.Lazy(Val.Num(array.indexWhere(_.force == value))).force
-            case Val.Null => Val.Lazy(Val.Num(-1)).force
+            case Val.Str(str) => str.indexOf(value.cast[Val.Str].value)
+            case Val.Arr(array) => array.indexWhere(_.force == value)
+            case Val.Null => -1
             case i => throw Error.Delegate("Expected String or Array, got: " + i.prettyName)
           }
       },
 
       builtin("indexWhere", "arr", "funct") {
         (_, _, array: Val.Arr, funct: Applyer) =>
-          array.value.indexWhere(funct.apply(_) == Val.Lazy(Val.True).force)
+          array.value.indexWhere(funct.apply(_) == Val.True)
       },
 
       builtin0("join", "arrL", "arryR", "functL", "functR") {
@@ -1611,29 +1617,21 @@ object DSLowercase extends Library {
           val functL = valSeq(2).asInstanceOf[Applyer]
           val functR = valSeq(3).asInstanceOf[Applyer]
 
-          val out = collection.mutable.Buffer.empty[Val.Lazy]
-
-          arrL.value.foreach({
-            valueL =>
-              val compareL = functL.apply(valueL)
-              //append all that match the condition
-              out.appendAll(arrR.value.collect({
-                case valueR if compareL.equals(functR.apply(valueR)) =>
-                  val temp = scala.collection.mutable.Map[String, Val.Obj.Member]()
-                  temp += ("l" -> Val.Obj.Member(add = false, Visibility.Normal, (_, _, _, _) => valueL.force))
-                  temp += ("r" -> Val.Obj.Member(add = false, Visibility.Normal, (_, _, _, _) => valueR.force))
-                  Val.Lazy(new Val.Obj(temp, _ => (), None))
-              }))
-          })
-          Val.Arr(out.toSeq)
+          if (arrL.value.isEmpty) Val.Arr(Seq.empty)
+          else hashJoin(arrL.value, arrR.value, functL, functR, key => key, null) { (valueL, valueR) =>
+            val temp = scala.collection.mutable.Map[String, Val.Obj.Member]()
+            temp += ("l" -> Val.Obj.Member(add = false, Visibility.Normal, (_, _, _, _) => valueL.force))
+            temp += ("r" -> Val.Obj.Member(add = false, Visibility.Normal, (_, _, _, _) => valueR.force))
+            new Val.Obj(temp, _ => (), None)
+          }
       },
 
       builtin("lastIndexOf", "container", "value") {
         (_, _, container: Val, value: Val) =>
           container match {
-            case Val.Str(str) => Val.Lazy(Val.Num(str.lastIndexOf(value.cast[Val.Str].value))).force
-            case Val.Arr(array) => Val.Lazy(Val.Num(array.lastIndexWhere(_.force == value))).force
-            case Val.Null => Val.Lazy(Val.Num(-1)).force
+            case Val.Str(str) => Val.Num(str.lastIndexOf(value.cast[Val.Str].value))
+            case Val.Arr(array) => Val.Num(array.lastIndexWhere(_.force == value))
+            case Val.Null => Val.Num(-1)
             case i => throw Error.Delegate("Expected String or Array, got: " + i.prettyName)
           }
       },
@@ -1669,7 +1667,7 @@ object DSLowercase extends Library {
                   }
                 )
               }
-              out.append(Val.Lazy(new Val.Obj(temp, _ => (), None)))
+              out.append(Val.Lazy.strict(new Val.Obj(temp, _ => (), None)))
           })
 
           Val.Arr(out.toSeq)
@@ -1677,12 +1675,15 @@ object DSLowercase extends Library {
 
       builtin("occurrences", "arr", "funct") {
         (_, _, array: Val.Arr, funct: Applyer) =>
-          new Val.Obj(
-            scala.collection.mutable.Map(
-              array.value
-                .groupBy(item => convertToString(funct.apply(item)))
-                .map(item => item._1 -> Val.Obj.Member(add = false, Visibility.Normal, (_, _, _, _) => Val.Lazy(Val.Num(item._2.size)).force)).toSeq:
-              _*),_ => (), None)
+          val items = array.value.toIndexedSeq
+          val grouping = new Grouping(items.length)
+          for (i <- items.indices) grouping.add(i, funct.apply(items(i)))
+          val out = mutable.Map[String, Val.Obj.Member]()
+          for (group <- 0 until grouping.size) {
+            val count = Val.Num(grouping.count(group))
+            out += (grouping.name(group) -> Val.Obj.Member(add = false, Visibility.Normal, (_, _, _, _) => count))
+          }
+          new Val.Obj(out, _ => (), None)
       },
 
       builtin0("outerJoin", "arrL", "arryR", "functL", "functR") {
@@ -1716,7 +1717,7 @@ object DSLowercase extends Library {
                   }
                 )
               }
-              out.append(Val.Lazy(new Val.Obj(temp, _ => (), None)))
+              out.append(Val.Lazy.strict(new Val.Obj(temp, _ => (), None)))
           })
 
           //Add non-matching elements from the right
@@ -1727,7 +1728,7 @@ object DSLowercase extends Library {
               temp += ("r" -> Val.Obj.Member(add = false, Visibility.Normal, (_, _, _, _) => valueR.force))
             }
           )
-          out.append(Val.Lazy(new Val.Obj(temp, _ => (), None)))
+          out.append(Val.Lazy.strict(new Val.Obj(temp, _ => (), None)))
 
           Val.Arr(out.toSeq)
       },
@@ -1757,7 +1758,7 @@ object DSLowercase extends Library {
           value match {
             case Val.Arr(array) =>
               Val.bool(array.exists(item => funct.apply(item) == Val.True))
-            case Val.Null => Val.Lazy(Val.Null).force
+            case Val.Null => Val.Null: Val
             case i => throw Error.Delegate("Expected Array, got: " + i.prettyName)
           }
       },
@@ -1784,7 +1785,10 @@ object DSLowercase extends Library {
 
       builtin("sumBy", "array", "funct") {
         (_, _, array: Val.Arr, funct: Applyer) =>
-          array.value.foldLeft(0.0)((sum, num) => sum + funct.apply(num).asInstanceOf[Val.Num].value)
+          var sum = 0.0
+          val items = array.value.iterator
+          while (items.hasNext) sum += funct.apply(items.next()).asInstanceOf[Val.Num].value
+          sum
       },
 
       builtin("take", "array", "index") {
@@ -1798,12 +1802,39 @@ object DSLowercase extends Library {
       }
     ),
 
+    "index" -> moduleFrom(
+      builtin("build", "arr", "funct") {
+        (_, _, arr: Val.Arr, funct: Applyer) =>
+          val out = mutable.LinkedHashMap[String, mutable.ArrayBuffer[Val.Lazy]]()
+          arr.value.foreach { item =>
+            out.getOrElseUpdate(indexName(funct.apply(item)), mutable.ArrayBuffer[Val.Lazy]()).addOne(item)
+          }
+          new Val.Obj(out.map(keyVal => (keyVal._1, Library.memberOf(Val.Arr(keyVal._2.toIndexedSeq)))), _ => (), None)
+      },
+
+      builtin("lookup", "index", "key") {
+        (ev, fs, index: Val.Obj, key: Val) =>
+          val k = indexName(key)
+          if (index.containsKey(k)) index.value(k, -1)(fs, ev) else Val.Arr(Seq.empty)
+      },
+
+      builtin("innerJoin", "arrL", "arrR", "functL", "functR") {
+        (_, _, arrL: Val.Arr, arrR: Val.Arr, functL: Applyer, functR: Applyer) =>
+          hashJoin(arrL.value, arrR.value, functL, functR, indexName, null)(joined)
+      },
+
+      builtin("leftJoin", "arrL", "arrR", "functL", "functR") {
+        (_, _, arrL: Val.Arr, arrR: Val.Arr, functL: Applyer, functR: Applyer) =>
+          hashJoin(arrL.value, arrR.value, functL, functR, indexName, unmatched)(joined)
+      }
+    ),
+
     "binaries" -> moduleFrom(
       builtin("fromBase64", "value") {
         (_, _, value: Val) =>
           value match {
-            case Val.Num(x) => Val.Lazy(Val.Str(new String(Base64.getDecoder.decode(x.toString)))).force
-            case Val.Str(x) => Val.Lazy(Val.Str(new String(Base64.getDecoder.decode(x)))).force
+            case Val.Num(x) => new String(Base64.getDecoder.decode(x.toString))
+            case Val.Str(x) => new String(Base64.getDecoder.decode(x))
             case i => throw Error.Delegate("Expected String, got: " + i.prettyName)
           }
       },
@@ -1811,32 +1842,26 @@ object DSLowercase extends Library {
       builtin("fromHex", "value") {
         (_, _, value: Val) =>
           value match {
-            case Val.Str(x) => Val.Lazy(Val.Str(
+            case Val.Str(x) =>
               x.toSeq.sliding(2, 2).map(byte => Integer.parseInt(byte.unwrap, 16).toChar).mkString
-            )).force
             case i => throw Error.Delegate("Expected String, got: " + i.prettyName)
           }
       },
 
       builtin("readLinesWith", "value", "encoding") {
         (_, _, value: String, enc: String) =>
-          Val.Arr(
-            new String(value.getBytes(), enc).split('\n').toIndexedSeq.collect({
-              case str => Val.Lazy(Val.Str(str))
-            })
-          )
+          Val.Arr(new PackedSeq.Strings(new String(value.getBytes(), enc).split('\n')))
       },
 
       builtin("toBase64", "value") {
         (_, _, value: Val) =>
           value match {
             case Val.Num(x) =>
-              if (x % 1 == 0) Val.Lazy(Val.Str(new String(Base64.getEncoder.encode(x.toInt.toString.getBytes())))).force
-              else Val.Lazy(Val.Str(new String(Base64.getEncoder.encode(x.toString.getBytes())))).force
+              if (x % 1 == 0) Val.Str(new String(Base64.getEncoder.encode(x.toInt.toString.getBytes())))
+              else Val.Str(new String(Base64.getEncoder.encode(x.toString.getBytes())))
             case Val.Arr(x) =>
-              val bytes = x.map(vl => vl.force.cast[Val.Num].value.toByte)
-              Val.Lazy(Val.Str(new String(Base64.getEncoder.encode(bytes.toArray)))).force
-            case Val.Str(x) => Val.Lazy(Val.Str(new String(Base64.getEncoder.encode(x.getBytes())))).force
+              Val.Str(new String(Base64.getEncoder.encode(PackedSeq.toBytes(x))))
+            case Val.Str(x) => Val.Str(new String(Base64.getEncoder.encode(x.getBytes())))
             case i => throw Error.Delegate("Expected String, got: " + i.prettyName)
           }
       },
@@ -1844,8 +1869,8 @@ object DSLowercase extends Library {
       builtin("toHex", "value") {
         (_, _, value: Val) =>
           value match {
-            case Val.Num(x) => Val.Lazy(Val.Str(Integer.toString(x.toInt, 16).toUpperCase())).force
-            case Val.Str(x) => Val.Lazy(Val.Str(x.getBytes().map(_.toHexString).mkString.toUpperCase())).force
+            case Val.Num(x) => Val.Str(Integer.toString(x.toInt, 16).toUpperCase())
+            case Val.Str(x) => Val.Str(x.getBytes().map(_.toHexString).mkString.toUpperCase())
             case i => throw Error.Delegate("Expected String, got: " + i.prettyName)
           }
       },
@@ -1853,7 +1878,7 @@ object DSLowercase extends Library {
       builtin("writeLinesWith", "value", "encoding") {
         (_, _, value: Val.Arr, enc: String) =>
           val str = value.value.map(item => item.force.asInstanceOf[Val.Str].value).mkString("\n") + "\n"
-          Val.Lazy(Val.Str(new String(str.getBytes, enc))).force
+          Val.Str(new String(str.getBytes, enc))
       }
     ),
 
@@ -1862,12 +1887,12 @@ object DSLowercase extends Library {
         (_, _, value: Val) =>
           value match {
             case Val.Num(x) =>
-              if ("[^2-9]".r.matches(x.toString)) {
+              if (Regexes.get("[^2-9]").matches(x.toString)) {
                 throw Error.Delegate("Expected Binary, got: Number")
               }
-              else Val.Lazy(Val.Num(BigInt.apply(x.toLong.toString,2).bigInteger.longValue())).force
-            case Val.Str(x) => Val.Lazy(Val.Num(BigInt.apply(x, 2).bigInteger.longValue())).force
-            case Val.Null => Val.Lazy(Val.Null).force
+              else Val.Num(BigInt.apply(x.toLong.toString,2).bigInteger.longValue())
+            case Val.Str(x) => Val.Num(BigInt.apply(x, 2).bigInteger.longValue())
+            case Val.Null => Val.Null: Val
             case i => throw Error.Delegate("Expected Binary, got: " + i.prettyName)
           }
       },
@@ -1876,12 +1901,12 @@ object DSLowercase extends Library {
         (_, _, value: Val) =>
           value match {
             case Val.Num(x) =>
-              if ("[^0-9a-f]".r.matches(x.toString.toLowerCase())) {
+              if (Regexes.get("[^0-9a-f]").matches(x.toString.toLowerCase())) {
                 throw Error.Delegate("Expected Binary, got: Number")
               }
-              else Val.Lazy(Val.Num(BigInt.apply(x.toLong.toString, 16).bigInteger.longValue())).force;
-            case Val.Str(x) => Val.Lazy(Val.Num(BigInt.apply(x, 16).bigInteger.longValue())).force;
-            case Val.Null => Val.Lazy(Val.Null).force
+              else Val.Num(BigInt.apply(x.toLong.toString, 16).bigInteger.longValue());
+            case Val.Str(x) => Val.Num(BigInt.apply(x, 16).bigInteger.longValue());
+            case Val.Null => Val.Null: Val
             case i => throw Error.Delegate("Expected Binary, got: " + i.prettyName)
           }
       },
@@ -1889,8 +1914,8 @@ object DSLowercase extends Library {
       builtin("fromRadixNumber", "value", "num") {
         (_, _, value: Val, num: Int) =>
           value match {
-            case Val.Num(x) => Val.Lazy(Val.Num(BigInt.apply(x.toLong.toString, num).bigInteger.longValue() )).force
-            case Val.Str(x) => Val.Lazy(Val.Num(BigInt.apply(x, num).bigInteger.longValue() )).force
+            case Val.Num(x) => Val.Num(BigInt.apply(x.toLong.toString, num).bigInteger.longValue() )
+            case Val.Str(x) => Val.Num(BigInt.apply(x, num).bigInteger.longValue() )
             case i => throw Error.Delegate("Expected Binary, got: " + i.prettyName)
             //null not supported in DW function
           }
@@ -1900,12 +1925,12 @@ object DSLowercase extends Library {
         (_, _, value: Val) =>
           value match {
             case Val.Num(x) =>
-              if (x < 0) Val.Lazy(Val.Str("-" + x.toLong.abs.toBinaryString)).force
-              else Val.Lazy(Val.Str(x.toLong.toBinaryString)).force
+              if (x < 0) Val.Str("-" + x.toLong.abs.toBinaryString)
+              else Val.Str(x.toLong.toBinaryString)
             case Val.Str(x) =>
-              if (x.startsWith("-")) Val.Lazy(Val.Str(x.toLong.abs.toBinaryString)).force
-              else Val.Lazy(Val.Str(x.toLong.toBinaryString)).force
-            case Val.Null => Val.Lazy(Val.Null).force
+              if (x.startsWith("-")) Val.Str(x.toLong.abs.toBinaryString)
+              else Val.Str(x.toLong.toBinaryString)
+            case Val.Null => Val.Null
             case i => throw Error.Delegate("Expected Binary, got: " + i.prettyName)
           }
       },
@@ -1914,12 +1939,12 @@ object DSLowercase extends Library {
         (_, _, value: Val) =>
           value match {
             case Val.Num(x) =>
-              if (x < 0) Val.Lazy(Val.Str("-" + x.toLong.abs.toHexString)).force
-              else Val.Lazy(Val.Str(x.toLong.toHexString)).force
+              if (x < 0) Val.Str("-" + x.toLong.abs.toHexString)
+              else Val.Str(x.toLong.toHexString)
             case Val.Str(x) =>
-              if (x.startsWith("-")) Val.Lazy(Val.Str(x.toLong.abs.toHexString)).force
-              else Val.Lazy(Val.Str(x.toLong.toHexString)).force
-            case Val.Null => Val.Lazy(Val.Null).force
+              if (x.startsWith("-")) Val.Str(x.toLong.abs.toHexString)
+              else Val.Str(x.toLong.toHexString)
+            case Val.Null => Val.Null
             case i => throw Error.Delegate("Expected Binary, got: " + i.prettyName)
           }
       },
@@ -1928,12 +1953,12 @@ object DSLowercase extends Library {
         (_, _, value: Val, num: Int) =>
           value match {
             case Val.Num(x) =>
-              if (x < 0) Val.Lazy(Val.Str("-" + BigInt.apply(x.toLong).toString(num))).force
-              else Val.Lazy(Val.Str(BigInt.apply(x.toLong).toString(num))).force
-            // Val.Lazy(Val.Str(Integer.toString(x.toInt, num))).force
+              if (x < 0) Val.Str("-" + BigInt.apply(x.toLong).toString(num))
+              else Val.Str(BigInt.apply(x.toLong).toString(num))
+            // Val.Str(Integer.toString(x.toInt, num))
             case Val.Str(x) =>
-              if (x.startsWith("-")) Val.Lazy(Val.Str("-" + BigInt.apply(x.toLong).toString(num))).force
-              else Val.Lazy(Val.Str(BigInt.apply(x.toLong).toString(num))).force
+              if (x.startsWith("-")) Val.Str("-" + BigInt.apply(x.toLong).toString(num))
+              else Val.Str(BigInt.apply(x.toLong).toString(num))
             case i => throw Error.Delegate("Expected Binary, got: " + i.prettyName)
             //DW functions does not support null
           }
@@ -1949,7 +1974,7 @@ object DSLowercase extends Library {
             map =>
               val currentObject = collection.mutable.Map[String, Val.Obj.Member]()
               map.foreachEntry((key, _) => currentObject += (key -> Val.Obj.Member(add = false, Visibility.Normal, (_, _, _, _) => obj.value(key, -1)(fs, ev))))
-              out.append(Val.Lazy(new Val.Obj(currentObject, _ => (), None)))
+              out.append(Val.Lazy.strict(new Val.Obj(currentObject, _ => (), None)))
           })
           Val.Arr(out.toSeq)
       },
@@ -1960,13 +1985,13 @@ object DSLowercase extends Library {
             case obj: Val.Obj =>
               val args = funct.f.params.allIndices.size
               if (args == 2)
-                Val.bool(obj.getVisibleKeys().toSeq.forall(key => funct.apply(Val.Lazy(obj.value(key._1, -1)(fs, ev)), Val.Lazy(Val.Str(key._1))) == Val.True))
+                obj.getVisibleKeys().toSeq.forall(key => funct.apply(Val.Lazy(obj.value(key._1, -1)(fs, ev)), Val.Lazy.strict(Val.Str(key._1))) == Val.True)
               else if (args == 1)
-                Val.bool(obj.getVisibleKeys().toSeq.forall(key => funct.apply(Val.Lazy(obj.value(key._1, -1)(fs, ev))) == Val.True))
+                obj.getVisibleKeys().toSeq.forall(key => funct.apply(Val.Lazy(obj.value(key._1, -1)(fs, ev))) == Val.True)
               else {
                 throw Error.Delegate("Expected embedded function to have 1 or 2 parameters, received: " + args)
               }
-            case Val.Null => Val.Lazy(Val.True).force
+            case Val.Null => true
             case i => throw Error.Delegate("Expected Array, got: " + i.prettyName)
           }
       },
@@ -2002,10 +2027,10 @@ object DSLowercase extends Library {
         (ev, fs, value: Val, funct: Applyer) =>
           value match {
             case obj: Val.Obj =>
-              Val.bool(obj.getVisibleKeys().exists(
-                item => funct.apply(Val.Lazy(obj.value(item._1, -1)(fs, ev)), Val.Lazy(Val.Str(item._1))) == Val.True
-              ))
-            case Val.Null => Val.Lazy(Val.False).force
+              obj.getVisibleKeys().exists(
+                item => funct.apply(Val.Lazy(obj.value(item._1, -1)(fs, ev)), Val.Lazy.strict(Val.Str(item._1))) == Val.True
+              )
+            case Val.Null => false
             case i => throw Error.Delegate("Expected Object, got: " + i.prettyName)
           }
       },
@@ -2014,7 +2039,7 @@ object DSLowercase extends Library {
         (ev, fs, obj: Val.Obj, funct: Applyer) =>
           val out = scala.collection.mutable.Map[String, Val.Obj.Member]()
           obj.getVisibleKeys().takeWhile(
-            item => funct.apply(Val.Lazy(obj.value(item._1, -1)(fs, ev)), Val.Lazy(Val.Str(item._1))) == Val.True
+            item => funct.apply(Val.Lazy(obj.value(item._1, -1)(fs, ev)), Val.Lazy.strict(Val.Str(item._1))) == Val.True
           ).foreachEntry((key, _) => out += (key -> Val.Obj.Member(add = false, Visibility.Normal, (_, _, _, _) => obj.value(key, -1)(fs, ev))))
 
           new Val.Obj(out, _ => (), None)
@@ -2030,8 +2055,8 @@ object DSLowercase extends Library {
               if (!str.endsWith(append)) {
                 ret = str + append
               }
-              Val.Lazy(Val.Str(ret)).force
-            case Val.Null => Val.Lazy(Val.Null).force
+              Val.Str(ret)
+            case Val.Null => Val.Null
             case i => throw Error.Delegate("Expected String, got: " + i.prettyName)
           }
       },
@@ -2041,18 +2066,18 @@ object DSLowercase extends Library {
           str match {
             case Val.Str(value) =>
               //regex fo _CHAR
-              val regex = "(_+)([0-9A-Za-z])".r("underscore", "letter")
+              val regex = underscoreRegex
 
               //Start string at first non underscore, lower case it
-              var temp = value.substring("[^_]".r.findFirstMatchIn(value).map(_.start).toList.head)
+              var temp = value.substring(Regexes.get("[^_]").findFirstMatchIn(value).map(_.start).toList.head)
               temp = temp.replaceFirst(temp.charAt(0).toString, temp.charAt(0).toLower.toString)
 
               //replace and uppercase
               temp = regex.replaceAllIn(temp, m => s"${(m group "letter").toUpperCase()}")
-              Val.Lazy(Val.Str(temp)).force;
+              Val.Str(temp);
 
             case Val.Null =>
-              Val.Lazy(Val.Null).force
+              Val.Null
             case i => throw Error.Delegate("Expected String, got: " + i.prettyName)
           }
       },
@@ -2062,21 +2087,21 @@ object DSLowercase extends Library {
           str match {
             case Val.Str(value) =>
               //regex fo _CHAR
-              val regex = "([_\\s-]+)([0-9A-Za-z])([A-Z]+|)".r("one", "two", "three")
-              val middleRegex = "([a-z])([A-Z])".r("end", "start")
+              val regex = separatorRegex
+              val middleRegex = caseChangeRegex
 
               //Start string at first non underscore, lower case it
-              var temp = value.substring("[0-9A-Za-z]".r.findFirstMatchIn(value).map(_.start).toList.head)
+              var temp = value.substring(Regexes.get("[0-9A-Za-z]").findFirstMatchIn(value).map(_.start).toList.head)
               temp = temp.replaceFirst(temp.charAt(0).toString, temp.charAt(0).toUpper.toString)
 
               //replace and uppercase
               temp = regex.replaceAllIn(temp, m => s" ${(m group "two").toUpperCase() + (m group "three").toLowerCase()}")
               temp = middleRegex.replaceAllIn(temp, m => s"${m group "end"} ${(m group "start").toUpperCase()}")
 
-              Val.Lazy(Val.Str(temp)).force;
+              Val.Str(temp);
 
             case Val.Null =>
-              Val.Lazy(Val.Null).force
+              Val.Null
             case i => throw Error.Delegate("Expected String, got: " + i.prettyName)
           }
       },
@@ -2096,8 +2121,8 @@ object DSLowercase extends Library {
           str match {
             case Val.Str(value) =>
               //regex fo _CHAR
-              val regex = "([_\\s-]+)([0-9A-Za-z])([A-Z]+|)".r("one", "two", "three")
-              val middleRegex = "([a-z])([A-Z])".r("end", "start")
+              val regex = separatorRegex
+              val middleRegex = caseChangeRegex
 
               //Start string at first non underscore, lower case it
               var temp = value
@@ -2108,10 +2133,10 @@ object DSLowercase extends Library {
 
               temp = temp.toLowerCase()
 
-              Val.Lazy(Val.Str(temp)).force;
+              Val.Str(temp);
 
             case Val.Null =>
-              Val.Lazy(Val.Null).force
+              Val.Null
             case i => throw Error.Delegate("Expected String, got: " + i.prettyName)
           }
       },
@@ -2125,7 +2150,7 @@ object DSLowercase extends Library {
         (_, _, str: Val) =>
           str match {
             case Val.Str(value) =>
-              if ("^[A-Za-z]+$".r.matches(value)) {
+              if (Regexes.get("^[A-Za-z]+$").matches(value)) {
                 true
               }
               else {
@@ -2142,7 +2167,7 @@ object DSLowercase extends Library {
         (_, _, str: Val) =>
           str match {
             case Val.Str(value) =>
-              if ("^[A-Za-z0-9]+$".r.matches(value)) {
+              if (Regexes.get("^[A-Za-z0-9]+$").matches(value)) {
                 true
               }
               else {
@@ -2159,7 +2184,7 @@ object DSLowercase extends Library {
         (_, _, str: Val) =>
           str match {
             case Val.Str(value) =>
-              if ("^[a-z]+$".r.matches(value)) {
+              if (Regexes.get("^[a-z]+$").matches(value)) {
                 true
               }
               else {
@@ -2176,7 +2201,7 @@ object DSLowercase extends Library {
         (_, _, str: Val) =>
           str match {
             case Val.Str(value) =>
-              if ("^[0-9]+$".r.matches(value)) {
+              if (Regexes.get("^[0-9]+$").matches(value)) {
                 true
               }
               else {
@@ -2192,7 +2217,7 @@ object DSLowercase extends Library {
         (_, _, str: Val) =>
           str match {
             case Val.Str(value) =>
-              if ("^[A-Z]+$".r.matches(value)) {
+              if (Regexes.get("^[A-Z]+$").matches(value)) {
                 true
               }
               else {
@@ -2218,15 +2243,15 @@ object DSLowercase extends Library {
         (_, _, str: Val, offset: Int) =>
           str match {
             case Val.Str(value) =>
-              Val.Lazy(Val.Str(("%" + offset + "s").format(value))).force
+              Val.Str(("%" + offset + "s").format(value))
             case Val.True =>
-              Val.Lazy(Val.Str(("%" + offset + "s").format("true"))).force
+              Val.Str(("%" + offset + "s").format("true"))
             case Val.False =>
-              Val.Lazy(Val.Str(("%" + offset + "s").format("false"))).force
+              Val.Str(("%" + offset + "s").format("false"))
             case Val.Num(x) =>
               //TODO change to use sjsonnet's Format and DecimalFormat
-              Val.Lazy(Val.Str(("%" + offset + "s").format(new DecimalFormat("0.#").format(x)))).force
-            case Val.Null => Val.Lazy(Val.Null).force
+              Val.Str(("%" + offset + "s").format(new DecimalFormat("0.#").format(x)))
+            case Val.Null => Val.Null
             case i => throw Error.Delegate("Expected String, got: " + i.prettyName)
           }
       },
@@ -2236,7 +2261,7 @@ object DSLowercase extends Library {
           (num match { //convert number value to string
             case Val.Null => "null"
             case Val.Str(value) =>
-              if ("^[0-9]+$".r.matches(value)) {
+              if (Regexes.get("^[0-9]+$").matches(value)) {
                 value
               }
               else {
@@ -2245,24 +2270,24 @@ object DSLowercase extends Library {
             case Val.Num(value) => value.toInt.toString
             case _ => throw Error.Delegate("Expected Number, got: " + num.prettyName)
           }) match { //convert string number to ordinalized string number
-            case "null" => Val.Lazy(Val.Null).force
+            case "null" => Val.Null
             case "X" => throw Error.Delegate("Expected Number, got: " + num.prettyName)
             case str =>
               if (str.endsWith("11") || str.endsWith("12") || str.endsWith("13")) {
-                Val.Lazy(Val.Str(str + "th")).force
+                Val.Str(str + "th")
               }
               else {
                 if (str.endsWith("1")) {
-                  Val.Lazy(Val.Str(str + "st")).force
+                  Val.Str(str + "st")
                 }
                 else if (str.endsWith("2")) {
-                  Val.Lazy(Val.Str(str + "nd")).force
+                  Val.Str(str + "nd")
                 }
                 else if (str.endsWith("3")) {
-                  Val.Lazy(Val.Str(str + "rd")).force
+                  Val.Str(str + "rd")
                 }
                 else {
-                  Val.Lazy(Val.Str(str + "th")).force
+                  Val.Str(str + "th")
                 }
               }
           }
@@ -2275,21 +2300,21 @@ object DSLowercase extends Library {
               val comparator = str.toLowerCase()
               val specialSList = List("monday", "tuesday", "wednesday", "thursday", "friday", "saturday", "sunday")
               if (specialSList.contains(comparator)) {
-                Val.Lazy(Val.Str(str + "s")).force
+                Val.Str(str + "s")
               }
-              else if (comparator.isEmpty) Val.Lazy(Val.Str("")).force
+              else if (comparator.isEmpty) Val.Str("")
               else {
                 if (comparator.endsWith("y")) {
-                  Val.Lazy(Val.Str(str.substring(0, str.length - 1) + "ies")).force
+                  Val.Str(str.substring(0, str.length - 1) + "ies")
                 }
                 else if (comparator.endsWith("x")) {
-                  Val.Lazy(Val.Str(str + "es")).force
+                  Val.Str(str + "es")
                 }
                 else {
-                  Val.Lazy(Val.Str(str + "s")).force
+                  Val.Str(str + "s")
                 }
               }
-            case Val.Null => Val.Lazy(Val.Null).force
+            case Val.Null => Val.Null
             case i => throw Error.Delegate("Expected Number, got: " + i.prettyName)
           }
       },
@@ -2302,34 +2327,30 @@ object DSLowercase extends Library {
               if (!str.startsWith(append)) {
                 ret = append + str
               }
-              Val.Lazy(Val.Str(ret)).force
-            case Val.Null => Val.Lazy(Val.Null).force
+              Val.Str(ret)
+            case Val.Null => Val.Null
             case i => throw Error.Delegate("Expected String, got: " + i.prettyName)
           }
       },
 
       builtin("repeat", "str", "num") {
         (_, _, str: String, num: Int) =>
-          var ret = ""
-          for (_ <- 0 until num) {
-            ret += str
-          }
-          Val.Lazy(Val.Str(ret)).force
+          str * num
       },
 
       builtin("rightPad", "str", "offset") {
         (_, _, value: Val, offset: Int) =>
           value match {
             case Val.Str(str) =>
-              Val.Lazy(Val.Str(str.padTo(offset, ' '))).force
+              Val.Str(str.padTo(offset, ' '))
             case Val.Num(x) =>
               //TODO change to use sjsonnet's Format and DecimalFormat
-              Val.Lazy(Val.Str(new DecimalFormat("0.#").format(x).padTo(offset, ' '))).force
+              Val.Str(new DecimalFormat("0.#").format(x).padTo(offset, ' '))
             case Val.True =>
-              Val.Lazy(Val.Str("true".padTo(offset, ' '))).force
+              Val.Str("true".padTo(offset, ' '))
             case Val.False =>
-              Val.Lazy(Val.Str("false".padTo(offset, ' '))).force
-            case Val.Null => Val.Lazy(Val.Null).force
+              Val.Str("false".padTo(offset, ' '))
+            case Val.Null => Val.Null
             case i => throw Error.Delegate("Expected String, got: " + i.prettyName)
           }
       },
@@ -2339,12 +2360,12 @@ object DSLowercase extends Library {
           value match {
             case Val.Str(s) =>
               if (s.endsWith("ies"))
-                Val.Lazy(Val.Str(s.substring(0, s.length - 3) + "y")).force
+                Val.Str(s.substring(0, s.length - 3) + "y")
               else if (s.endsWith("es"))
-                Val.Lazy(Val.Str(s.substring(0, s.length - 2))).force
+                Val.Str(s.substring(0, s.length - 2))
               else
-                Val.Lazy(Val.Str(s.substring(0, s.length - 1))).force
-            case Val.Null => Val.Lazy(Val.Null).force
+                Val.Str(s.substring(0, s.length - 1))
+            case Val.Null => Val.Null
             case i => throw Error.Delegate("Expected String, got: " + i.prettyName)
           }
       },
@@ -2354,13 +2375,13 @@ object DSLowercase extends Library {
           value match {
             case Val.Str(s) =>
               val sepLength = sep.length
-              Val.Lazy(Val.Str(s.substring(
+              Val.Str(s.substring(
                 s.indexOf(sep) match {
                   case -1 => s.length
                   case i => if (sep.equals("")) i else i + sepLength
                 }
-              ))).force
-            case Val.Null => Val.Lazy(Val.Null).force
+              ))
+            case Val.Null => Val.Null
             case i => throw Error.Delegate("Expected String, got: " + i.prettyName)
           }
       },
@@ -2370,10 +2391,10 @@ object DSLowercase extends Library {
           value match {
             case Val.Str(s) =>
               val split = s.split(sep)
-              if (sep.equals("")) Val.Lazy(Val.Str("")).force
-              else if (split.length == 1) Val.Lazy(Val.Str("")).force
-              else Val.Lazy(Val.Str(split(split.length - 1))).force
-            case Val.Null => Val.Lazy(Val.Null).force
+              if (sep.equals("")) Val.Str("")
+              else if (split.length == 1) Val.Str("")
+              else Val.Str(split(split.length - 1))
+            case Val.Null => Val.Null
             case i => throw Error.Delegate("Expected String, got: " + i.prettyName)
           }
       },
@@ -2382,13 +2403,13 @@ object DSLowercase extends Library {
         (_, _, value: Val, sep: String) =>
           value match {
             case Val.Str(s) =>
-              Val.Lazy(Val.Str(s.substring(0,
+              Val.Str(s.substring(0,
                 s.indexOf(sep) match {
                   case -1 => 0
                   case i => i
                 }
-              ))).force
-            case Val.Null => Val.Lazy(Val.Null).force
+              ))
+            case Val.Null => Val.Null
             case i => throw Error.Delegate("Expected String, got: " + i.prettyName)
           }
       },
@@ -2397,13 +2418,13 @@ object DSLowercase extends Library {
         (_, _, value: Val, sep: String) =>
           value match {
             case Val.Str(s) =>
-              Val.Lazy(Val.Str(s.substring(0,
+              Val.Str(s.substring(0,
                 s.lastIndexOf(sep) match {
                   case -1 => 0
                   case i => i
                 }
-              ))).force
-            case Val.Null => Val.Lazy(Val.Null).force
+              ))
+            case Val.Null => Val.Null
             case i => throw Error.Delegate("Expected String, got: " + i.prettyName)
           }
       },
@@ -2413,21 +2434,21 @@ object DSLowercase extends Library {
           str match {
             case Val.Str(value) =>
               //regex fo _CHAR
-              val regex = "([_\\s-]+)([0-9A-Za-z])([A-Z]+|)".r("one", "two", "three")
-              val middleRegex = "([a-z])([A-Z])".r("end", "start")
+              val regex = separatorRegex
+              val middleRegex = caseChangeRegex
 
               //Start string at first non underscore, lower case it
-              var temp = value.substring("[0-9A-Za-z]".r.findFirstMatchIn(value).map(_.start).toList.head)
+              var temp = value.substring(Regexes.get("[0-9A-Za-z]").findFirstMatchIn(value).map(_.start).toList.head)
               temp = temp.replaceFirst(temp.charAt(0).toString, temp.charAt(0).toLower.toString)
 
               //replace and uppercase
               temp = regex.replaceAllIn(temp, m => s"_${(m group "two") + (m group "three")}")
               temp = middleRegex.replaceAllIn(temp, m => s"${m group "end"}_${m group "start"}")
 
-              Val.Lazy(Val.Str(temp.toLowerCase)).force;
+              Val.Str(temp.toLowerCase);
 
             case Val.Null =>
-              Val.Lazy(Val.Null).force
+              Val.Null
             case i => throw Error.Delegate("Expected String, got: " + i.prettyName)
           }
       },
@@ -2438,11 +2459,11 @@ object DSLowercase extends Library {
             case Val.Str(str) =>
               val starts = str.startsWith(wrapper)
               val ends = str.endsWith(wrapper)
-              if (starts && ends) Val.Lazy(Val.Str(str.substring(0 + wrapper.length, str.length - wrapper.length))).force
-              else if (starts) Val.Lazy(Val.Str(str.substring(0 + wrapper.length, str.length) + wrapper)).force
-              else if (ends) Val.Lazy(Val.Str(wrapper + str.substring(0, str.length - wrapper.length))).force
-              else Val.Lazy(Val.Str(str)).force
-            case Val.Null => Val.Lazy(Val.Null).force
+              if (starts && ends) Val.Str(str.substring(0 + wrapper.length, str.length - wrapper.length))
+              else if (starts) Val.Str(str.substring(0 + wrapper.length, str.length) + wrapper)
+              else if (ends) Val.Str(wrapper + str.substring(0, str.length - wrapper.length))
+              else Val.Str(str)
+            case Val.Null => Val.Null
             case i => throw Error.Delegate("Expected String, got: " + i.prettyName)
           }
       },
@@ -2451,9 +2472,9 @@ object DSLowercase extends Library {
         (_, _, value: Val, num: Int) =>
           value match {
             case Val.Str(str) =>
-              if (str.length <= num) Val.Lazy(Val.Str(str)).force
-              else Val.Lazy(Val.Str(str.substring(0, num))).force
-            case Val.Null => Val.Lazy(Val.Null).force
+              if (str.length <= num) Val.Str(str)
+              else Val.Str(str.substring(0, num))
+            case Val.Null => Val.Null
             case i => throw Error.Delegate("Expected String, got: " + i.prettyName)
           }
       },
@@ -2465,8 +2486,8 @@ object DSLowercase extends Library {
               val ret = new StringBuilder(str)
               if (!str.startsWith(wrapper)) ret.insert(0, wrapper)
               if (!str.endsWith(wrapper)) ret.append(wrapper)
-              Val.Lazy(Val.Str(ret.toString())).force
-            case Val.Null => Val.Lazy(Val.Null).force
+              Val.Str(ret.toString())
+            case Val.Null => Val.Null
             case i => throw Error.Delegate("Expected String, got: " + i.prettyName)
           }
       },
@@ -2474,8 +2495,8 @@ object DSLowercase extends Library {
       builtin("wrapWith", "value", "wrapper") {
         (_, _, value: Val, wrapper: String) =>
           value match {
-            case Val.Str(str) => Val.Lazy(Val.Str(wrapper + str + wrapper)).force
-            case Val.Null => Val.Lazy(Val.Null).force
+            case Val.Str(str) => Val.Str(wrapper + str + wrapper)
+            case Val.Null => Val.Null
             case i => throw Error.Delegate("Expected String, got: " + i.prettyName)
           }
       }
@@ -2484,7 +2505,7 @@ object DSLowercase extends Library {
     "random" -> moduleFrom(
       builtin0("uuid") {
         (_, _, _) =>
-          Val.Lazy(Val.Str(UUID.randomUUID().toString)).force
+          UUID.randomUUID().toString
       },
       builtinWithDefaults("randomInt",
         "min" -> Some(Expr.Num(0, Int.MinValue)),
@@ -2568,17 +2589,19 @@ object DSLowercase extends Library {
   private def distinctBy(array: Seq[Val.Lazy], funct: Applyer): Val = {
     val args = funct.f.params.allIndices.size
 
-    Val.Arr(
-      if (args == 2) { // 2 args
-        array.zipWithIndex.distinctBy(item => funct.apply(item._1, Val.Lazy(Val.Num(item._2)))).map(_._1)
-      }
-      else if (args == 1) { // 1 arg
-        array.distinctBy(item => funct.apply(item))
-      }
-      else {
-        throw Error.Delegate("Expected embedded function to have 1 or 2 parameters, received: " + args)
-      }
-    )
+    val items = array.toIndexedSeq
+    val seen = new util.HashSet[Val]()
+    val out = mutable.ArrayBuffer[Val.Lazy]()
+    if (args == 2) { // 2 args
+      for (i <- items.indices) if (seen.add(funct.apply(items(i), Val.Lazy.strict(Val.Num(i))))) out += items(i)
+    }
+    else if (args == 1) { // 1 arg
+      for (i <- items.indices) if (seen.add(funct.apply(items(i)))) out += items(i)
+    }
+    else {
+      throw Error.Delegate("Expected embedded function to have 1 or 2 parameters, received: " + args)
+    }
+    Val.Arr(out.toIndexedSeq)
   }
 
   private def distinctBy(obj: Val.Obj, funct: Applyer, ev: EvalScope, fs: FileScope): Val = {
@@ -2590,7 +2613,7 @@ object DSLowercase extends Library {
           obj.getVisibleKeys().keySet.toSeq.distinctBy(outKey =>
             funct.apply(
               Val.Lazy(obj.value(outKey, -1)(fs, ev)),
-              Val.Lazy(Val.Str(outKey))
+              Val.Lazy.strict(Val.Str(outKey))
             )).collect(key => key -> Val.Obj.Member(add = false, Visibility.Normal, (_, _, _, _) => obj.value(key, -1)(fs, ev))
           ): _*)
       }
@@ -2613,18 +2636,18 @@ object DSLowercase extends Library {
       if (args == 2) {
         //The three options are below, classic index for loop seems to be the fastest
         /*array.view.zipWithIndex.filter({
-          case (item, index) => funct.apply(item, Val.Lazy(Val.Num(index))) == Val.True
+          case (item, index) => funct.apply(item, Val.Lazy.strict(Val.Num(index))) == Val.True
         }).map(_._1).toSeq*/
         val out = collection.mutable.Buffer.empty[Val.Lazy]
         for(index <- array.indices){
           val item = array(index)
-          if (funct.apply(array(index), Val.Lazy(Val.Num(index))) == Val.True){
+          if (funct.apply(array(index), Val.Lazy.strict(Val.Num(index))) == Val.True){
             out.append(item)
           }
         }
         out.toSeq
         /*array.indices.collect({
-          case index if funct.apply(array(index), Val.Lazy(Val.Num(index))) == Val.True => array(index)
+          case index if funct.apply(array(index), Val.Lazy.strict(Val.Num(index))) == Val.True => array(index)
         })*/
       } else if (args == 1)
         array.filter(lazyItem => funct.apply(lazyItem).equals(Val.True))
@@ -2640,14 +2663,14 @@ object DSLowercase extends Library {
       if (args == 3) {
         scala.collection.mutable.Map(
           obj.getVisibleKeys().keySet.zipWithIndex.filter({
-            case (key,index) => func.apply(Val.Lazy(obj.value(key, -1)(fs, ev)), Val.Lazy(Val.Str(key)), Val.Lazy(Val.Num(index))) == Val.True
+            case (key,index) => func.apply(Val.Lazy(obj.value(key, -1)(fs, ev)), Val.Lazy.strict(Val.Str(key)), Val.Lazy.strict(Val.Num(index))) == Val.True
           }).map(_._1).collect(key => key -> Val.Obj.Member(add = false, Visibility.Normal, (_, _, _, _) => obj.value(key, -1)(fs, ev))
           ).toSeq: _*)
       }
       else if (args == 2) {
         scala.collection.mutable.Map(
           obj.getVisibleKeys().view.keySet
-            .filter(key => func.apply(Val.Lazy(obj.value(key, -1)(fs, ev)), Val.Lazy(Val.Str(key))) == Val.True)
+            .filter(key => func.apply(Val.Lazy(obj.value(key, -1)(fs, ev)), Val.Lazy.strict(Val.Str(key))) == Val.True)
             .collect(key => key -> Val.Obj.Member(add = false, Visibility.Normal, (_, _, _, _) => obj.value(key, -1)(fs, ev))).toSeq: _*)
       }
       else if (args == 1) {
@@ -2669,7 +2692,7 @@ object DSLowercase extends Library {
         _.force match {
           case Val.Arr(inner) =>
             for(ind <- inner.indices){
-              out.append(Val.Lazy(funct.apply(inner(ind), Val.Lazy(Val.Num(ind)))))
+              out.append(Val.Lazy(funct.apply(inner(ind), Val.Lazy.strict(Val.Num(ind)))))
             }
           case i => throw Error.Delegate("Expected Array of Arrays, got: Array of " + i.prettyName)
         }
@@ -2691,47 +2714,48 @@ object DSLowercase extends Library {
 
   private def groupBy(s: Seq[Val.Lazy], funct: Applyer): Val = {
     val args = funct.f.params.allIndices.size
-    val out = mutable.Map[String, mutable.IndexedBuffer[Val.Lazy]]()
+    val items = s.toIndexedSeq
+    val grouping = new Grouping(items.length)
     if (args == 2) {
-      for( index <- s.indices){
-        val item = s(index)
-        val key = convertToString(funct.apply(item, Val.Lazy(Val.Num(index))))
-        out.getOrElseUpdate(key, mutable.IndexedBuffer[Val.Lazy]()).addOne(item)
-      }
+      for (i <- items.indices) grouping.add(i, funct.apply(items(i), Val.Lazy.strict(Val.Num(i))))
     } else if (args == 1) {
-      s.foreach({ item =>
-        val key = convertToString(funct.apply(item))
-        out.getOrElseUpdate(key, mutable.IndexedBuffer[Val.Lazy]()).addOne(item)
-      })
+      for (i <- items.indices) grouping.add(i, funct.apply(items(i)))
     }
     else {
       throw Error.Delegate("Expected embedded function to have 1 or 2 parameters, received: " + args)
     }
-    new Val.Obj(out.map(keyVal => (keyVal._1, Library.memberOf(Val.Arr(keyVal._2.toIndexedSeq)))), _ => (), None)
+    val groups = grouping.groups(items)
+    val out = mutable.Map[String, Val.Obj.Member]()
+    for (group <- groups.indices) {
+      out += (grouping.name(group) -> Library.memberOf(Val.Arr(ArraySeq.unsafeWrapArray(groups(group)))))
+    }
+    new Val.Obj(out, _ => (), None)
   }
 
   private def groupBy(obj: Val.Obj, funct: Applyer, ev: EvalScope, fs: FileScope): Val = {
     val args = funct.f.params.allIndices.size
-    val out = mutable.Map[String, mutable.LinkedHashMap[String, Val.Obj.Member]]()
+    val fields = mutable.ArrayBuffer[String]()
+    obj.foreachVisibleKey((key, _) => fields += key)
+    val values = fields.map(obj.value(_, -1)(fs, ev))
+    val grouping = new Grouping(fields.length)
     if (args == 2) {
-      obj.foreachVisibleKey((key,_) =>{
-        val item = obj.value(key, -1)(fs, ev)
-        val functKey = convertToString(funct.apply(Val.Lazy(item), Val.Lazy(Val.Str(key))))
-        out.getOrElseUpdate(functKey, mutable.LinkedHashMap[String, Val.Obj.Member]()).addOne(key, Library.memberOf(item))
-      })
+      for (i <- fields.indices) grouping.add(i, funct.apply(Val.Lazy.strict(values(i)), Val.Lazy.strict(Val.Str(fields(i)))))
     }
     else if (args == 1) {
-      obj.foreachVisibleKey((key,_)=>{
-        val item = obj.value(key, -1)(fs, ev)
-        val functKey = convertToString(funct.apply(Val.Lazy(item)))
-        out.getOrElseUpdate(functKey, mutable.LinkedHashMap[String, Val.Obj.Member]()).addOne(key, Library.memberOf(item))
-      })
+      for (i <- fields.indices) grouping.add(i, funct.apply(Val.Lazy.strict(values(i))))
     }
     else {
       throw Error.Delegate("Expected embedded function to have 1 or 2 parameters, received: " + args)
     }
 
-    new Val.Obj(out.map(keyVal => (keyVal._1, Library.memberOf(new Val.Obj(keyVal._2, _ => (), None)))), _ => (), None)
+    val groups = grouping.groups(fields.indices)
+    val out = mutable.Map[String, Val.Obj.Member]()
+    for (group <- groups.indices) {
+      val members = mutable.LinkedHashMap[String, Val.Obj.Member]()
+      groups(group).foreach(i => members.addOne(fields(i), Library.memberOf(values(i))))
+      out += (grouping.name(group) -> Library.memberOf(new Val.Obj(members, _ => (), None)))
+    }
+    new Val.Obj(out, _ => (), None)
 
   }
 
@@ -2740,7 +2764,7 @@ object DSLowercase extends Library {
     Val.Arr(
       if (args == 2) { //2 args
         array.zipWithIndex.map {
-          case (item, index) => Val.Lazy(funct.apply(item, Val.Lazy(Val.Num(index))))
+          case (item, index) => Val.Lazy(funct.apply(item, Val.Lazy.strict(Val.Num(index))))
         }
       } else if (args == 1) { // 1 arg
         array.map(item => Val.Lazy(funct.apply(item)))
@@ -2756,7 +2780,7 @@ object DSLowercase extends Library {
     val out = scala.collection.mutable.Map[String, Val.Obj.Member]()
     if (args.equals(3)) {
       for (((key, _), index) <- obj.getVisibleKeys().zipWithIndex) {
-        funct.apply(Val.Lazy(obj.value(key, -1)(fs, ev)), Val.Lazy(Val.Str(key)), Val.Lazy(Val.Num(index))) match {
+        funct.apply(Val.Lazy(obj.value(key, -1)(fs, ev)), Val.Lazy.strict(Val.Str(key)), Val.Lazy.strict(Val.Num(index))) match {
           case s: Val.Obj =>
             out.addAll(s.getVisibleKeys().map {
               case (sKey, _) => sKey -> Val.Obj.Member(add = false, Visibility.Normal, (_, _, _, _) => s.value(sKey, -1)(fs, ev))
@@ -2768,7 +2792,7 @@ object DSLowercase extends Library {
     }
     else if (args.equals(2)) {
       for ((key, _) <- obj.getVisibleKeys()) {
-        funct.apply(Val.Lazy(obj.value(key, -1)(fs, ev)), Val.Lazy(Val.Str(key))) match {
+        funct.apply(Val.Lazy(obj.value(key, -1)(fs, ev)), Val.Lazy.strict(Val.Str(key))) match {
           case s: Val.Obj =>
             out.addAll(s.getVisibleKeys().map {
               case (sKey, _) => sKey -> Val.Obj.Member(add = false, Visibility.Normal, (_, _, _, _) => s.value(sKey, -1)(fs, ev))
@@ -2795,47 +2819,44 @@ object DSLowercase extends Library {
     }
   }
 
-  // TODO: change zipWithIndex to indexed for loop
+  private def unorderable(key: Val): Nothing =
+    throw Error.Delegate("Expected embedded function to return a String, Number, or Boolean, received: " + key.prettyName)
+
+  // every key is computed once, and the elements are sorted by the computed keys
   private def orderBy(array: Seq[Val.Lazy], funct: Applyer): Val = {
     val args = funct.f.params.allIndices.size
+    val items = array.toIndexedSeq
+    val keys = new Array[Val](items.length)
     if (args == 2) {
-      Val.Arr(
-        array.zipWithIndex.sortBy(
-          it => funct.apply(it._1, Val.Lazy(Val.Num(it._2)))
-        )(ord = ValOrdering).map(_._1))
+      for (i <- keys.indices) keys(i) = funct.apply(items(i), Val.Lazy.strict(Val.Num(i)))
     }
     else if (args == 1) {
-      Val.Arr(array.sortBy(it => funct.apply(it))(ord = ValOrdering))
+      for (i <- keys.indices) keys(i) = funct.apply(items(i))
     }
     else {
       throw Error.Delegate("Expected embedded function to have 1 or 2 parameters, received: " + args)
     }
+    Val.Arr(KeyedSort.sortBy(items, keys, unorderable))
   }
 
-  // TODO: we're traversing the object twice, needed?
   private def orderBy(obj: Val.Obj, funct: Applyer, ev: EvalScope, fs: FileScope): Val = {
     val args = funct.f.params.allIndices.size
-    var out = scala.collection.mutable.LinkedHashMap.empty[String, Val.Obj.Member]
-    for ((item, _) <- obj.getVisibleKeys()) {
-      out += (item -> Val.Obj.Member(add = false, Visibility.Normal, (_, _, _, _) => obj.value(item, -1)(fs, ev)))
-    }
+    val fields = obj.getVisibleKeys().keys.toIndexedSeq
+    val keys = new Array[Val](fields.length)
     if (args == 2) {
-      new Val.Obj(
-        scala.collection.mutable.LinkedHashMap(
-          out.toSeq.sortBy(
-            item => funct.apply(Val.Lazy(obj.value(item._1, -1)(fs, ev)), Val.Lazy(Val.Str(item._1)))
-          )(ord = ValOrdering): _*), _ => (), None)
+      for (i <- keys.indices) keys(i) = funct.apply(Val.Lazy(obj.value(fields(i), -1)(fs, ev)), Val.Lazy.strict(Val.Str(fields(i))))
     }
     else if (args == 1) {
-      new Val.Obj(
-        scala.collection.mutable.LinkedHashMap(
-          out.toSeq.sortBy(
-            item => funct.apply(Val.Lazy(obj.value(item._1, -1)(fs, ev)))
-          )(ord = ValOrdering): _*), _ => (), None)
+      for (i <- keys.indices) keys(i) = funct.apply(Val.Lazy(obj.value(fields(i), -1)(fs, ev)))
     }
     else {
       throw Error.Delegate("Expected embedded function to have 1 or 2 parameters, received: " + args)
     }
+    val out = scala.collection.mutable.LinkedHashMap.empty[String, Val.Obj.Member]
+    for (item <- KeyedSort.sortBy(fields, keys, unorderable)) {
+      out += (item -> Val.Obj.Member(add = false, Visibility.Normal, (_, _, _, _) => obj.value(item, -1)(fs, ev)))
+    }
+    new Val.Obj(out, _ => (), None)
   }
 
   private def mapEntries(obj: Val.Obj, funct: Applyer, ev: EvalScope, fs: FileScope): Val = {
@@ -2843,12 +2864,12 @@ object DSLowercase extends Library {
     val out = collection.mutable.Buffer.empty[Val.Lazy]
     if (args.equals(3)) {
       out.appendAll(obj.getVisibleKeys().keySet.zipWithIndex.map(
-        item => Val.Lazy(funct.apply(Val.Lazy(obj.value(item._1, -1)(fs, ev)), Val.Lazy(Val.Str(item._1)), Val.Lazy(Val.Num(item._2))))
+        item => Val.Lazy(funct.apply(Val.Lazy(obj.value(item._1, -1)(fs, ev)), Val.Lazy.strict(Val.Str(item._1)), Val.Lazy.strict(Val.Num(item._2))))
       ))
     }
     else if (args.equals(2)) {
       out.appendAll(obj.getVisibleKeys().keySet.map(
-        item => Val.Lazy(funct.apply(Val.Lazy(obj.value(item, -1)(fs, ev)), Val.Lazy(Val.Str(item))))
+        item => Val.Lazy(funct.apply(Val.Lazy(obj.value(item, -1)(fs, ev)), Val.Lazy.strict(Val.Str(item))))
       ))
     }
     else if (args.equals(1)) {
@@ -2879,7 +2900,7 @@ object DSLowercase extends Library {
       if (arr.length > 1) {
         objVal match {
           case x: Val.Obj => select(x, arr(1), ev, fs)
-          case _ =>  Val.Lazy(Val.Null).force
+          case _ =>  Val.Null
         }
       }
       else {
@@ -2887,10 +2908,124 @@ object DSLowercase extends Library {
       }
     } catch {
       case _: Error =>
-        Val.Lazy(Val.Null).force
+        Val.Null
     }
   }
 
+  /**
+    * The compiled expressions of ds.match, ds.replace, ds.splitBy and the other builtins that take a Java regular
+    * expression, when a script computes them rather than writing them literally. The ds.regex module compiles with
+    * RE2/J, into [[Regex.PATTERNS]].
+    */
+  val Regexes = new PatternCache[scala.util.matching.Regex](256, new scala.util.matching.Regex(_))
+
+  private val underscoreRegex = "(_+)([0-9A-Za-z])".r("underscore", "letter")
+  private val separatorRegex = "([_\\s-]+)([0-9A-Za-z])([A-Z]+|)".r("one", "two", "three")
+  private val caseChangeRegex = "([a-z])([A-Z])".r("end", "start")
+
+  // a literal expression at the given parameter is compiled once, when the script is optimized, and kept by the
+  // copy of the builtin made for that call site; any other expression is looked up in the cache
+  private def compilesPattern[P](param: Int, patterns: PatternCache[P])(builtin: (String => P) => (String, Val.Func)): (String, Val.Func) = {
+    val (name, func) = builtin(patterns.get)
+    name -> func.copy(prepareArg = {
+      case (`param`, Val.Str(literal)) =>
+        val pattern = patterns.compile(literal)
+        builtin(expr => if (expr == literal) pattern else patterns.get(expr))._2
+      case _ => null
+    })
+  }
+
+  private val joinedShape = new ObjShape(Array("l", "r"), Array(Visibility.Normal, Visibility.Normal))
+  private val unmatchedShape = new ObjShape(Array("l"), Array(Visibility.Normal))
+
+  // the index module names every key by its string, so that the joins match the keys of an index built with `build`
+  private def indexName(key: Val): String = key match {
+    case _: Val.Str | _: Val.Num | _: Val.Bool | Val.Null => convertToString(key)
+    case i => throw Error.Delegate("Expected key to be a String, Number, Boolean or null, got: " + i.prettyName)
+  }
+
+  /**
+    * Groups items by key in one pass. Keys are hashed as values, so numbers are hashed as doubles and strings as
+    * they are; a key is only converted to the string that names its group the first time it is seen, and keys
+    * with the same name, such as `1` and `"1"`, share their group.
+    */
+  private final class Grouping(items: Int) {
+    private[this] val byKey = new util.HashMap[Val, Integer]()
+    private[this] val byName = new util.HashMap[String, Integer]()
+    private[this] val names = mutable.ArrayBuffer[String]()
+    private[this] val counts = mutable.ArrayBuffer[Int]()
+    private[this] val groupOf = new Array[Int](items)
+
+    def add(item: Int, key: Val): Unit = {
+      var group = byKey.get(key)
+      if (group == null) {
+        val name = convertToString(key)
+        group = byName.get(name)
+        if (group == null) {
+          group = names.length
+          byName.put(name, group)
+          names += name
+          counts += 0
+        }
+        byKey.put(key, group)
+      }
+      groupOf(item) = group
+      counts(group) += 1
+    }
+
+    def size: Int = names.length
+
+    def name(group: Int): String = names(group)
+
+    def count(group: Int): Int = counts(group)
+
+    /**
+      * The items of every group, in their order, in arrays of the size of the group.
+      */
+    def groups[T: ClassTag](all: IndexedSeq[T]): Array[Array[T]] = {
+      val out = counts.map(new Array[T](_)).toArray
+      val filled = new Array[Int](out.length)
+      var i = 0
+      while (i < groupOf.length) {
+        val group = groupOf(i)
+        out(group)(filled(group)) = all(i)
+        filled(group) += 1
+        i += 1
+      }
+      out
+    }
+  }
+
+  private def joinMember(item: Val.Lazy) = Val.Obj.Member(add = false, Visibility.Normal, (_, _, _, _) => item.force)
+
+  private def joined(valueL: Val.Lazy, valueR: Val.Lazy): Val.Obj =
+    new Val.Obj(joinedShape.members(Array(joinMember(valueL), joinMember(valueR))), _ => (), None)
+
+  private def unmatched(valueL: Val.Lazy): Val.Obj =
+    new Val.Obj(unmatchedShape.members(Array(joinMember(valueL))), _ => (), None)
+
+  /**
+    * Pairs every element of `left` with the elements of `right` that have an equal key, in the order of `left` and
+    * then of `right`. The keys of `right` are hashed once, so the join takes linear time. Keys are compared as
+    * returned by `key`. Unmatched elements of `left` are dropped, unless `unmatched` is given.
+    */
+  private def hashJoin(left: Seq[Val.Lazy], right: Seq[Val.Lazy], functL: Applyer, functR: Applyer,
+                       key: Val => AnyRef, unmatched: Val.Lazy => Val.Obj)
+                      (joined: (Val.Lazy, Val.Lazy) => Val.Obj): Val = {
+    val byKey = new util.HashMap[AnyRef, mutable.ArrayBuffer[Val.Lazy]]()
+    right.foreach { item =>
+      byKey.computeIfAbsent(key(functR.apply(item)), _ => mutable.ArrayBuffer[Val.Lazy]()).addOne(item)
+    }
+
+    val out = mutable.ArrayBuffer[Val.Lazy]()
+    left.foreach { valueL =>
+      val matches = byKey.get(key(functL.apply(valueL)))
+      if (matches != null) matches.foreach(valueR => out += Val.Lazy(joined(valueL, valueR)))
+      else if (unmatched != null) out += Val.Lazy(unmatched(valueL))
+    }
+    Val.Arr(out.toIndexedSeq)
+  }
+
   private def convertToString(value: Val): String = {
     value match {
       case x: Val.Num =>
@@ -3017,15 +3152,3 @@ object DSLowercase extends Library {
     new Val.Obj(dateTimeObj, _ => (), None)
   }
 }
-
-// this assumes that we're comparing same Vals of the same type
-object ValOrdering extends Ordering[Val] {
-  def compare(x: Val, y: Val): Int =
-    x match {
-      case Val.Num(value) => Ordering.Double.TotalOrdering.compare(value, y.asInstanceOf[Val.Num].value)
-      case Val.Str(value) => Ordering.String.compare(value, y.asInstanceOf[Val.Str].value)
-      // TODO: need to convert the Val.Bool to an actual boolean
-      case bool: Val.Bool => Ordering.Boolean.compare(x.asInstanceOf, y.asInstanceOf)
-      case unsupported: Val => throw Error.Delegate("Expected embedded function to return a String, Number, or Boolean, received: " + unsupported.prettyName)
-  }
-}
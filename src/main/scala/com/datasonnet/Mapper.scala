@@ -16,29 +16,31 @@ package com.datasonnet
  * limitations under the License.
  */
 import com.datasonnet.document.{DefaultDocument, Document, MediaType, MediaTypes}
-import com.datasonnet.header.Header
-import com.datasonnet.jsonnet.Expr.Params
-import com.datasonnet.jsonnet.Val.{Func, Lazy, Obj}
+import com.datasonnet.jsonnet.Val.{Lazy, Obj}
 import com.datasonnet.jsonnet._
 import com.datasonnet.spi.{DataFormatService, Library}
-import com.datasonnet.wrap.{DataSonnetPath, NoFileEvaluator}
+import com.datasonnet.wrap.DataSonnetPath
 import fastparse.{P, Parsed}
+import upickle.core.Visitor
 
-import java.io.{PrintWriter, StringWriter}
+import java.io.{InputStream, OutputStream, PrintWriter, StringWriter}
+import java.nio.charset.Charset
 import java.util.Collections
+import java.util.concurrent.{CompletableFuture, Executor}
+import java.util.stream.Collectors
 import scala.collection.mutable
-import scala.jdk.CollectionConverters.{IterableHasAsScala, MapHasAsScala}
+import scala.jdk.CollectionConverters.{IteratorHasAsScala, MapHasAsScala}
 import scala.util.{Failure, Success, Try}
 
 object Mapper {
   val parser: P[_] => P[(Expr, Map[String, Int])] = Parser.document(_)
 
-  private def asFunction(script: String, argumentNames: Iterable[String]) =
+  private[datasonnet] def asFunction(script: String, argumentNames: Iterable[String]) =
     (Seq("payload") ++ argumentNames).mkString("function(", ",", ")\n") + script
 
   private val ERROR_LINE_REGEX = raw"\.\(([a-zA-Z-_\.]*):(\d+):(\d+)\)|([a-zA-Z-]+):(\d+):(\d+)".r
 
-  private def expandErrorLineNumber(error: String, lineOffset: Int) = ERROR_LINE_REGEX.replaceAllIn(error, _ match {
+  private[datasonnet] def expandErrorLineNumber(error: String, lineOffset: Int) = ERROR_LINE_REGEX.replaceAllIn(error, _ match {
     case ERROR_LINE_REGEX(filename, frow, fcolumn, token, trow, tcolumn) => {
       if (token != null) {
         s"$token at line ${trow.toInt - lineOffset} column $tcolumn"
@@ -50,7 +52,7 @@ object Mapper {
     }
   })
 
-  def evaluate(script: String, evaluator: Evaluator, cache: collection.mutable.Map[String, fastparse.Parsed[(Expr, Map[String, Int])]], libraries: Map[String, Val], lineOffset: Int): Try[Val] = {
+  def evaluate(script: String, evaluator: Evaluator, cache: collection.mutable.Map[String, fastparse.Parsed[(Expr, Map[String, Int])]], libraries: Map[String, Val], lineOffset: Int, bytecode: Boolean = false): Try[Val] = {
     for {
       fullParse <- cache.getOrElseUpdate(script, fastparse.parse(script, parser)) match {
         case f@Parsed.Failure(l, i, e) => Failure(new IllegalArgumentException("Problem parsing: " + expandErrorLineNumber(f.trace().msg, lineOffset)))
@@ -59,12 +61,18 @@ object Mapper {
 
       (parsed, indices) = fullParse
 
+      // TODO Saving the script source could be enabled only when debugging
+      fileScope = new FileScope(DataSonnetPath("."), indices, script)
+
       evaluated <-
-        try Success(evaluator.visitExpr(parsed)(
-          Mapper.scope(indices, libraries),
-          // TODO Saving the script source could be enabled only when debugging
-          new FileScope(DataSonnetPath("."), indices, script)
-        ))
+        try {
+          val optimized = ExprOptimizer.optimize(parsed, roots(indices, libraries))(evaluator, fileScope)
+          val scope = Mapper.scope(indices, libraries)
+          Success(
+            if (bytecode) BytecodeCompiler.evaluate(optimized, evaluator)(scope, fileScope)
+            else ClosureCompiler.evaluate(optimized, evaluator)(scope, fileScope)
+          )
+        }
         catch {
           case e: Throwable =>
             val s = new StringWriter()
@@ -76,32 +84,52 @@ object Mapper {
     } yield evaluated
   }
 
+  // the values bound by `scope`, which the optimizer can resolve ahead of evaluation
+  private def roots(indices: Map[String, Int], libraries: Map[String, Val]): Map[Int, Val] =
+    libraries.collect { case (key, value) if indices.contains(key) => indices(key) -> value } + (0 -> Std.Std)
+
   private def scope(indices: Map[String, Int], roots: Map[String, Val]) = Std.scope(indices.size + 1).extend(
     roots flatMap {
       case (key, value) =>
         if (indices.contains(key))
-          Seq((indices(key), (_: Option[Obj], _: Option[Obj]) => Lazy(value)))
+          Seq((indices(key), (_: Option[Obj], _: Option[Obj]) => Lazy.strict(value)))
         else
           Seq()
     }
   )
 }
 
-class Mapper(var script: String,
-             inputNames: java.lang.Iterable[String] = Collections.emptySet(),
-             imports: java.util.Map[String, String] = Collections.emptyMap(),
-             asFunction: Boolean = true,
-             additionalLibs: java.util.Collection[Library] = Collections.emptyList(),
-             dataFormats: DataFormatService = DataFormatService.DEFAULT,
-             defaultOutput: MediaType = MediaTypes.APPLICATION_JSON) {
+/**
+  * Transforms documents with a compiled DataSonnet script.
+  *
+  * A Mapper is safe to share between threads: the compiled state held by its [[MapperTemplate]] is never modified
+  * after construction, and the caches that are filled on demand while transforming are concurrent. All the state of
+  * a single `transform` call lives in that call, so one instance can serve any number of concurrent `transform`
+  * invocations.
+  *
+  * The constructors compile the script every time they are called; use [[MapperTemplate]] (or
+  * `MapperBuilder.compile()`) to compile once and create any number of mappers from the result.
+  */
+class Mapper private[datasonnet](val template: MapperTemplate) {
 
-  private val header = Header.parseHeader(script)
-
-  if (asFunction) {
-    script = Mapper.asFunction(script, inputNames.asScala)
+  def this(script: String,
+           inputNames: java.lang.Iterable[String],
+           imports: java.util.Map[String, String],
+           asFunction: Boolean,
+           additionalLibs: java.util.Collection[Library],
+           dataFormats: DataFormatService,
+           defaultOutput: MediaType) = {
+    this(new MapperTemplate(script, inputNames, imports, asFunction, additionalLibs, dataFormats, defaultOutput))
   }
 
-  private val lineOffset = if (asFunction) 1 else 0
+  def this(script: String,
+           inputNames: java.lang.Iterable[String],
+           imports: java.util.Map[String, String],
+           asFunction: Boolean,
+           additionalLibs: java.util.Collection[Library],
+           dataFormats: DataFormatService) = {
+    this(script, inputNames, imports, asFunction, additionalLibs, dataFormats, MediaTypes.APPLICATION_JSON)
+  }
 
   def this(script: String,
            inputNames: java.lang.Iterable[String],
@@ -133,52 +161,14 @@ class Mapper(var script: String,
     this(script, Collections.emptySet())
   }
 
-  private def importer(parent: Path, path: String): Option[(Path, String)] = for {
-    resolved <- parent match {
-      case DataSonnetPath("") => Some(path)
-      case DataSonnetPath(p) => Some(p + "/" + path)
-      case _ => None
-    }
-    contents <- imports.get(resolved) match {
-      case null => None
-      case v => Some(v)
-    }
-
-    combined = (DataSonnetPath(resolved) -> contents)
-  } yield combined
-
-  private val parseCache = collection.mutable.Map[String, fastparse.Parsed[(Expr, Map[String, Int])]]()
-  private val evaluator = new NoFileEvaluator(script, DataSonnetPath("."), parseCache, importer, header.isPreserveOrder, header.getDefaultValue)
-
-  // using uppercase DS is deprecated, but will remain supported
-  private val defaultLibraries: Map[String, Obj] = DSLowercase.makeLib(dataFormats, header, evaluator, parseCache)
-  private val libraries = additionalLibs.asScala.foldLeft(defaultLibraries) {
-    (acc, lib) => acc concat lib.makeLib(dataFormats, header, evaluator, parseCache)
-  }
-
-  imports.forEach((name, lib) => {
-    if (name.endsWith(".libsonnet") || name.endsWith(".ds")) {
-      val evaluated = Mapper.evaluate(lib, evaluator, parseCache, libraries, 0)
-      evaluated match {
-        case Success(value) =>
-        case Failure(f) => throw new IllegalArgumentException("Unable to parse library: " + name, f)
-      }
-    }
-  })
+  def script: String = template.script
 
-  private val function = (for {
-    evaluated <- Mapper.evaluate(script, evaluator, parseCache, libraries, lineOffset)
-    verified <- evaluated match {
-      case f: Func => {
-        val topLevelF = f.asInstanceOf[Func]
-        if (topLevelF.params.args.size < 1)
-          Failure(new IllegalArgumentException("Top Level Function must have at least one argument."))
-        else
-          Success(f)
-      }
-      case _ => Failure(new IllegalArgumentException("Not a valid map. Maps must have a Top Level Function."))
-    }
-  } yield verified).get
+  private def header = template.header
+  private def dataFormats = template.dataFormats
+  private def defaultOutput = template.defaultOutput
+  private def evaluator = template.evaluator
+  private def function = template.function
+  private def lineOffset = template.lineOffset
 
   // If the requested type is ANY then look in the header, default to JSON
   private def effectiveOutput(output: MediaType): MediaType = {
@@ -243,32 +233,189 @@ class Mapper(var script: String,
                    inputs: java.util.Map[String, Document[_]],
                    output: MediaType,
                    target: Class[T]): Document[T] = {
-    val payloadExpr: Expr = Materializer.toExpr(dataFormats.mandatoryRead(effectiveInput("payload", payload)))
-    val inputExprs: Map[String, Expr] = inputs.asScala.view.toMap[String, Document[_]].map {
-      case (name, input) => (name, Materializer.toExpr(resolveInput(name, input)))
+    transformWith(payload, bindInputs(inputs), effectiveOutput(output), target)
+  }
+
+  private def transformWith[T](payload: Document[_],
+                               inputVals: Seq[(Option[String], Lazy)],
+                               effectiveOut: MediaType,
+                               target: Class[T]): Document[T] = {
+    val materialized = execute(payload, inputVals)(Materializer.apply(_)(evaluator))
+    dataFormats.mandatoryWrite(materialized, effectiveOut, target)
+  }
+
+  def transformAll(payloads: java.util.List[_ <: Document[_]],
+                   inputs: java.util.Map[String, Document[_]],
+                   output: MediaType,
+                   executor: Executor): java.util.List[TransformResult[String]] = {
+    transformAll(payloads, inputs, output, classOf[String], executor)
+  }
+
+  /**
+    * Transforms every payload of a batch with the same inputs, running the transformations on the given executor,
+    * e.g. a `ForkJoinPool` or a virtual thread per task executor.
+    *
+    * The inputs and the output media type are resolved once and shared by all the transformations. The results are
+    * in the order of the payloads; a payload that fails to transform yields a failed [[TransformResult]] and does not
+    * affect the others. Inputs that cannot be read fail the whole call.
+    *
+    * The transformations share this mapper's evaluator, as concurrent `transform` calls do. Its only mutable state
+    * are the caches of parsed and imported files, which are concurrent maps whose entries are the same whichever
+    * transformation fills them; the payload, the bound inputs and every value computed from them live in the scopes
+    * of one transformation, so no transformation can observe another one. Giving each task an evaluator of its own
+    * would only re-read the imports once per payload.
+    */
+  def transformAll[T](payloads: java.util.List[_ <: Document[_]],
+                      inputs: java.util.Map[String, Document[_]],
+                      output: MediaType,
+                      target: Class[T],
+                      executor: Executor): java.util.List[TransformResult[T]] = {
+    transformAllAsStream(payloads, inputs, output, target, executor).collect(Collectors.toList[TransformResult[T]]())
+  }
+
+  /**
+    * Like `transformAll`, but returns the results as they become available, in the order of the payloads. All the
+    * transformations are submitted to the executor before this method returns.
+    */
+  def transformAllAsStream[T](payloads: java.util.List[_ <: Document[_]],
+                              inputs: java.util.Map[String, Document[_]],
+                              output: MediaType,
+                              target: Class[T],
+                              executor: Executor): java.util.stream.Stream[TransformResult[T]] = {
+    val inputVals = bindInputs(inputs)
+    val effectiveOut = effectiveOutput(output)
+
+    val tasks = new java.util.ArrayList[CompletableFuture[TransformResult[T]]](payloads.size)
+    payloads.forEach { payload =>
+      val index = tasks.size
+      tasks.add(CompletableFuture.supplyAsync(() => {
+        try TransformResult.success(index, transformWith(payload, inputVals, effectiveOut, target))
+        catch {
+          case e: RuntimeException => TransformResult.failure[T](index, e)
+          case e: Throwable => TransformResult.failure[T](index, reportedError(e))
+        }
+      }, executor))
+    }
+    tasks.stream().map(_.join())
+  }
+
+  /**
+    * Transforms the payload and writes the result to the given stream, which is flushed but not closed.
+    *
+    * When the plugin for the output media type supports streaming, the result is serialized while it is being
+    * materialized and is never held in memory as a whole; in that case a failing script may leave partial output in
+    * the stream. Other formats are written through the regular plugin `write`.
+    */
+  def transform(payload: Document[_],
+                inputs: java.util.Map[String, Document[_]],
+                output: MediaType,
+                out: OutputStream): Unit = {
+    val effectiveOut = effectiveOutput(output)
+    val streaming = dataFormats.thatCanStream(effectiveOut)
+
+    if (streaming.isPresent) {
+      val visitor = streaming.get.streamingWriter(effectiveOut, out).asInstanceOf[Visitor[Any, Any]]
+      execute(payload, bindInputs(inputs))(Materializer.apply0(_, visitor)(evaluator))
+    } else {
+      writeBytes(execute(payload, bindInputs(inputs))(Materializer.apply(_)(evaluator)), effectiveOut, out)
+    }
+  }
+
+  def transformStream(in: InputStream, out: OutputStream, output: MediaType): Unit = {
+    transformStream(in, Collections.emptyMap(), out, output)
+  }
+
+  /**
+    * Transforms a stream of newline delimited JSON records one record at a time, writing the results to the given
+    * stream, which is flushed but not closed.
+    *
+    * The script is applied to every record as its payload, while the plugins, the output media type and the inputs
+    * are resolved once for the whole stream. The results form the elements of the output array: with a streaming
+    * output format such as `application/x-ndjson` or `application/csv` each result is written as soon as it is
+    * complete, so only one record is held in memory at a time. A failing record stops the transformation and may leave
+    * the results of the previous records in the stream.
+    */
+  def transformStream(in: InputStream,
+                      inputs: java.util.Map[String, Document[_]],
+                      out: OutputStream,
+                      output: MediaType): Unit = {
+    val records = effectiveInput("payload", new DefaultDocument[InputStream](in, MediaTypes.APPLICATION_NDJSON))
+    val reader = dataFormats.thatCanRead(records)
+      .orElseThrow(() => new IllegalArgumentException("The input MediaType " + records.getMediaType + " is not supported for streams"))
+    val inputVals = bindInputs(inputs)
+    val effectiveOut = effectiveOutput(output)
+    val streaming = dataFormats.thatCanStream(effectiveOut)
+
+    val results = Val.Arr(new StreamedSeq(reader.streamingReader(records).asScala.map { record =>
+      val result = applyFunction(Materializer.reverse(record), inputVals)
+      Lazy.strict(result)
+    }))
+
+    if (streaming.isPresent) {
+      val visitor = streaming.get.streamingWriter(effectiveOut, out).asInstanceOf[Visitor[Any, Any]]
+      reportingErrors(Materializer.apply0(results, visitor)(evaluator))
+    } else {
+      writeBytes(reportingErrors(Materializer.apply(results)(evaluator)), effectiveOut, out)
+    }
+  }
+
+  private def writeBytes(materialized: ujson.Value, output: MediaType, out: OutputStream): Unit = {
+    val bytes = if (dataFormats.thatCanWrite(output, classOf[Array[Byte]]).isPresent) {
+      dataFormats.mandatoryWrite(materialized, output, classOf[Array[Byte]]).getContent
+    } else {
+      val charset = Option(output.getCharset).getOrElse(Charset.defaultCharset())
+      dataFormats.mandatoryWrite(materialized, output, classOf[String]).getContent.getBytes(charset)
+    }
+    out.write(bytes)
+    out.flush()
+  }
+
+  // formats that support it can expose the payload as a streamed array of records
+  private def readPayload(payload: Document[_]): Val = {
+    val plugin = dataFormats.thatCanRead(payload)
+    if (plugin.isPresent && plugin.get.canStreamRead(payload))
+      Val.Arr(new StreamedSeq(plugin.get.streamingReader(payload).asScala.map { record =>
+        val value = Materializer.reverse(record)
+        Lazy.strict(value)
+      }))
+    else
+      Materializer.reverse(dataFormats.mandatoryRead(payload))
+  }
+
+  // inputs are bound as values, they are never turned back into syntax
+  private def bindInputs(inputs: java.util.Map[String, Document[_]]): Seq[(Option[String], Lazy)] = {
+    val inputNames = function.params.args.tail.map(_._1).toSet
+    inputs.asScala.toSeq.collect {
+      case (name, input) if inputNames.contains(name) =>
+        val value = Materializer.reverse(resolveInput(name, input))
+        (Some(name), Lazy.strict(value))
     }
+  }
 
-    val payloadArg +: inputArgs = function.params.args
+  private def applyFunction(payload: Val, inputs: Seq[(Option[String], Lazy)]): Val =
+    function.apply((None, Lazy.strict(payload)) +: inputs, "(memory)", -1)(evaluator.emptyMaterializeFileScope, evaluator)
 
-    val materialPayload = payloadArg.copy(_2 = Some(payloadExpr))
-    val materialInputs = inputArgs.map { case (name, default, i) =>
-      val argument: Option[Expr] = inputExprs.get(name).orElse(default)
-      (name, argument, i)
-    }.toVector
+  // applies the top level function to the inputs and hands the result to `materialize`, reporting any failure
+  private def execute[R](payload: Document[_], inputVals: Seq[(Option[String], Lazy)])(materialize: Val => R): R = {
+    val payloadVal = readPayload(effectiveInput("payload", payload))
+    reportingErrors(materialize(applyFunction(payloadVal, inputVals)))
+  }
 
-    val materialized = try Materializer.apply(function.copy(params = Params(materialPayload +: materialInputs)))(evaluator)
+  private def reportingErrors[R](body: => R): R = {
+    try body
     catch {
-      // if there's a parse error it must be in an import, so the offset is 0
-      case Error(msg, stack, underlying) if msg.contains("had Parse error") => throw new IllegalArgumentException("Problem executing script: " + Mapper.expandErrorLineNumber(msg, 0))
-      case e: Throwable =>
-        val s = new StringWriter()
-        val p = new PrintWriter(s)
-        e.printStackTrace(p)
-        p.close()
-        throw new IllegalArgumentException("Problem executing script: " + Mapper.expandErrorLineNumber(s.toString, lineOffset).replace("\t", "    "))
+      case e: Throwable => throw reportedError(e)
     }
+  }
 
-    val effectiveOut = effectiveOutput(output)
-    dataFormats.mandatoryWrite(materialized, effectiveOut, target)
+  private def reportedError(e: Throwable): RuntimeException = e match {
+    // if there's a parse error it must be in an import, so the offset is 0
+    case Error(msg, stack, underlying) if msg.contains("had Parse error") => new IllegalArgumentException("Problem executing script: " + Mapper.expandErrorLineNumber(msg, 0))
+    case _ =>
+      val s = new StringWriter()
+      val p = new PrintWriter(s)
+      e.printStackTrace(p)
+      p.close()
+      new IllegalArgumentException("Problem executing script: " + Mapper.expandErrorLineNumber(s.toString, lineOffset).replace("\t", "    "))
   }
 }
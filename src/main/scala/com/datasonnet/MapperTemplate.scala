@@ -0,0 +1,114 @@
+package com.datasonnet
+
+/*-
+ * Copyright 2019-2023 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import com.datasonnet.document.{MediaType, MediaTypes}
+import com.datasonnet.header.Header
+import com.datasonnet.jsonnet.Val.{Func, Obj}
+import com.datasonnet.jsonnet._
+import com.datasonnet.spi.{DataFormatService, Library}
+import com.datasonnet.wrap.{DataSonnetPath, NoFileEvaluator}
+
+import java.util.Collections
+import java.util.concurrent.ConcurrentHashMap
+import scala.jdk.CollectionConverters.{ConcurrentMapHasAsScala, IterableHasAsScala}
+import scala.util.{Failure, Success}
+
+/**
+  * The compiled form of a DataSonnet script.
+  *
+  * Creating a template parses the header and the script, builds the libraries and evaluates the imports. All of that
+  * state is immutable afterwards, so a template can be kept for as long as the script does not change and
+  * `newMapper()` can be called as often as needed: every mapper it returns shares the parsed script, the library
+  * objects and the imported values of the template, making its creation practically free.
+  *
+  * A `debuggable` template can be stopped by the debugger once a debugging session attaches; otherwise only a session
+  * that is already attached while the template is created can debug it.
+  *
+  * With `bytecode`, the script is compiled to a JVM class by the [[BytecodeCompiler]] instead of being evaluated by
+  * the [[ClosureCompiler]].
+  */
+class MapperTemplate(script0: String,
+                     inputNames: java.lang.Iterable[String] = Collections.emptySet(),
+                     imports: java.util.Map[String, String] = Collections.emptyMap(),
+                     asFunction: Boolean = true,
+                     additionalLibs: java.util.Collection[Library] = Collections.emptyList(),
+                     private[datasonnet] val dataFormats: DataFormatService = DataFormatService.DEFAULT,
+                     private[datasonnet] val defaultOutput: MediaType = MediaTypes.APPLICATION_JSON,
+                     debuggable: Boolean = false,
+                     bytecode: Boolean = false) {
+
+  private[datasonnet] val header = Header.parseHeader(script0)
+
+  val script: String = if (asFunction) Mapper.asFunction(script0, inputNames.asScala) else script0
+
+  private[datasonnet] val lineOffset = if (asFunction) 1 else 0
+
+  private def importer(parent: Path, path: String): Option[(Path, String)] = for {
+    resolved <- parent match {
+      case DataSonnetPath("") => Some(path)
+      case DataSonnetPath(p) => Some(p + "/" + path)
+      case _ => None
+    }
+    contents <- imports.get(resolved) match {
+      case null => None
+      case v => Some(v)
+    }
+
+    combined = (DataSonnetPath(resolved) -> contents)
+  } yield combined
+
+  // shared by all the transformations, so it must support concurrent updates
+  private val parseCache: collection.mutable.Map[String, fastparse.Parsed[(Expr, Map[String, Int])]] =
+    new ConcurrentHashMap[String, fastparse.Parsed[(Expr, Map[String, Int])]]().asScala
+  private[datasonnet] val evaluator = new NoFileEvaluator(script, DataSonnetPath("."), parseCache, importer, header.isPreserveOrder, header.getDefaultValue,
+    Instrumentation(debuggable))
+
+  // using uppercase DS is deprecated, but will remain supported
+  private val defaultLibraries: Map[String, Obj] = DSLowercase.makeLib(dataFormats, header, evaluator, parseCache)
+  private val libraries = additionalLibs.asScala.foldLeft(defaultLibraries) {
+    (acc, lib) => acc concat lib.makeLib(dataFormats, header, evaluator, parseCache)
+  }
+
+  imports.forEach((name, lib) => {
+    if (name.endsWith(".libsonnet") || name.endsWith(".ds")) {
+      val evaluated = Mapper.evaluate(lib, evaluator, parseCache, libraries, 0, bytecode)
+      evaluated match {
+        case Success(value) =>
+        case Failure(f) => throw new IllegalArgumentException("Unable to parse library: " + name, f)
+      }
+    }
+  })
+
+  private[datasonnet] val function = (for {
+    evaluated <- Mapper.evaluate(script, evaluator, parseCache, libraries, lineOffset, bytecode)
+    verified <- evaluated match {
+      case f: Func => {
+        val topLevelF = f.asInstanceOf[Func]
+        if (topLevelF.params.args.size < 1)
+          Failure(new IllegalArgumentException("Top Level Function must have at least one argument."))
+        else
+          Success(f)
+      }
+      case _ => Failure(new IllegalArgumentException("Not a valid map. Maps must have a Top Level Function."))
+    }
+  } yield verified).get
+
+  /**
+    * Creates a mapper backed by this template. No parsing or evaluation happens here.
+    */
+  def newMapper(): Mapper = new Mapper(this)
+}
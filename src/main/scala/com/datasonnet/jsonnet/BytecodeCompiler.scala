@@ -0,0 +1,654 @@
+package com.datasonnet.jsonnet
+
+/*-
+ * Copyright 2019-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import Expr.{Error => _, _}
+import com.datasonnet.RecentsMap
+import com.datasonnet.jsonnet.BytecodeCompiler._
+import com.datasonnet.jsonnet.CompiledScript.FunctionSpec
+import org.objectweb.asm.Opcodes._
+import org.objectweb.asm.{ClassTooLargeException, ClassWriter, Label, MethodTooLargeException, MethodVisitor, Type}
+
+import java.lang.invoke.MethodHandles
+import java.lang.ref.WeakReference
+import java.nio.ByteBuffer
+import java.util.Collections
+import java.util.concurrent.atomic.LongAdder
+import scala.collection.mutable
+
+/**
+  * Compiles the [[Expr]] tree of a script into a JVM class, a subclass of
+  * [[CompiledScript]], so that the JIT can compile the evaluation of the
+  * script like any other code: variables are read from their frame and
+  * slot, arithmetic and comparisons of numbers are done on doubles, and
+  * conditions branch directly.
+  *
+  * Expressions that are rare in mappings, such as `super`, slices, imports,
+  * object comprehensions and `assert`, are handed over to the tree-walking
+  * evaluator, just like the [[ClosureCompiler]] does.
+  */
+class BytecodeCompiler(evaluator: Evaluator)(implicit fileScope: FileScope) {
+  private val constants = mutable.ArrayBuffer.empty[AnyRef]
+  private val constantTypes = mutable.ArrayBuffer.empty[String]
+  // every method of the class, emitted in turn; emitting one can add more
+  private val methods = mutable.ArrayBuffer.empty[Method => Unit]
+
+  /**
+    * The bytecode of the class, which evaluates the expression in [[CompiledScript.eval]],
+    * and the constants to create it with.
+    */
+  def compile(expr: Expr): (Array[Byte], Array[AnyRef]) = {
+    method(expr, Nil)
+    val cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES) {
+      // the classes of the runtime are not necessarily visible to the class loader of ASM
+      override protected def getClassLoader: ClassLoader = classOf[CompiledScript].getClassLoader
+    }
+    cw.visit(V15, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, ClassName, null, CompiledScriptName, null)
+
+    var id = 0
+    while (id < methods.length) {
+      val mv = cw.visitMethod(ACC_PRIVATE, "e" + id, MethodDescriptor, null, null)
+      mv.visitCode()
+      methods(id)(new Method(mv))
+      mv.visitInsn(ARETURN)
+      mv.visitMaxs(0, 0)
+      mv.visitEnd()
+      id += 1
+    }
+    dispatch(cw)
+    constructor(cw)
+    cw.visitEnd()
+    (cw.toByteArray, constants.toArray)
+  }
+
+  // calls the method with the given number, see CompiledScript.call
+  private def dispatch(cw: ClassWriter): Unit = {
+    val mv = cw.visitMethod(ACC_PUBLIC | ACC_FINAL, "call", "(I" + ScopeType + ")" + ValType, null, null)
+    mv.visitCode()
+    val labels = Array.fill(methods.length)(new Label)
+    val unknown = new Label
+    mv.visitVarInsn(ILOAD, 1)
+    mv.visitTableSwitchInsn(0, methods.length - 1, unknown, labels: _*)
+    var id = 0
+    while (id < methods.length) {
+      mv.visitLabel(labels(id))
+      mv.visitVarInsn(ALOAD, 0)
+      mv.visitVarInsn(ALOAD, 2)
+      mv.visitMethodInsn(INVOKESPECIAL, ClassName, "e" + id, MethodDescriptor, false)
+      mv.visitInsn(ARETURN)
+      id += 1
+    }
+    mv.visitLabel(unknown)
+    mv.visitTypeInsn(NEW, "java/lang/IllegalArgumentException")
+    mv.visitInsn(DUP)
+    mv.visitMethodInsn(INVOKESPECIAL, "java/lang/IllegalArgumentException", "<init>", "()V", false)
+    mv.visitInsn(ATHROW)
+    mv.visitMaxs(0, 0)
+    mv.visitEnd()
+  }
+
+  // keeps every constant in a final field of its own type
+  private def constructor(cw: ClassWriter): Unit = {
+    val mv = cw.visitMethod(ACC_PUBLIC, "<init>", ConstructorDescriptor, null, null)
+    mv.visitCode()
+    mv.visitVarInsn(ALOAD, 0)
+    mv.visitVarInsn(ALOAD, 1)
+    mv.visitVarInsn(ALOAD, 2)
+    mv.visitMethodInsn(INVOKESPECIAL, CompiledScriptName, "<init>",
+      "(" + Type.getDescriptor(classOf[Evaluator]) + Type.getDescriptor(classOf[FileScope]) + ")V", false)
+    var i = 0
+    while (i < constants.length) {
+      cw.visitField(ACC_PRIVATE | ACC_FINAL, "c" + i, constantTypes(i), null, null).visitEnd()
+      mv.visitVarInsn(ALOAD, 0)
+      mv.visitVarInsn(ALOAD, 3)
+      push(mv, i)
+      mv.visitInsn(AALOAD)
+      mv.visitTypeInsn(CHECKCAST, Type.getType(constantTypes(i)).getInternalName)
+      mv.visitFieldInsn(PUTFIELD, ClassName, "c" + i, constantTypes(i))
+      i += 1
+    }
+    mv.visitInsn(RETURN)
+    mv.visitMaxs(0, 0)
+    mv.visitEnd()
+  }
+
+  /**
+    * A method of the class that evaluates the expression in the scope it is
+    * called with, see [[CompiledScript.call]].
+    *
+    * @param frames the layouts of the frames that the expression is evaluated
+    *               in, innermost first, see [[ValScope]]
+    */
+  private def method(expr: Expr, frames: List[Array[Int]], tryCatch: Boolean = false): Int =
+    addMethod(m => emit(expr, frames, Scope, tryCatch)(m))
+
+  private def addMethod(body: Method => Unit): Int = {
+    methods += body
+    methods.length - 1
+  }
+
+  /**
+    * Emits the code that leaves the value of the expression on the stack.
+    *
+    * @param scope the local variable that holds the scope of the expression
+    */
+  private def emit(expr: Expr, frames: List[Array[Int]], scope: Int, tryCatch: Boolean = false)
+                  (implicit m: Method): Unit = {
+    val mv = m.mv
+    expr match {
+      case Const(_, Val.Null) | Null(_) => module(mv, "Val$Null$")
+      case Const(_, Val.True) | True(_) => module(mv, "Val$True$")
+      case Const(_, Val.False) | False(_) => module(mv, "Val$False$")
+      case Const(_, value) => constant(value, ValType)
+      case Str(_, value) => constant(Val.Str(value), ValType)
+      case Num(_, value) => constant(Val.Num(value), ValType)
+      case Parened(_, value) => emit(value, frames, scope)
+
+      case Id(offset, index) => variable(offset, index, frames, scope)
+      case Self(offset) => helper(offset, scope, "self")
+      case $(offset) => helper(offset, scope, "dollar")
+
+      case Arr(_, items) =>
+        mv.visitVarInsn(ALOAD, 0)
+        lazies(items, frames, scope)
+        invoke(mv, "arr", "([" + LazyType + ")" + ValType)
+      case Obj(offset, ObjBody.MemberList(members)) if members.forall(isCompilable) =>
+        mv.visitVarInsn(ALOAD, 0)
+        push(mv, offset)
+        constant(objLiteral(members, frames), ObjLiteralType)
+        mv.visitVarInsn(ALOAD, scope)
+        invoke(mv, "obj", "(I" + ObjLiteralType + ScopeType + ")" + ValType)
+      case ObjExtend(offset, base, ext) =>
+        mv.visitVarInsn(ALOAD, 0)
+        push(mv, offset)
+        emit(base, frames, scope)
+        emit(Obj(offset, ext), frames, scope)
+        invoke(mv, "extend", "(I" + ValType + ValType + ")" + ValType)
+
+      case UnaryOp(offset, op, value) =>
+        mv.visitVarInsn(ALOAD, 0)
+        push(mv, offset)
+        constant(op, Type.getDescriptor(classOf[UnaryOp.Op]))
+        emit(value, frames, scope)
+        invoke(mv, "unary", "(I" + Type.getDescriptor(classOf[UnaryOp.Op]) + ValType + ")" + ValType)
+      case BinaryOp(_, _, _, Super(_)) => interpret(expr, scope, tryCatch)
+      case BinaryOp(_, lhs, BinaryOp.`default`, rhs) =>
+        call(catching(method(lhs, frames, tryCatch = true), "com/datasonnet/jsonnet/Error", rhs, frames), scope)
+      case BinaryOp(offset, lhs, op@(BinaryOp.`&&` | BinaryOp.`||`), rhs) => logical(offset, lhs, op, rhs, frames, scope)
+      case BinaryOp(offset, lhs, op, rhs) => binary(offset, lhs, op, rhs, frames, scope)
+
+      case IfElse(offset, cond, then, else0) =>
+        val value = m.local()
+        val notTrue = new Label
+        val notBoolean = new Label
+        val done = new Label
+        emit(cond, frames, scope)
+        mv.visitVarInsn(ASTORE, value)
+        mv.visitVarInsn(ALOAD, value)
+        module(mv, "Val$True$")
+        mv.visitJumpInsn(IF_ACMPNE, notTrue)
+        emit(then, frames, scope)
+        mv.visitJumpInsn(GOTO, done)
+        mv.visitLabel(notTrue)
+        mv.visitVarInsn(ALOAD, value)
+        module(mv, "Val$False$")
+        mv.visitJumpInsn(IF_ACMPNE, notBoolean)
+        else0 match {
+          case Some(e) => emit(e, frames, scope)
+          case None => module(mv, "Val$Null$")
+        }
+        mv.visitJumpInsn(GOTO, done)
+        mv.visitLabel(notBoolean)
+        mv.visitVarInsn(ALOAD, 0)
+        push(mv, offset)
+        mv.visitVarInsn(ALOAD, value)
+        invoke(mv, "notCondition", "(I" + ValType + ")" + ValType)
+        mv.visitLabel(done)
+      case LocalExpr(_, bindings, returned) =>
+        val layout = bindings.map(_.name).toArray
+        val inner = layout :: frames
+        val newScope = m.local()
+        mv.visitVarInsn(ALOAD, 0)
+        mv.visitVarInsn(ALOAD, scope)
+        constant(layout, "[I")
+        invoke(mv, "local", "(" + ScopeType + "[I)" + ScopeType)
+        mv.visitVarInsn(ASTORE, newScope)
+        bindings.zipWithIndex.foreach { case (bind, i) =>
+          mv.visitVarInsn(ALOAD, newScope)
+          mv.visitMethodInsn(INVOKEVIRTUAL, ScopeName, "frame", "()[" + LazyType, false)
+          push(mv, i)
+          lazily(bound(bind), inner, newScope)
+          mv.visitInsn(AASTORE)
+        }
+        emit(returned, inner, newScope)
+      case Function(_, params, body) =>
+        val inner = params.layout :: frames
+        val spec = new FunctionSpec(params, method(body, inner), params.defaultPositions.map(d => method(d._2, inner)).toArray)
+        mv.visitVarInsn(ALOAD, 0)
+        constant(spec, Type.getDescriptor(classOf[FunctionSpec]))
+        mv.visitVarInsn(ALOAD, scope)
+        invoke(mv, "function", "(" + Type.getDescriptor(classOf[FunctionSpec]) + ScopeType + ")" + ValType)
+      case Apply(offset, value, Args(args)) =>
+        mv.visitVarInsn(ALOAD, 0)
+        push(mv, offset)
+        emit(value, frames, scope)
+        if (args.exists(_._1.isDefined)) {
+          constant(args.map(_._1).toArray, "[Lscala/Option;")
+          lazies(args.map(_._2), frames, scope)
+          invoke(mv, "applyNamed", "(I" + ValType + "[Lscala/Option;[" + LazyType + ")" + ValType)
+        } else if (args.nonEmpty && args.length <= 3) {
+          args.foreach(arg => lazily(arg._2, frames, scope))
+          invoke(mv, "apply" + args.length, "(I" + ValType + LazyType * args.length + ")" + ValType)
+        } else {
+          lazies(args.map(_._2), frames, scope)
+          invoke(mv, "applyPositional", "(I" + ValType + "[" + LazyType + ")" + ValType)
+        }
+
+      case Select(_, Super(_), _) => interpret(expr, scope, tryCatch)
+      case Select(offset, value, name) =>
+        mv.visitVarInsn(ALOAD, 0)
+        push(mv, offset)
+        emit(value, frames, scope)
+        mv.visitLdcInsn(name)
+        mv.visitInsn(if (tryCatch) ICONST_1 else ICONST_0)
+        invoke(mv, "select", "(I" + ValType + "Ljava/lang/String;Z)" + ValType)
+      case Lookup(_, Super(_), _) => interpret(expr, scope, tryCatch)
+      case Lookup(offset, value, index) =>
+        mv.visitVarInsn(ALOAD, 0)
+        push(mv, offset)
+        emit(value, frames, scope)
+        emit(index, frames, scope)
+        invoke(mv, "lookup", "(I" + ValType + ValType + ")" + ValType)
+
+      case Expr.Error(offset, value) =>
+        mv.visitVarInsn(ALOAD, 0)
+        push(mv, offset)
+        emit(value, frames, scope)
+        invoke(mv, "error", "(I" + ValType + ")" + ValType)
+      case TryElse(_, try0, else0) =>
+        call(catching(method(try0, frames, tryCatch = true), null, else0, frames), scope)
+      case Comp(offset, value, first, rest) =>
+        // every `for` adds a frame with its variable, for the specs that follow it and for the value
+        var inner = frames
+        val specs = (first +: rest).map {
+          case ForSpec(_, name, expr) =>
+            val spec = (Array(name), expr.offset, method(expr, inner))
+            inner = spec._1 :: inner
+            spec
+          case IfSpec(_, expr) => (null, expr.offset, method(expr, inner))
+        }
+        mv.visitVarInsn(ALOAD, 0)
+        push(mv, offset)
+        constant(new CompLiteral(method(value, inner), specs.toArray), CompLiteralType)
+        mv.visitVarInsn(ALOAD, scope)
+        invoke(mv, "comp", "(I" + CompLiteralType + ScopeType + ")" + ValType)
+
+      case _ => interpret(expr, scope, tryCatch)
+    }
+  }
+
+  // a variable bound in this file is read from its frame and slot, anything else is looked up in the outer scope
+  private def variable(offset: Int, index: Int, frames: List[Array[Int]], scope: Int)(implicit m: Method): Unit = {
+    val mv = m.mv
+    mv.visitVarInsn(ALOAD, 0)
+    mv.visitVarInsn(ALOAD, scope)
+    var remaining = frames
+    while (remaining.nonEmpty) {
+      val slot = remaining.head.lastIndexOf(index)
+      if (slot >= 0) {
+        mv.visitMethodInsn(INVOKEVIRTUAL, ScopeName, "frame", "()[" + LazyType, false)
+        push(mv, slot)
+        mv.visitInsn(AALOAD)
+        push(mv, index)
+        push(mv, offset)
+        invoke(mv, "force", "(" + LazyType + "II)" + ValType)
+        return
+      }
+      mv.visitMethodInsn(INVOKEVIRTUAL, ScopeName, "parent", "()" + ScopeType, false)
+      remaining = remaining.tail
+    }
+    push(mv, index)
+    push(mv, offset)
+    invoke(mv, "lookup", "(" + ScopeType + "II)" + ValType)
+  }
+
+  /**
+    * An operator that is applied directly when both operands are numbers, and
+    * by [[Evaluator.binaryOp]] otherwise.
+    */
+  private def binary(offset: Int, lhs: Expr, op: BinaryOp.Op, rhs: Expr, frames: List[Array[Int]], scope: Int)
+                    (implicit m: Method): Unit = {
+    val mv = m.mv
+    val l = m.local()
+    val r = m.local()
+    val other = new Label
+    val done = new Label
+    emit(lhs, frames, scope)
+    mv.visitVarInsn(ASTORE, l)
+    emit(rhs, frames, scope)
+    mv.visitVarInsn(ASTORE, r)
+
+    // jumps to the general operator unless both operands are numbers
+    def numbers(): Unit = for (v <- Seq(l, r)) {
+      mv.visitVarInsn(ALOAD, v)
+      mv.visitTypeInsn(INSTANCEOF, NumName)
+      mv.visitJumpInsn(IFEQ, other)
+    }
+    def operands(): Unit = for (v <- Seq(l, r)) {
+      mv.visitVarInsn(ALOAD, v)
+      mv.visitTypeInsn(CHECKCAST, NumName)
+      mv.visitMethodInsn(INVOKEVIRTUAL, NumName, "value", "()D", false)
+    }
+    def arithmetic(insn: Int): Unit = {
+      numbers()
+      module(mv, "Val$Num$")
+      operands()
+      mv.visitInsn(insn)
+      mv.visitMethodInsn(INVOKEVIRTUAL, NumName + "$", "apply", "(D)L" + NumName + ";", false)
+      mv.visitJumpInsn(GOTO, done)
+    }
+    // compares the operands and jumps to false when the comparison is false; NaN compares false except with !=
+    def comparison(compare: Int, jumpIfFalse: Int): Unit = {
+      val isFalse = new Label
+      numbers()
+      operands()
+      mv.visitInsn(compare)
+      mv.visitJumpInsn(jumpIfFalse, isFalse)
+      module(mv, "Val$True$")
+      mv.visitJumpInsn(GOTO, done)
+      mv.visitLabel(isFalse)
+      module(mv, "Val$False$")
+      mv.visitJumpInsn(GOTO, done)
+    }
+
+    op match {
+      case BinaryOp.`+` => arithmetic(DADD)
+      case BinaryOp.`-` => arithmetic(DSUB)
+      case BinaryOp.`*` => arithmetic(DMUL)
+      case BinaryOp.`%` => arithmetic(DREM)
+      case BinaryOp.`<` => comparison(DCMPG, IFGE)
+      case BinaryOp.`<=` => comparison(DCMPG, IFGT)
+      case BinaryOp.`>` => comparison(DCMPL, IFLE)
+      case BinaryOp.`>=` => comparison(DCMPL, IFLT)
+      case BinaryOp.`==` => comparison(DCMPL, IFNE)
+      case BinaryOp.`!=` => comparison(DCMPL, IFEQ)
+      // division fails on a zero divisor, see Evaluator.numericOp
+      case _ =>
+    }
+    mv.visitLabel(other)
+    mv.visitVarInsn(ALOAD, 0)
+    push(mv, offset)
+    mv.visitVarInsn(ALOAD, l)
+    constant(op, Type.getDescriptor(classOf[BinaryOp.Op]))
+    mv.visitVarInsn(ALOAD, r)
+    invoke(mv, "binary", "(I" + ValType + Type.getDescriptor(classOf[BinaryOp.Op]) + ValType + ")" + ValType)
+    mv.visitLabel(done)
+  }
+
+  // `&&` and `||` only evaluate their right operand when the left one does not decide the result
+  private def logical(offset: Int, lhs: Expr, op: BinaryOp.Op, rhs: Expr, frames: List[Array[Int]], scope: Int)
+                     (implicit m: Method): Unit = {
+    val mv = m.mv
+    val (evaluatesRhs, decides) = if (op == BinaryOp.`&&`) ("Val$True$", "Val$False$") else ("Val$False$", "Val$True$")
+    val l = m.local()
+    val r = m.local()
+    val notRhs = new Label
+    val notBoolean = new Label
+    val done = new Label
+
+    def fail(value: Int): Unit = {
+      mv.visitVarInsn(ALOAD, 0)
+      push(mv, offset)
+      mv.visitLdcInsn(if (op == BinaryOp.`&&`) "&&" else "||")
+      mv.visitVarInsn(ALOAD, value)
+      invoke(mv, "notBoolean", "(ILjava/lang/String;" + ValType + ")" + ValType)
+      mv.visitJumpInsn(GOTO, done)
+    }
+
+    emit(lhs, frames, scope)
+    mv.visitVarInsn(ASTORE, l)
+    mv.visitVarInsn(ALOAD, l)
+    module(mv, evaluatesRhs)
+    mv.visitJumpInsn(IF_ACMPNE, notRhs)
+    emit(rhs, frames, scope)
+    mv.visitVarInsn(ASTORE, r)
+    mv.visitVarInsn(ALOAD, r)
+    mv.visitTypeInsn(INSTANCEOF, "com/datasonnet/jsonnet/Val$Bool")
+    mv.visitJumpInsn(IFEQ, notBoolean)
+    mv.visitVarInsn(ALOAD, r)
+    mv.visitJumpInsn(GOTO, done)
+    mv.visitLabel(notBoolean)
+    fail(r)
+    mv.visitLabel(notRhs)
+    val notDecided = new Label
+    mv.visitVarInsn(ALOAD, l)
+    module(mv, decides)
+    mv.visitJumpInsn(IF_ACMPNE, notDecided)
+    module(mv, decides)
+    mv.visitJumpInsn(GOTO, done)
+    mv.visitLabel(notDecided)
+    fail(l)
+    mv.visitLabel(done)
+  }
+
+  /**
+    * A method that returns the value of another method, or the value of
+    * `otherwise` when that one throws the exception; the other method holds
+    * the code the handler covers, so that no value is on the stack when the
+    * handler is entered.
+    *
+    * @param exception the internal name of the exception class, or null for any exception
+    */
+  private def catching(tried: Int, exception: String, otherwise: Expr, frames: List[Array[Int]]): Int = addMethod { m =>
+    val mv = m.mv
+    val start = new Label
+    val end = new Label
+    val handler = new Label
+    val done = new Label
+    mv.visitTryCatchBlock(start, end, handler, exception)
+    mv.visitLabel(start)
+    mv.visitVarInsn(ALOAD, 0)
+    mv.visitVarInsn(ALOAD, Scope)
+    mv.visitMethodInsn(INVOKESPECIAL, ClassName, "e" + tried, MethodDescriptor, false)
+    mv.visitLabel(end)
+    mv.visitJumpInsn(GOTO, done)
+    mv.visitLabel(handler)
+    mv.visitInsn(POP)
+    emit(otherwise, frames, Scope, tryCatch = true)(m)
+    mv.visitLabel(done)
+  }
+
+  private def call(id: Int, scope: Int)(implicit m: Method): Unit = {
+    m.mv.visitVarInsn(ALOAD, 0)
+    m.mv.visitVarInsn(ALOAD, scope)
+    m.mv.visitMethodInsn(INVOKESPECIAL, ClassName, "e" + id, MethodDescriptor, false)
+  }
+
+  // leaves the lazy value of the expression on the stack; a constant is already evaluated
+  private def lazily(expr: Expr, frames: List[Array[Int]], scope: Int)(implicit m: Method): Unit = expr match {
+    case Parened(_, value) => lazily(value, frames, scope)
+    case Const(_, value) => constant(Val.Lazy.strict(value), LazyType)
+    case Null(_) => constant(Val.Lazy.strict(Val.Null), LazyType)
+    case True(_) => constant(Val.Lazy.strict(Val.True), LazyType)
+    case False(_) => constant(Val.Lazy.strict(Val.False), LazyType)
+    case Str(_, value) => constant(Val.Lazy.strict(Val.Str(value)), LazyType)
+    case Num(_, value) => constant(Val.Lazy.strict(Val.Num(value)), LazyType)
+    case _ =>
+      m.mv.visitVarInsn(ALOAD, 0)
+      push(m.mv, method(expr, frames))
+      m.mv.visitVarInsn(ALOAD, scope)
+      invoke(m.mv, "lazily", "(I" + ScopeType + ")" + LazyType)
+  }
+
+  private def lazies(exprs: Seq[Expr], frames: List[Array[Int]], scope: Int)(implicit m: Method): Unit = {
+    push(m.mv, exprs.length)
+    m.mv.visitTypeInsn(ANEWARRAY, LazyName)
+    exprs.zipWithIndex.foreach { case (expr, i) =>
+      m.mv.visitInsn(DUP)
+      push(m.mv, i)
+      lazily(expr, frames, scope)
+      m.mv.visitInsn(AASTORE)
+    }
+  }
+
+  // the locals of the object add a frame for its fields, its assertions and the locals themselves
+  private def objLiteral(members: Seq[Member], frames: List[Array[Int]]): ObjLiteral[Int] = {
+    val layout = members.collect { case Member.BindStmt(b) => b.name }.toArray
+    val inner = if (layout.isEmpty) frames else layout :: frames
+    new ObjLiteral[Int](
+      layout,
+      members.collect { case Member.BindStmt(b) => method(bound(b), inner) }.toArray,
+      members.collect {
+        case Member.AssertStmt(value, msg) => (value.offset, method(value, inner), msg.map(method(_, inner)))
+      }.toArray,
+      members.collect {
+        case Member.Field(fieldOffset, fieldName, plus, args, sep, rhs) =>
+          val name = fieldName match {
+            case FieldName.Fixed(s) => Left(s)
+            case FieldName.Dyn(k) => Right(method(k, frames))
+          }
+          val value = args match {
+            case None => method(rhs, inner)
+            case Some(params) => method(Function(fieldOffset, params, rhs), inner)
+          }
+          (fieldOffset, name, plus, sep, value)
+      }.toArray
+    )
+  }
+
+  private def bound(bind: Bind): Expr = bind.args match {
+    case None => bind.rhs
+    case Some(params) => Function(bind.offset, params, bind.rhs)
+  }
+
+  // the evaluator does not support methods that extend the field of the super object either
+  private def isCompilable(member: Member): Boolean = member match {
+    case Member.Field(_, _, true, Some(_), _, _) => false
+    case _ => true
+  }
+
+  private def interpret(expr: Expr, scope: Int, tryCatch: Boolean)(implicit m: Method): Unit = {
+    m.mv.visitVarInsn(ALOAD, 0)
+    constant(expr, Type.getDescriptor(classOf[Expr]))
+    m.mv.visitInsn(if (tryCatch) ICONST_1 else ICONST_0)
+    m.mv.visitVarInsn(ALOAD, scope)
+    invoke(m.mv, "interpret", "(" + Type.getDescriptor(classOf[Expr]) + "Z" + ScopeType + ")" + ValType)
+  }
+
+  private def helper(offset: Int, scope: Int, name: String)(implicit m: Method): Unit = {
+    m.mv.visitVarInsn(ALOAD, 0)
+    m.mv.visitVarInsn(ALOAD, scope)
+    push(m.mv, offset)
+    invoke(m.mv, name, "(" + ScopeType + "I)" + ValType)
+  }
+
+  private def constant(value: AnyRef, descriptor: String)(implicit m: Method): Unit = {
+    constants += value
+    constantTypes += descriptor
+    m.mv.visitVarInsn(ALOAD, 0)
+    m.mv.visitFieldInsn(GETFIELD, ClassName, "c" + (constants.length - 1), descriptor)
+  }
+}
+
+object BytecodeCompiler {
+  private final val ClassName = "com/datasonnet/jsonnet/CompiledScript$Generated"
+  private final val CompiledScriptName = Type.getInternalName(classOf[CompiledScript])
+  private final val ScopeName = Type.getInternalName(classOf[ValScope])
+  private final val NumName = Type.getInternalName(classOf[Val.Num])
+  private final val LazyName = Type.getInternalName(classOf[Val.Lazy])
+  private final val ValType = Type.getDescriptor(classOf[Val])
+  private final val ScopeType = Type.getDescriptor(classOf[ValScope])
+  private final val LazyType = Type.getDescriptor(classOf[Val.Lazy])
+  private final val ObjLiteralType = Type.getDescriptor(classOf[ObjLiteral[_]])
+  private final val CompLiteralType = Type.getDescriptor(classOf[CompLiteral[_]])
+  private final val MethodDescriptor = "(" + ScopeType + ")" + ValType
+  private final val ConstructorDescriptor =
+    "(" + Type.getDescriptor(classOf[Evaluator]) + Type.getDescriptor(classOf[FileScope]) + "[Ljava/lang/Object;)V"
+  // the local variable of a method of the class that holds its scope
+  private final val Scope = 1
+
+  private final class Method(val mv: MethodVisitor) {
+    private var locals = 2
+
+    def local(): Int = {
+      locals += 1
+      locals - 1
+    }
+  }
+
+  private def push(mv: MethodVisitor, i: Int): Unit =
+    if (i >= -1 && i <= 5) mv.visitInsn(ICONST_0 + i)
+    else if (i >= Byte.MinValue && i <= Byte.MaxValue) mv.visitIntInsn(BIPUSH, i)
+    else if (i >= Short.MinValue && i <= Short.MaxValue) mv.visitIntInsn(SIPUSH, i)
+    else mv.visitLdcInsn(i)
+
+  private def invoke(mv: MethodVisitor, name: String, descriptor: String): Unit =
+    mv.visitMethodInsn(INVOKEVIRTUAL, CompiledScriptName, name, descriptor, false)
+
+  // the instance of a Scala object of the runtime, such as Val.Null
+  private def module(mv: MethodVisitor, name: String): Unit = {
+    val owner = "com/datasonnet/jsonnet/" + name
+    mv.visitFieldInsn(GETSTATIC, owner, "MODULE$", "L" + owner + ";")
+  }
+
+  /**
+    * The classes defined so far by their bytecode. A class holds none of the
+    * values of its script, the instances do, so the cache keeps no library or
+    * data format alive, and it only refers to the classes weakly, so that a
+    * class is unloaded once no mapper uses it anymore.
+    */
+  private val classes = Collections.synchronizedMap(new RecentsMap[ByteBuffer, WeakReference[Class[_]]](256))
+  private val defined = new LongAdder
+  private val lookup = MethodHandles.lookup()
+
+  /**
+    * The number of classes defined so far, the others were taken from the cache.
+    */
+  def definedClasses: Long = defined.sum()
+
+  /**
+    * Evaluates the expression with a compiled class, or with the tree-walking
+    * evaluator when the evaluator is instrumented. A script that is too large
+    * for a class is evaluated by the [[ClosureCompiler]].
+    */
+  def evaluate(expr: Expr, evaluator: Evaluator)(implicit scope: ValScope, fileScope: FileScope): Val =
+    if (evaluator.instrumentation.isDefined) evaluator.visitExpr(expr)
+    else {
+      val compiled = try Some(new BytecodeCompiler(evaluator).compile(expr)) catch {
+        case _: MethodTooLargeException | _: ClassTooLargeException => None
+      }
+      compiled match {
+        case Some((bytecode, constants)) =>
+          load(bytecode).getConstructor(classOf[Evaluator], classOf[FileScope], classOf[Array[AnyRef]])
+            .newInstance(evaluator, fileScope, constants).asInstanceOf[CompiledScript].eval(scope)
+        case None => ClosureCompiler.evaluate(expr, evaluator)
+      }
+    }
+
+  // the bytecode of a script is the same whenever it is optimized the same way, which depends on the libraries
+  private def load(bytecode: Array[Byte]): Class[_] = {
+    val key = ByteBuffer.wrap(bytecode)
+    val cached = classes.get(key)
+    val reused = if (cached != null) cached.get else null
+    if (reused != null) reused
+    else {
+      val compiled = lookup.defineHiddenClass(bytecode, true).lookupClass()
+      classes.put(key, new WeakReference[Class[_]](compiled))
+      defined.increment()
+      compiled
+    }
+  }
+}
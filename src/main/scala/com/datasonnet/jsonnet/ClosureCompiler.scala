@@ -0,0 +1,483 @@
+package com.datasonnet.jsonnet
+
+/*-
+ * Copyright 2019-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import Expr.{Error => _, _}
+import com.datasonnet.jsonnet.ClosureCompiler.{ConstNode, Node}
+
+import scala.collection.immutable.ArraySeq
+
+/**
+  * Compiles an [[Expr]] tree once into a tree of [[Node]]s, each of which
+  * evaluates its part of the expression directly, instead of matching on the
+  * kind of every node each time the tree is walked.
+  *
+  * The nodes produce the same values and errors as [[Evaluator.visitExpr]],
+  * and share its helpers for the operations themselves. Expressions that are
+  * rare in mappings, such as `super`, slices, imports, object comprehensions
+  * and `assert`, are handed over to the tree-walking evaluator.
+  *
+  * The compiled nodes do not call the evaluator's [[Instrumentation]], so an
+  * instrumented evaluator keeps walking the tree, see
+  * [[ClosureCompiler.evaluate]].
+  */
+class ClosureCompiler(evaluator: Evaluator)(implicit fileScope: FileScope) {
+  private implicit def evalScope: EvalScope = evaluator
+
+  def compile(expr: Expr): Node = compile(expr, Nil)
+
+  /**
+    * @param frames the layouts of the frames that the expression is evaluated
+    *               in, innermost first, see [[ValScope]]
+    */
+  private def compile(expr: Expr, frames: List[Array[Int]], tryCatch: Boolean = false): Node = expr match {
+    case Const(offset, value) => new ConstNode(offset, value)
+    case Null(offset) => new ConstNode(offset, Val.Null)
+    case True(offset) => new ConstNode(offset, Val.True)
+    case False(offset) => new ConstNode(offset, Val.False)
+    case Str(offset, value) => new ConstNode(offset, Val.Str(value))
+    case Num(offset, value) => new ConstNode(offset, Val.Num(value))
+    case Parened(_, value) => compile(value, frames)
+
+    case Id(offset, index) => resolve(offset, index, frames)
+    case Self(offset) => new SelfNode(offset)
+    case $(offset) => new DollarNode(offset)
+
+    case Arr(offset, items) => new ArrNode(offset, items.map(compile(_, frames)).toArray)
+    case Obj(offset, ObjBody.MemberList(members)) if members.forall(isCompilable) => new ObjNode(offset, members, frames)
+    case ObjExtend(offset, base, ext) => new ObjExtendNode(offset, compile(base, frames), compile(Obj(offset, ext), frames))
+
+    case UnaryOp(offset, op, value) => new UnaryNode(offset, op, compile(value, frames))
+    case BinaryOp(_, _, _, Super(_)) => new InterpretedNode(expr, tryCatch)
+    case BinaryOp(offset, lhs0, op, rhs0) =>
+      val lhs = compile(lhs0, frames, tryCatch = op == BinaryOp.`default`)
+      val rhs = compile(rhs0, frames, tryCatch = op == BinaryOp.`default`)
+      op match {
+        case BinaryOp.`default` => new DefaultNode(offset, lhs, rhs)
+        case BinaryOp.`&&` => new AndNode(offset, lhs, rhs)
+        case BinaryOp.`||` => new OrNode(offset, lhs, rhs)
+        case BinaryOp.`+` => new NumericNode(offset, lhs, op, rhs) {
+          def apply(l: Double, r: Double): Val = Val.Num(l + r)
+        }
+        case BinaryOp.`-` => new NumericNode(offset, lhs, op, rhs) {
+          def apply(l: Double, r: Double): Val = Val.Num(l - r)
+        }
+        case BinaryOp.`*` => new NumericNode(offset, lhs, op, rhs) {
+          def apply(l: Double, r: Double): Val = Val.Num(l * r)
+        }
+        case BinaryOp.`<` => new NumericNode(offset, lhs, op, rhs) {
+          def apply(l: Double, r: Double): Val = Val.bool(l < r)
+        }
+        case BinaryOp.`>` => new NumericNode(offset, lhs, op, rhs) {
+          def apply(l: Double, r: Double): Val = Val.bool(l > r)
+        }
+        case BinaryOp.`<=` => new NumericNode(offset, lhs, op, rhs) {
+          def apply(l: Double, r: Double): Val = Val.bool(l <= r)
+        }
+        case BinaryOp.`>=` => new NumericNode(offset, lhs, op, rhs) {
+          def apply(l: Double, r: Double): Val = Val.bool(l >= r)
+        }
+        case BinaryOp.`/` => new NumericNode(offset, lhs, op, rhs) {
+          def apply(l: Double, r: Double): Val = evaluator.numericOp(this.offset, l, op, r)
+        }
+        case BinaryOp.`%` => new NumericNode(offset, lhs, op, rhs) {
+          def apply(l: Double, r: Double): Val = Val.Num(l % r)
+        }
+        case BinaryOp.`==` => new NumericNode(offset, lhs, op, rhs) {
+          def apply(l: Double, r: Double): Val = Val.bool(l == r)
+        }
+        case BinaryOp.`!=` => new NumericNode(offset, lhs, op, rhs) {
+          def apply(l: Double, r: Double): Val = Val.bool(l != r)
+        }
+        case _ => new BinaryNode(offset, lhs, op, rhs)
+      }
+
+    case IfElse(offset, cond, then, else0) =>
+      new IfElseNode(offset, compile(cond, frames), compile(then, frames), else0.map(compile(_, frames)).orNull)
+    case LocalExpr(offset, bindings, returned) =>
+      val layout = bindings.map(_.name).toArray
+      val inner = layout :: frames
+      new LocalNode(offset, layout, bindings.map(compileBind(_, inner)).toArray, compile(returned, inner))
+    case Function(offset, params, body) => function(offset, params, body, frames)
+    case Apply(offset, value, Args(args)) =>
+      val target = compile(value, frames)
+      val compiled = args.map(arg => compile(arg._2, frames)).toArray
+      if (args.exists(_._1.isDefined)) new ApplyNode(offset, target, args.map(_._1).toArray, compiled)
+      else compiled match {
+        case Array(a) => new Apply1Node(offset, target, a)
+        case Array(a, b) => new Apply2Node(offset, target, a, b)
+        case Array(a, b, c) => new Apply3Node(offset, target, a, b, c)
+        case _ => new ApplyPositionalNode(offset, target, compiled)
+      }
+
+    case Select(_, Super(_), _) => new InterpretedNode(expr, tryCatch)
+    case Select(offset, value, name) => new SelectNode(offset, compile(value, frames), name, tryCatch)
+    case Lookup(_, Super(_), _) => new InterpretedNode(expr, tryCatch)
+    case Lookup(offset, value, index) => new LookupNode(offset, compile(value, frames), compile(index, frames))
+
+    case Expr.Error(offset, value) => new ErrorNode(offset, compile(value, frames))
+    case TryElse(offset, try0, else0) =>
+      new TryElseNode(offset, compile(try0, frames, tryCatch = true), compile(else0, frames, tryCatch = true))
+    case Comp(offset, value, first, rest) =>
+      // every `for` adds a frame with its variable, for the specs that follow it and for the value
+      var inner = frames
+      val specs = (first +: rest).map {
+        case ForSpec(_, name, expr) =>
+          val spec = (Array(name), expr.offset, compile(expr, inner))
+          inner = spec._1 :: inner
+          spec
+        case IfSpec(_, expr) => (null, expr.offset, compile(expr, inner))
+      }
+      new CompNode(offset, new CompLiteral(compile(value, inner), specs.toArray))
+
+    case _ => new InterpretedNode(expr, tryCatch)
+  }
+
+  // a variable bound in this file is read from its frame and slot, anything else is looked up in the outer scope
+  private def resolve(offset: Int, index: Int, frames: List[Array[Int]]): Node = {
+    var depth = 0
+    var remaining = frames
+    while (remaining.nonEmpty) {
+      val slot = remaining.head.lastIndexOf(index)
+      if (slot >= 0) return new SlotNode(offset, index, depth, slot)
+      depth += 1
+      remaining = remaining.tail
+    }
+    new IdNode(offset, index, depth)
+  }
+
+  // a call adds a frame with the parameters, see Val.Func
+  private def function(offset: Int, params: Params, body: Expr, frames: List[Array[Int]]): Node =
+    new FunctionNode(offset, params, compile(body, params.layout :: frames))
+
+  private def compileBind(bind: Bind, frames: List[Array[Int]]): Node = bind.args match {
+    case None => compile(bind.rhs, frames)
+    case Some(params) => function(bind.offset, params, bind.rhs, frames)
+  }
+
+  // the evaluator does not support methods that extend the field of the super object either
+  private def isCompilable(member: Member): Boolean = member match {
+    case Member.Field(_, _, true, Some(_), _, _) => false
+    case _ => true
+  }
+
+  /**
+    * Evaluates its node, reporting failures at the node's offset just like
+    * [[Evaluator.visitExpr]] does.
+    */
+  private abstract class Guarded(offset: Int) extends Node(offset) {
+    final def eval(scope: ValScope): Val =
+      try run(scope)
+      catch Error.tryCatch(offset)
+
+    protected def run(scope: ValScope): Val
+  }
+
+  // the value of a node, evaluated when it is first forced; a constant is already evaluated
+  private def lazily(node: Node, scope: ValScope): Val.Lazy = node match {
+    case const: ConstNode => Val.Lazy.strict(const.value)
+    case _ => Val.Lazy(node.eval(scope))
+  }
+
+  // evaluates the parts of object literals and comprehensions, see ObjLiteral and CompLiteral
+  private object Nodes extends CompiledExprs[Node] {
+    def eval(node: Node, scope: ValScope): Val = node.eval(scope)
+
+    def lazily(node: Node, scope: ValScope): Val.Lazy = ClosureCompiler.this.lazily(node, scope)
+  }
+
+  private final class SlotNode(offset: Int, index: Int, depth: Int, slot: Int) extends Guarded(offset) {
+    protected def run(scope: ValScope): Val = {
+      var s = scope
+      var d = depth
+      while (d > 0) {
+        s = s.parent
+        d -= 1
+      }
+      val ref = s.frame(slot)
+      if (ref == null) Error.fail("Unknown variable " + fileScope.indexNames(index), offset)
+      try ref.force catch Error.tryCatchWrap(offset)
+    }
+  }
+
+  // skips the frames of this file, none of which binds the variable
+  private final class IdNode(offset: Int, index: Int, depth: Int) extends Guarded(offset) {
+    protected def run(scope: ValScope): Val = {
+      var s = scope
+      var d = depth
+      while (d > 0) {
+        s = s.parent
+        d -= 1
+      }
+      val ref = s.lookup(index)
+      if (ref == null) Error.fail("Unknown variable " + fileScope.indexNames(index), offset)
+      try ref.force catch Error.tryCatchWrap(offset)
+    }
+  }
+
+  private final class SelfNode(offset: Int) extends Guarded(offset) {
+    protected def run(scope: ValScope): Val =
+      scope.self0.getOrElse(Error.fail("Cannot use `self` outside an object", offset))
+  }
+
+  private final class DollarNode(offset: Int) extends Guarded(offset) {
+    protected def run(scope: ValScope): Val =
+      scope.dollar0.getOrElse(Error.fail("Cannot use `$` outside an object", offset))
+  }
+
+  private final class ArrNode(offset: Int, items: Array[Node]) extends Guarded(offset) {
+    protected def run(scope: ValScope): Val = {
+      val lazies = new Array[Val.Lazy](items.length)
+      var i = 0
+      while (i < items.length) {
+        val item = items(i)
+        lazies(i) = lazily(item, scope)
+        i += 1
+      }
+      Val.Arr(ArraySeq.unsafeWrapArray(lazies))
+    }
+  }
+
+  // the locals of the object add a frame for its fields, its assertions and the locals themselves
+  private final class ObjNode(offset: Int, members: Seq[Member], frames: List[Array[Int]]) extends Guarded(offset) {
+    private val literal = {
+      val layout = members.collect { case Member.BindStmt(b) => b.name }.toArray
+      val inner = if (layout.isEmpty) frames else layout :: frames
+      new ObjLiteral[Node](
+        layout,
+        members.collect { case Member.BindStmt(b) => compileBind(b, inner) }.toArray,
+        members.collect {
+          case Member.AssertStmt(value, msg) => (value.offset, compile(value, inner), msg.map(compile(_, inner)))
+        }.toArray,
+        members.collect {
+          case Member.Field(fieldOffset, fieldName, plus, args, sep, rhs) =>
+            val name = fieldName match {
+              case FieldName.Fixed(s) => Left(s)
+              case FieldName.Dyn(k) => Right(compile(k, frames))
+            }
+            val value = args match {
+              case None => compile(rhs, inner)
+              case Some(params) => function(fieldOffset, params, rhs, inner)
+            }
+            (fieldOffset, name, plus, sep, value)
+        }.toArray
+      )
+    }
+
+    protected def run(scope: ValScope): Val = literal.make(scope, Nodes)
+  }
+
+  private final class ObjExtendNode(offset: Int, base: Node, ext: Node) extends Guarded(offset) {
+    protected def run(scope: ValScope): Val = {
+      val original = base.eval(scope).cast[Val.Obj]
+      ext.eval(scope).cast[Val.Obj].addSuper(original)
+    }
+  }
+
+  private final class UnaryNode(offset: Int, op: UnaryOp.Op, value: Node) extends Guarded(offset) {
+    protected def run(scope: ValScope): Val = evaluator.unaryOp(op, value.eval(scope))
+  }
+
+  private class BinaryNode(offset: Int, lhs: Node, op: BinaryOp.Op, rhs: Node) extends Guarded(offset) {
+    protected def run(scope: ValScope): Val = evaluator.binaryOp(offset, lhs.eval(scope), op, rhs.eval(scope))
+  }
+
+  /**
+    * An operator that is applied directly when both operands are numbers, and
+    * by [[Evaluator.binaryOp]] otherwise.
+    */
+  private abstract class NumericNode(offset: Int, lhs: Node, op: BinaryOp.Op, rhs: Node) extends Guarded(offset) {
+    def apply(l: Double, r: Double): Val
+
+    protected def run(scope: ValScope): Val = {
+      val l = lhs.eval(scope)
+      val r = rhs.eval(scope)
+      l match {
+        case l: Val.Num => r match {
+          case r: Val.Num => apply(l.value, r.value)
+          case _ => evaluator.binaryOp(offset, l, op, r)
+        }
+        case _ => evaluator.binaryOp(offset, l, op, r)
+      }
+    }
+  }
+
+  private final class DefaultNode(offset: Int, lhs: Node, rhs: Node) extends Guarded(offset) {
+    protected def run(scope: ValScope): Val =
+      try lhs.eval(scope)
+      catch { case e: Error => rhs.eval(scope) }
+  }
+
+  private final class AndNode(offset: Int, lhs: Node, rhs: Node) extends Guarded(offset) {
+    protected def run(scope: ValScope): Val = lhs.eval(scope) match {
+      case Val.True =>
+        rhs.eval(scope) match {
+          case b: Val.Bool => b
+          case unknown => Error.fail(s"binary operator && does not operate on ${unknown.prettyName}s.", offset)
+        }
+      case Val.False => Val.False
+      case unknown => Error.fail(s"binary operator && does not operate on ${unknown.prettyName}s.", offset)
+    }
+  }
+
+  private final class OrNode(offset: Int, lhs: Node, rhs: Node) extends Guarded(offset) {
+    protected def run(scope: ValScope): Val = lhs.eval(scope) match {
+      case Val.True => Val.True
+      case Val.False =>
+        rhs.eval(scope) match {
+          case b: Val.Bool => b
+          case unknown => Error.fail(s"binary operator || does not operate on ${unknown.prettyName}s.", offset)
+        }
+      case unknown => Error.fail(s"binary operator || does not operate on ${unknown.prettyName}s.", offset)
+    }
+  }
+
+  private final class IfElseNode(offset: Int, cond: Node, then: Node, else0: Node) extends Guarded(offset) {
+    protected def run(scope: ValScope): Val = cond.eval(scope) match {
+      case Val.True => then.eval(scope)
+      case Val.False => if (else0 == null) Val.Null else else0.eval(scope)
+      case v => Error.fail("Need boolean, found " + v.prettyName, offset)
+    }
+  }
+
+  private final class LocalNode(offset: Int, layout: Array[Int], binds: Array[Node], returned: Node) extends Guarded(offset) {
+    protected def run(scope: ValScope): Val = {
+      val frame = new Array[Val.Lazy](binds.length)
+      val newScope = new ValScope(scope.dollar0, scope.self0, scope.super0, frame, layout, scope)
+      var i = 0
+      while (i < binds.length) {
+        val bind = binds(i)
+        frame(i) = lazily(bind, newScope)
+        i += 1
+      }
+      returned.eval(newScope)
+    }
+  }
+
+  // default values are rare enough to be left to the evaluator
+  private final class FunctionNode(offset: Int, params: Params, body: Node) extends Guarded(offset) {
+    protected def run(scope: ValScope): Val = Val.Func(
+      Some(scope -> fileScope),
+      params,
+      (s, _, _, _, _) => body.eval(s),
+      (default, s, e) => evaluator.visitExpr(default)(s, fileScope)
+    )
+  }
+
+  private final class ApplyNode(offset: Int, value: Node, names: Array[Option[String]], args: Array[Node]) extends Guarded(offset) {
+    protected def run(scope: ValScope): Val = {
+      val lhs = value.eval(scope)
+      val passed = new Array[(Option[String], Val.Lazy)](args.length)
+      var i = 0
+      while (i < args.length) {
+        val arg = args(i)
+        passed(i) = (names(i), lazily(arg, scope))
+        i += 1
+      }
+      try lhs.cast[Val.Func].apply(ArraySeq.unsafeWrapArray(passed), fileScope.currentFile.last, offset)
+      catch Error.tryCatchWrap(offset)
+    }
+  }
+
+  private final class Apply1Node(offset: Int, value: Node, a: Node) extends Guarded(offset) {
+    protected def run(scope: ValScope): Val = {
+      val lhs = value.eval(scope)
+      try lhs.cast[Val.Func].apply1(lazily(a, scope), fileScope.currentFile.last, offset)
+      catch Error.tryCatchWrap(offset)
+    }
+  }
+
+  private final class Apply2Node(offset: Int, value: Node, a: Node, b: Node) extends Guarded(offset) {
+    protected def run(scope: ValScope): Val = {
+      val lhs = value.eval(scope)
+      try lhs.cast[Val.Func].apply2(lazily(a, scope), lazily(b, scope), fileScope.currentFile.last, offset)
+      catch Error.tryCatchWrap(offset)
+    }
+  }
+
+  private final class Apply3Node(offset: Int, value: Node, a: Node, b: Node, c: Node) extends Guarded(offset) {
+    protected def run(scope: ValScope): Val = {
+      val lhs = value.eval(scope)
+      try lhs.cast[Val.Func].apply3(lazily(a, scope), lazily(b, scope), lazily(c, scope),
+        fileScope.currentFile.last, offset)
+      catch Error.tryCatchWrap(offset)
+    }
+  }
+
+  private final class ApplyPositionalNode(offset: Int, value: Node, args: Array[Node]) extends Guarded(offset) {
+    protected def run(scope: ValScope): Val = {
+      val lhs = value.eval(scope)
+      val passed = new Array[Val.Lazy](args.length)
+      var i = 0
+      while (i < args.length) {
+        val arg = args(i)
+        passed(i) = lazily(arg, scope)
+        i += 1
+      }
+      try lhs.cast[Val.Func].applyPositional(passed, fileScope.currentFile.last, offset)
+      catch Error.tryCatchWrap(offset)
+    }
+  }
+
+  private final class SelectNode(offset: Int, value: Node, name: String, tryCatch: Boolean) extends Guarded(offset) {
+    protected def run(scope: ValScope): Val = evaluator.select(offset, value.eval(scope), name, tryCatch)
+  }
+
+  private final class LookupNode(offset: Int, value: Node, index: Node) extends Guarded(offset) {
+    protected def run(scope: ValScope): Val = evaluator.lookup(offset, value.eval(scope), index.eval(scope))
+  }
+
+  private final class ErrorNode(offset: Int, value: Node) extends Guarded(offset) {
+    protected def run(scope: ValScope): Val = evaluator.fail(offset, value.eval(scope))
+  }
+
+  private final class TryElseNode(offset: Int, try0: Node, else0: Node) extends Guarded(offset) {
+    protected def run(scope: ValScope): Val =
+      try try0.eval(scope)
+      catch { case _: Throwable => else0.eval(scope) }
+  }
+
+  private final class CompNode(offset: Int, literal: CompLiteral[Node]) extends Guarded(offset) {
+    protected def run(scope: ValScope): Val = literal.make(scope, Nodes)
+  }
+
+  private final class InterpretedNode(expr: Expr, tryCatch: Boolean) extends Node(expr.offset) {
+    def eval(scope: ValScope): Val = evaluator.visitExpr(expr, tryCatch)(scope, fileScope)
+  }
+}
+
+object ClosureCompiler {
+
+  /**
+    * An expression compiled for one file, which can be evaluated in any scope
+    * of that file.
+    */
+  abstract class Node(val offset: Int) {
+    def eval(scope: ValScope): Val
+  }
+
+  private final class ConstNode(offset: Int, val value: Val) extends Node(offset) {
+    def eval(scope: ValScope): Val = value
+  }
+
+  /**
+    * Evaluates the expression with compiled nodes, or with the tree-walking
+    * evaluator when the evaluator is instrumented.
+    */
+  def evaluate(expr: Expr, evaluator: Evaluator)(implicit scope: ValScope, fileScope: FileScope): Val =
+    if (evaluator.instrumentation.isDefined) evaluator.visitExpr(expr)
+    else new ClosureCompiler(evaluator).compile(expr).eval(scope)
+}
@@ -0,0 +1,149 @@
+package com.datasonnet.jsonnet
+
+/*-
+ * Copyright 2019-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import com.datasonnet.jsonnet.Expr.Member.Visibility
+
+import scala.collection.mutable
+
+/**
+  * Evaluates the expressions compiled by a backend, such as the nodes of the
+  * [[ClosureCompiler]] or the methods of a [[CompiledScript]].
+  */
+trait CompiledExprs[E] {
+  def eval(expr: E, scope: ValScope): Val
+
+  def lazily(expr: E, scope: ValScope): Val.Lazy
+}
+
+/**
+  * An object literal whose parts are compiled to `E`, built the same way by
+  * both compiled backends. The locals of the object add a frame for its
+  * fields, its assertions and the locals themselves.
+  *
+  * @param asserts the offset, the condition and the message of every assertion
+  * @param fields  the offset, the fixed name or the compiled key, whether it is
+  *                added to the field of the super object, the visibility and
+  *                the compiled value of every field
+  */
+final class ObjLiteral[E](layout: Array[Int],
+                          binds: Array[E],
+                          asserts: Array[(Int, E, Option[E])],
+                          fields: Array[(Int, Either[String, E], Boolean, Visibility, E)]) {
+  // with fixed and distinct field names, all the objects of the literal share their keys
+  private[this] val shape = {
+    val names = fields.collect { case (_, Left(s), _, _, _) => s }
+    if (names.length == fields.length && names.distinct.length == names.length) new ObjShape(names, fields.map(_._4))
+    else null
+  }
+
+  def make(scope: ValScope, exprs: CompiledExprs[E])(implicit fileScope: FileScope, evaluator: EvalScope): Val.Obj = {
+    var asserting: Boolean = false
+    def assertions(self: Val.Obj): Unit = if (!asserting) {
+      asserting = true
+      if (asserts.nonEmpty) {
+        val newScope = makeNewScope(Some(self), self.getSuper)
+        asserts.foreach { case (assertOffset, value, msg) =>
+          if (exprs.eval(value, newScope) != Val.True) {
+            msg match {
+              case None => Error.fail("Assertion failed", assertOffset)
+              case Some(msg) =>
+                Error.fail("Assertion failed: " + exprs.eval(msg, newScope).cast[Val.Str].value, assertOffset)
+            }
+          }
+        }
+      }
+    }
+
+    def makeNewScope(self: Option[Val.Obj], sup: Option[Val.Obj]): ValScope = {
+      val dollar = scope.dollar0.orElse(self)
+      if (binds.isEmpty) new ValScope(dollar, self, sup, scope.frame, scope.layout, scope.parent)
+      else {
+        val frame = new Array[Val.Lazy](binds.length)
+        val newScope = new ValScope(dollar, self, sup, frame, layout, scope)
+        var i = 0
+        while (i < binds.length) {
+          frame(i) = exprs.lazily(binds(i), newScope)
+          i += 1
+        }
+        newScope
+      }
+    }
+
+    def member(plus: Boolean, sep: Visibility, value: E) =
+      Val.Obj.Member(plus, sep, (self: Val.Obj, sup: Option[Val.Obj], _, _) => {
+        assertions(self)
+        exprs.eval(value, makeNewScope(Some(self), sup))
+      })
+
+    if (shape != null) {
+      val members = new Array[Val.Obj.Member](fields.length)
+      var i = 0
+      while (i < fields.length) {
+        val (_, _, plus, sep, value) = fields(i)
+        members(i) = member(plus, sep, value)
+        i += 1
+      }
+      return new Val.Obj(shape.members(members), self => assertions(self), None)
+    }
+
+    val builder = mutable.LinkedHashMap.newBuilder[String, Val.Obj.Member]
+    fields.foreach { case (fieldOffset, name, plus, sep, value) =>
+      val key = name match {
+        case Left(s) => s
+        case Right(k) => exprs.eval(k, scope) match {
+          case Val.Str(k1) => k1
+          case Val.Null => null
+          case x => Error.fail(s"Field name must be string or null, not ${x.prettyName}", fieldOffset)
+        }
+      }
+      if (key != null) builder += (key -> member(plus, sep, value))
+    }
+
+    new Val.Obj(builder.result(), self => assertions(self), None)
+  }
+}
+
+/**
+  * An array comprehension whose parts are compiled to `E`, built the same
+  * way by both compiled backends. Every `for` spec adds a frame with its
+  * variable, for the specs that follow it and for the value.
+  *
+  * @param specs the layout of the frame of every `for` spec, or null for an
+  *              `if` spec, its offset and its compiled expression
+  */
+final class CompLiteral[E](value: E, specs: Array[(Array[Int], Int, E)]) {
+
+  def make(scope: ValScope, exprs: CompiledExprs[E])(implicit fileScope: FileScope, evaluator: EvalScope): Val.Arr =
+    Val.Arr(scopes(0, Seq(scope), exprs).map(exprs.lazily(value, _)))
+
+  private def scopes(i: Int, outer: Seq[ValScope], exprs: CompiledExprs[E])(implicit fileScope: FileScope, evaluator: EvalScope): Seq[ValScope] =
+    if (i == specs.length) outer else {
+      val (layout, offset, expr) = specs(i)
+      if (layout != null) scopes(i + 1, for {
+        s <- outer
+        e <- exprs.eval(expr, s) match {
+          case Val.Arr(value) => value
+          case r => Error.fail("In comprehension, can only iterate over array, not " + r.prettyName, offset)
+        }
+      } yield new ValScope(s.dollar0, s.self0, s.super0, Array(e), layout, s), exprs)
+      else scopes(i + 1, outer.filter(exprs.eval(expr, _) match {
+        case Val.True => true
+        case Val.False => false
+        case other => Error.fail("Condition must be boolean, got " + other.prettyName, offset)
+      }), exprs)
+    }
+}
@@ -0,0 +1,160 @@
+package com.datasonnet.jsonnet
+
+/*-
+ * Copyright 2019-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import com.datasonnet.jsonnet.CompiledScript.FunctionSpec
+import com.datasonnet.jsonnet.Expr.{BinaryOp, Params, UnaryOp}
+
+import scala.collection.immutable.ArraySeq
+
+/**
+  * The superclass of the classes generated by the [[BytecodeCompiler]], one
+  * for every script.
+  *
+  * Every expression of the script that is evaluated on its own, such as the
+  * value of a field, an argument or a function body, is compiled to a method
+  * of the generated class, which [[call]] dispatches to by its number. The
+  * methods evaluate constants, variables, conditions and arithmetic inline,
+  * and call the helpers below for everything else, which produce the same
+  * values and errors as the nodes of the [[ClosureCompiler]].
+  *
+  * The constants of the script, such as the library objects that the
+  * [[ExprOptimizer]] resolved, are passed to the constructor, so that the
+  * generated class itself holds on to none of them.
+  */
+abstract class CompiledScript(val evaluator: Evaluator, implicit val fileScope: FileScope) {
+  protected implicit def evalScope: EvalScope = evaluator
+
+  /**
+    * Evaluates the method with the given number.
+    */
+  def call(id: Int, scope: ValScope): Val
+
+  def eval(scope: ValScope): Val = call(0, scope)
+
+  protected final def lazily(id: Int, scope: ValScope): Val.Lazy = Val.Lazy(call(id, scope))
+
+  protected final def force(ref: Val.Lazy, index: Int, offset: Int): Val = {
+    if (ref == null) Error.fail("Unknown variable " + fileScope.indexNames(index), offset)
+    try ref.force catch Error.tryCatchWrap(offset)
+  }
+
+  // a variable bound outside this file, the scope has already skipped the frames of the file
+  protected final def lookup(scope: ValScope, index: Int, offset: Int): Val = force(scope.lookup(index), index, offset)
+
+  protected final def self(scope: ValScope, offset: Int): Val =
+    scope.self0.getOrElse(Error.fail("Cannot use `self` outside an object", offset))
+
+  protected final def dollar(scope: ValScope, offset: Int): Val =
+    scope.dollar0.getOrElse(Error.fail("Cannot use `$` outside an object", offset))
+
+  protected final def local(scope: ValScope, layout: Array[Int]): ValScope =
+    new ValScope(scope.dollar0, scope.self0, scope.super0, new Array[Val.Lazy](layout.length), layout, scope)
+
+  protected final def arr(items: Array[Val.Lazy]): Val = Val.Arr(ArraySeq.unsafeWrapArray(items))
+
+  protected final def unary(offset: Int, op: UnaryOp.Op, value: Val): Val =
+    try evaluator.unaryOp(op, value)
+    catch Error.tryCatch(offset)
+
+  protected final def binary(offset: Int, lhs: Val, op: BinaryOp.Op, rhs: Val): Val =
+    try evaluator.binaryOp(offset, lhs, op, rhs)
+    catch Error.tryCatch(offset)
+
+  protected final def notBoolean(offset: Int, op: String, value: Val): Val =
+    Error.fail(s"binary operator $op does not operate on ${value.prettyName}s.", offset)
+
+  protected final def notCondition(offset: Int, value: Val): Val =
+    Error.fail("Need boolean, found " + value.prettyName, offset)
+
+  protected final def select(offset: Int, value: Val, name: String, tryCatch: Boolean): Val =
+    try evaluator.select(offset, value, name, tryCatch)
+    catch Error.tryCatch(offset)
+
+  protected final def lookup(offset: Int, value: Val, index: Val): Val =
+    try evaluator.lookup(offset, value, index)
+    catch Error.tryCatch(offset)
+
+  protected final def error(offset: Int, value: Val): Val =
+    try evaluator.fail(offset, value)
+    catch Error.tryCatch(offset)
+
+  protected final def extend(offset: Int, base: Val, ext: Val): Val =
+    try ext.cast[Val.Obj].addSuper(base.cast[Val.Obj])
+    catch Error.tryCatch(offset)
+
+  protected final def apply1(offset: Int, target: Val, a: Val.Lazy): Val =
+    try target.cast[Val.Func].apply1(a, fileScope.currentFile.last, offset)
+    catch Error.tryCatchWrap(offset)
+
+  protected final def apply2(offset: Int, target: Val, a: Val.Lazy, b: Val.Lazy): Val =
+    try target.cast[Val.Func].apply2(a, b, fileScope.currentFile.last, offset)
+    catch Error.tryCatchWrap(offset)
+
+  protected final def apply3(offset: Int, target: Val, a: Val.Lazy, b: Val.Lazy, c: Val.Lazy): Val =
+    try target.cast[Val.Func].apply3(a, b, c, fileScope.currentFile.last, offset)
+    catch Error.tryCatchWrap(offset)
+
+  protected final def applyPositional(offset: Int, target: Val, args: Array[Val.Lazy]): Val =
+    try target.cast[Val.Func].applyPositional(args, fileScope.currentFile.last, offset)
+    catch Error.tryCatchWrap(offset)
+
+  protected final def applyNamed(offset: Int, target: Val, names: Array[Option[String]], args: Array[Val.Lazy]): Val =
+    try target.cast[Val.Func].apply(ArraySeq.unsafeWrapArray(names.zip(args)), fileScope.currentFile.last, offset)
+    catch Error.tryCatchWrap(offset)
+
+  // an expression the compiler does not support
+  protected final def interpret(expr: Expr, tryCatch: Boolean, scope: ValScope): Val =
+    evaluator.visitExpr(expr, tryCatch)(scope, fileScope)
+
+  protected final def function(spec: FunctionSpec, scope: ValScope): Val = Val.Func(
+    Some(scope -> fileScope),
+    spec.params,
+    (s, _, _, _, _) => call(spec.body, s),
+    (default, s, _) => call(spec.default(default), s)
+  )
+
+  protected final def obj(offset: Int, literal: ObjLiteral[Int], scope: ValScope): Val =
+    try literal.make(scope, Methods)
+    catch Error.tryCatch(offset)
+
+  protected final def comp(offset: Int, literal: CompLiteral[Int], scope: ValScope): Val =
+    try literal.make(scope, Methods)
+    catch Error.tryCatch(offset)
+
+  // evaluates the parts of object literals and comprehensions, see ObjLiteral and CompLiteral
+  private object Methods extends CompiledExprs[Int] {
+    def eval(id: Int, scope: ValScope): Val = call(id, scope)
+
+    def lazily(id: Int, scope: ValScope): Val.Lazy = CompiledScript.this.lazily(id, scope)
+  }
+}
+
+object CompiledScript {
+
+  /**
+    * A function literal: the method of its body and, for every parameter
+    * with a default value, the method of that value, in the order of
+    * [[Params.defaultPositions]].
+    */
+  final class FunctionSpec(val params: Params, val body: Int, defaults: Array[Int]) {
+    def default(expr: Expr): Int = {
+      var i = 0
+      while (params.defaultPositions(i)._2 ne expr) i += 1
+      defaults(i)
+    }
+  }
+}
@@ -16,12 +16,13 @@ package com.datasonnet.jsonnet
  * limitations under the License.
  */
 import Expr.{Error => _, _}
-import com.datasonnet.debugger.DataSonnetDebugger
 import fastparse.{IndexedParserInput, Parsed}
 import com.datasonnet.jsonnet.Expr.Member.Visibility
 import ujson.Value
 
+import java.util.concurrent.ConcurrentHashMap
 import scala.collection.mutable
+import scala.jdk.CollectionConverters.ConcurrentMapHasAsScala
 
 /**
   * Recursively walks the [[Expr]] trees to convert them into into [[Val]]
@@ -31,32 +32,48 @@ import scala.collection.mutable
   * in the syntax tree are reached, and caches the evaluated result of each
   * imported module to be re-used. Parsing is cached separatedly by an external
   * `parseCache`.
+  *
+  * The caches kept by the evaluator are concurrent, so a single instance can
+  * evaluate expressions from several threads at once.
+  *
+  * The `instrumentation`, if any, is called around every visited expression;
+  * see [[Instrumentation]].
   */
 class Evaluator(parseCacheP: collection.mutable.Map[String, fastparse.Parsed[(Expr, Map[String, Int])]],
                 val extVars: Map[String, ujson.Value],
                 val wd: Path,
                 importer: (Path, String) => Option[(Path, String)],
                 override val preserveOrder: Boolean = false,
-                override val defaultValue: Value = null) extends EvalScope{
+                override val defaultValue: Value = null,
+                val instrumentation: Option[Instrumentation] = None) extends EvalScope{
   implicit def evalScope: EvalScope = this
 
   val parseCache = parseCacheP
 
-  val loadedFileContents = mutable.Map.empty[Path, String]
+  val loadedFileContents: mutable.Map[Path, String] = new ConcurrentHashMap[Path, String]().asScala
   def loadCachedSource(p: Path) = loadedFileContents.get(p)
   def materialize(v: Val): Value = Materializer.apply(v)
-  val cachedImports = collection.mutable.Map.empty[Path, Val]
+  val cachedImports: mutable.Map[Path, Val] = new ConcurrentHashMap[Path, Val]().asScala
 
-  val cachedImportedStrings = collection.mutable.Map.empty[Path, String]
+  val cachedImportedStrings: mutable.Map[Path, String] = new ConcurrentHashMap[Path, String]().asScala
   override def visitExpr(expr: Expr)(implicit scope: ValScope, fileScope: FileScope): Val = visitExpr(expr, false)
+  private[this] val hooks = instrumentation.orNull
+
   def visitExpr(expr: Expr, tryCatch: Boolean = false)
                (implicit scope: ValScope, fileScope: FileScope): Val = {
-
-    if (DataSonnetDebugger.getDebugger.isAttached) {
-      DataSonnetDebugger.getDebugger.probeExpr(expr, scope, fileScope, evalScope)
+    if (hooks == null) evaluate(expr, tryCatch)
+    else {
+      hooks.beforeExpr(expr, scope, fileScope, evalScope)
+      val evaluatedVal = evaluate(expr, tryCatch)
+      hooks.afterExpr(expr, evaluatedVal)
+      evaluatedVal
     }
+  }
 
-    val evaluatedVal = try expr match {
+  private def evaluate(expr: Expr, tryCatch: Boolean)
+                      (implicit scope: ValScope, fileScope: FileScope): Val = {
+    try expr match {
+      case Const(offset, value) => value
       case Null(offset) => Val.Null
       case Parened(offset, inner) => visitExpr(inner)
       case True(offset) => Val.True
@@ -113,10 +130,6 @@ class Evaluator(parseCacheP: collection.mutable.Map[String, fastparse.Parsed[(Ex
         extension.addSuper(original)
       }
     } catch Error.tryCatch(expr.offset)
-    //Remember the source position of the expression
-    val diffOffset = if (DataSonnetDebugger.getDebugger.getDiffOffset != - 1) DataSonnetDebugger.getDebugger.getDiffOffset + 1 else 0
-    evaluatedVal.setSourcePosition(expr.offset - diffOffset)
-    evaluatedVal
   }
 
   def visitId(offset: Int, value: Int)(implicit scope: ValScope, fileScope: FileScope): Val = {
@@ -161,8 +174,12 @@ class Evaluator(parseCacheP: collection.mutable.Map[String, fastparse.Parsed[(Ex
 
   def visitError(offset: Int, value: Expr)
                 (implicit scope: ValScope, fileScope: FileScope): Nothing = {
+    fail(offset, visitExpr(value))
+  }
+
+  def fail(offset: Int, value: Val)(implicit fileScope: FileScope): Nothing = {
     Error.fail(
-      visitExpr(value) match {
+      value match {
         case Val.Str(s) => s
         case r =>
           try Materializer.stringify(r)
@@ -174,7 +191,11 @@ class Evaluator(parseCacheP: collection.mutable.Map[String, fastparse.Parsed[(Ex
 
   def visitUnaryOp(op: UnaryOp.Op, value: Expr)
                   (implicit scope: ValScope, fileScope: FileScope): Val = {
-    (op, visitExpr(value)) match {
+    unaryOp(op, visitExpr(value))
+  }
+
+  def unaryOp(op: UnaryOp.Op, value: Val): Val = {
+    (op, value) match {
       case (Expr.UnaryOp.`-`, Val.Num(v)) => Val.Num(-v)
       case (Expr.UnaryOp.`+`, Val.Num(v)) => Val.Num(v)
       case (Expr.UnaryOp.`~`, Val.Num(v)) => Val.Num(~v.toLong)
@@ -238,7 +259,11 @@ class Evaluator(parseCacheP: collection.mutable.Map[String, fastparse.Parsed[(Ex
     if (value.isInstanceOf[Super]) {
       val key = visitExpr(index).cast[Val.Str]
       scope.super0.getOrElse(scope.self0.getOrElse(Error.fail("Cannot use `super` outside an object", offset))).value(key.value, offset)
-    } else (visitExpr(value), visitExpr(index)) match {
+    } else lookup(offset, visitExpr(value), visitExpr(index))
+  }
+
+  def lookup(offset: Int, value: Val, index: Val)(implicit fileScope: FileScope): Val = {
+    (value, index) match {
       case (v: Val.Arr, i: Val.Num) =>
         if (i.value > v.value.length) Error.fail(s"array bounds error: ${i.value} not within [0, ${v.value.length})", offset)
         val int = i.value.toInt
@@ -261,7 +286,11 @@ class Evaluator(parseCacheP: collection.mutable.Map[String, fastparse.Parsed[(Ex
       scope.super0
         .getOrElse(Error.fail("Cannot use `super` outside an object", offset))
         .value(name, offset, scope.self0.get, defaultValue)
-    } else visitExpr(value) match {
+    } else select(offset, visitExpr(value), name, tryCatch)
+  }
+
+  def select(offset: Int, value: Val, name: String, tryCatch: Boolean)(implicit fileScope: FileScope): Val = {
+    value match {
       case obj: Val.Obj => obj.value(name, offset, obj, if (tryCatch) null else defaultValue)
       case r => if (defaultValue != null && !tryCatch) Materializer.reverse(defaultValue) else Error.fail(s"attempted to index a ${r.prettyName} with string ${name}", offset)
     }
@@ -291,7 +320,8 @@ class Evaluator(parseCacheP: collection.mutable.Map[String, fastparse.Parsed[(Ex
             )
         }
         val newFileScope = new FileScope(p, nameIndices)
-        try visitExpr(doc)(Std.scope(nameIndices.size), newFileScope)
+        val optimized = ExprOptimizer.optimize(doc, Map(0 -> Std.Std))(this, newFileScope)
+        try ClosureCompiler.evaluate(optimized, this)(Std.scope(nameIndices.size), newFileScope)
         catch Error.tryCatchWrap(offset)
       }
     )
@@ -345,57 +375,81 @@ class Evaluator(parseCacheP: collection.mutable.Map[String, fastparse.Parsed[(Ex
           case _ => visitExpr(rhs)
 
         }
-      case _ =>
-        (visitExpr(lhs), op, visitExpr(rhs)) match {
-          case (Val.Num(l), Expr.BinaryOp.`*`, Val.Num(r)) => Val.Num(l * r)
-          case (Val.Num(l), Expr.BinaryOp.`/`, Val.Num(r)) =>
-            if (r == 0) Error.fail("division by zero", offset)
-            Val.Num(l / r)
-          case (Val.Num(l), Expr.BinaryOp.`%`, Val.Num(r)) => Val.Num(l % r)
-          case (Val.Num(l), Expr.BinaryOp.`+`, Val.Num(r)) => Val.Num(l + r)
-          case (Val.Str(l), Expr.BinaryOp.`%`, r) =>
-            try Val.Str(Format.format(l, r, offset))
-            catch Error.tryCatchWrap(offset)
-
-          case (Val.Str(l), Expr.BinaryOp.`+`, Val.Str(r)) => Val.Str(l + r)
-          case (Val.Str(l), Expr.BinaryOp.`<`, Val.Str(r)) => Val.bool(l < r)
-          case (Val.Str(l), Expr.BinaryOp.`>`, Val.Str(r)) => Val.bool(l > r)
-          case (Val.Str(l), Expr.BinaryOp.`<=`, Val.Str(r)) => Val.bool(l <= r)
-          case (Val.Str(l), Expr.BinaryOp.`>=`, Val.Str(r)) => Val.bool(l >= r)
-          case (Val.Str(l), Expr.BinaryOp.`+`, r) =>
-            try Val.Str(l + Materializer.stringify(r))
-            catch Error.tryCatchWrap(offset)
-          case (l, Expr.BinaryOp.`+`, Val.Str(r)) =>
-            try Val.Str(Materializer.stringify(l) + r)
-            catch Error.tryCatchWrap(offset)
-          case (Val.Num(l), Expr.BinaryOp.`-`, Val.Num(r)) => Val.Num(l - r)
-          case (Val.Num(l), Expr.BinaryOp.`<<`, Val.Num(r)) => Val.Num(l.toLong << r.toLong)
-          case (Val.Num(l), Expr.BinaryOp.`>>`, Val.Num(r)) => Val.Num(l.toLong >> r.toLong)
-          case (Val.Num(l), Expr.BinaryOp.`<`, Val.Num(r)) => Val.bool(l < r)
-          case (Val.Num(l), Expr.BinaryOp.`>`, Val.Num(r)) => Val.bool(l > r)
-          case (Val.Num(l), Expr.BinaryOp.`<=`, Val.Num(r)) => Val.bool(l <= r)
-          case (Val.Num(l), Expr.BinaryOp.`>=`, Val.Num(r)) => Val.bool(l >= r)
-          case (l, Expr.BinaryOp.`==`, r) =>
-            if (l.isInstanceOf[Val.Func] && r.isInstanceOf[Val.Func]) {
-              Error.fail("cannot test equality of functions", offset)
-            }
-            try Val.bool(Materializer(l) == Materializer(r))
-            catch Error.tryCatchWrap(offset)
-          case (l, Expr.BinaryOp.`!=`, r) =>
-            if (l.isInstanceOf[Val.Func] && r.isInstanceOf[Val.Func]) {
-              Error.fail("cannot test equality of functions", offset)
-            }
-            try Val.bool(Materializer(l) != Materializer(r))
-            catch Error.tryCatchWrap(offset)
-          case (Val.Str(l), Expr.BinaryOp.`in`, o: Val.Obj) => Val.bool(o.containsKey(l))
-          case (Val.Num(l), Expr.BinaryOp.`&`, Val.Num(r)) => Val.Num(l.toLong & r.toLong)
-          case (Val.Num(l), Expr.BinaryOp.`^`, Val.Num(r)) => Val.Num(l.toLong ^ r.toLong)
-          case (Val.Num(l), Expr.BinaryOp.`|`, Val.Num(r)) => Val.Num(l.toLong | r.toLong)
-          case (l: Val.Obj, Expr.BinaryOp.`+`, r: Val.Obj) => r.addSuper(l)
-          case (Val.Arr(l), Expr.BinaryOp.`+`, Val.Arr(r)) => Val.Arr(l ++ r)
-          case (l, op, r) =>
-            Error.fail(s"Unknown binary operation: ${l.prettyName} $op ${r.prettyName}", offset)
+      case _ => binaryOp(offset, visitExpr(lhs), op, visitExpr(rhs))
+    }
+  }
+
+  /**
+    * Applies the operators that evaluate both of their operands.
+    */
+  def binaryOp(offset: Int, lhs: Val, op: BinaryOp.Op, rhs: Val)(implicit fileScope: FileScope): Val = lhs match {
+    case l: Val.Num => rhs match {
+      case r: Val.Num => numericOp(offset, l.value, op, r.value)
+      case _ => anyOp(offset, lhs, op, rhs)
+    }
+    case _ => anyOp(offset, lhs, op, rhs)
+  }
+
+  /**
+    * Applies an operator to two numbers, without boxing the operands.
+    */
+  def numericOp(offset: Int, l: Double, op: BinaryOp.Op, r: Double)(implicit fileScope: FileScope): Val = op match {
+    case Expr.BinaryOp.`+` => Val.Num(l + r)
+    case Expr.BinaryOp.`-` => Val.Num(l - r)
+    case Expr.BinaryOp.`*` => Val.Num(l * r)
+    case Expr.BinaryOp.`/` =>
+      if (r == 0) Error.fail("division by zero", offset)
+      Val.Num(l / r)
+    case Expr.BinaryOp.`%` => Val.Num(l % r)
+    case Expr.BinaryOp.`<` => Val.bool(l < r)
+    case Expr.BinaryOp.`>` => Val.bool(l > r)
+    case Expr.BinaryOp.`<=` => Val.bool(l <= r)
+    case Expr.BinaryOp.`>=` => Val.bool(l >= r)
+    case Expr.BinaryOp.`==` => Val.bool(l == r)
+    case Expr.BinaryOp.`!=` => Val.bool(l != r)
+    case _ => anyOp(offset, Val.Num(l), op, Val.Num(r))
+  }
+
+  // numbers only get here with a bitwise operator, or paired with another type; numericOp handles the rest
+  private def anyOp(offset: Int, lhs: Val, op: BinaryOp.Op, rhs: Val)(implicit fileScope: FileScope): Val = {
+    (lhs, op, rhs) match {
+      case (l: Val.Str, Expr.BinaryOp.`%`, r) =>
+        try Val.Str(Format.format(l.value, r, offset))
+        catch Error.tryCatchWrap(offset)
+
+      case (l: Val.Str, Expr.BinaryOp.`+`, r: Val.Str) => Val.Str.concat(l, r)
+      case (l: Val.Str, Expr.BinaryOp.`<`, r: Val.Str) => Val.bool(l.value < r.value)
+      case (l: Val.Str, Expr.BinaryOp.`>`, r: Val.Str) => Val.bool(l.value > r.value)
+      case (l: Val.Str, Expr.BinaryOp.`<=`, r: Val.Str) => Val.bool(l.value <= r.value)
+      case (l: Val.Str, Expr.BinaryOp.`>=`, r: Val.Str) => Val.bool(l.value >= r.value)
+      case (l: Val.Str, Expr.BinaryOp.`+`, r) =>
+        try Val.Str.concat(l, Val.Str(Materializer.stringify(r)))
+        catch Error.tryCatchWrap(offset)
+      case (l, Expr.BinaryOp.`+`, r: Val.Str) =>
+        try Val.Str.concat(Val.Str(Materializer.stringify(l)), r)
+        catch Error.tryCatchWrap(offset)
+      case (Val.Num(l), Expr.BinaryOp.`<<`, Val.Num(r)) => Val.Num(l.toLong << r.toLong)
+      case (Val.Num(l), Expr.BinaryOp.`>>`, Val.Num(r)) => Val.Num(l.toLong >> r.toLong)
+      case (l, Expr.BinaryOp.`==`, r) =>
+        if (l.isInstanceOf[Val.Func] && r.isInstanceOf[Val.Func]) {
+          Error.fail("cannot test equality of functions", offset)
         }
+        try Val.bool(Materializer(l) == Materializer(r))
+        catch Error.tryCatchWrap(offset)
+      case (l, Expr.BinaryOp.`!=`, r) =>
+        if (l.isInstanceOf[Val.Func] && r.isInstanceOf[Val.Func]) {
+          Error.fail("cannot test equality of functions", offset)
+        }
+        try Val.bool(Materializer(l) != Materializer(r))
+        catch Error.tryCatchWrap(offset)
+      case (l: Val.Str, Expr.BinaryOp.`in`, o: Val.Obj) => Val.bool(o.containsKey(l.value))
+      case (Val.Num(l), Expr.BinaryOp.`&`, Val.Num(r)) => Val.Num(l.toLong & r.toLong)
+      case (Val.Num(l), Expr.BinaryOp.`^`, Val.Num(r)) => Val.Num(l.toLong ^ r.toLong)
+      case (Val.Num(l), Expr.BinaryOp.`|`, Val.Num(r)) => Val.Num(l.toLong | r.toLong)
+      case (l: Val.Obj, Expr.BinaryOp.`+`, r: Val.Obj) => r.addSuper(l)
+      case (Val.Arr(l), Expr.BinaryOp.`+`, Val.Arr(r)) => Val.Arr(l ++ r)
+      case (l, op, r) =>
+        Error.fail(s"Unknown binary operation: ${l.prettyName} $op ${r.prettyName}", offset)
     }
   }
 
@@ -39,6 +39,8 @@ object Expr{
   case class Num(offset: Int, value: Double) extends Expr
   case class Id(offset: Int, value: Int) extends Expr
   case class Arr(offset: Int, value: Seq[Expr]) extends Expr
+  /** A value computed ahead of evaluation by the [[ExprOptimizer]]. */
+  case class Const(offset: Int, value: Val) extends Expr
   case class Obj(offset: Int, value: ObjBody) extends Expr
 
   sealed trait FieldName
@@ -74,6 +76,12 @@ object Expr{
     val noDefaultIndices: BitSet = mutable.BitSet.empty ++ args.collect{case (_, None, i) => i}
     val defaults: IndexedSeq[(Int, Expr)] = args.collect{case (_, Some(x), i) => (i, x)}
     val allIndices: Set[Int] = args.map{case (_, _, i) => i}.toSet
+    // a call binds every parameter at its position in the frame, see ValScope
+    val layout: Array[Int] = args.map{case (_, _, i) => i}.toArray
+    val argPositions: Map[String, Int] = args.zipWithIndex.map{case ((k, _, _), p) => (k, p)}.toMap
+    val defaultPositions: IndexedSeq[(Int, Expr)] = args.zipWithIndex.collect{case ((_, Some(x), _), p) => (p, x)}
+    // a positional call binds the parameters in order, so it must pass at least every one up to the last without a default
+    val minPositional: Int = args.lastIndexWhere(_._2.isEmpty) + 1
   }
   case class Args(args: Seq[(Option[String], Expr)])
 
@@ -0,0 +1,243 @@
+package com.datasonnet.jsonnet
+
+/*-
+ * Copyright 2019-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import Expr.{Error => _, _}
+
+import scala.collection.mutable
+
+/**
+  * Simplifies a parsed [[Expr]] tree once, so that evaluating it any number of
+  * times afterwards does less work:
+  *
+  *  - literals become [[Expr.Const]] nodes holding a pre-built [[Val]], and
+  *    `Parened` wrappers around constants are dropped;
+  *  - unary and binary operations on constants, and conditionals with a
+  *    constant condition, are evaluated;
+  *  - array and object literals with constant contents become constant values;
+  *  - references to the roots of the scope, such as `std` or `ds`, and the
+  *    functions and modules selected from them are resolved, unless a local
+  *    binding with the same name shadows the root;
+  *  - constant arguments to resolved functions are passed to their
+  *    [[Val.Func.prepareArg]], which may replace the function at that call
+  *    site, for example with one holding the compiled regular expression.
+  *
+  * Anything that fails to evaluate is left as written, so that errors are
+  * still reported when and where the expression is evaluated.
+  *
+  * @param roots the values bound in the outermost scope, by binding index
+  */
+class ExprOptimizer(roots: Map[Int, Val])(implicit evaluator: EvalScope, fileScope: FileScope) {
+
+  private val constantScope = Std.scope(1)
+
+  def optimize(expr: Expr): Expr = visit(expr, roots)
+
+  private def visit(expr: Expr, known: Map[Int, Val]): Expr = expr match {
+    case Null(offset) => Const(offset, Val.Null)
+    case True(offset) => Const(offset, Val.True)
+    case False(offset) => Const(offset, Val.False)
+    case Str(offset, value) => Const(offset, Val.Str(value))
+    case Num(offset, value) => Const(offset, Val.Num(value))
+    // parentheses stop a `default` from reaching the select inside them, so they stay unless they hold a constant
+    case Parened(offset, value) => visit(value, known) match {
+      case constant: Const => constant
+      case optimized => Parened(offset, optimized)
+    }
+
+    case Id(offset, index) => known.get(index) match {
+      case Some(value) => Const(offset, value)
+      case None => expr
+    }
+
+    case Arr(offset, value) =>
+      val items = value.map(visit(_, known))
+      if (items.forall(_.isInstanceOf[Const])) Const(offset, Val.Arr(items.map(item => Val.Lazy.strict(item.asInstanceOf[Const].value))))
+      else Arr(offset, items)
+
+    case Obj(offset, body) => visitBody(body, known) match {
+      case ObjBody.MemberList(members) if members.forall(isConstantField) => Const(offset, constantObject(members))
+      case optimized => Obj(offset, optimized)
+    }
+
+    case UnaryOp(offset, op, value) => fold(UnaryOp(offset, op, visit(value, known)))
+    case BinaryOp(offset, lhs, op, rhs) => fold(BinaryOp(offset, visit(lhs, known), op, visit(rhs, known)))
+
+    case IfElse(offset, cond, then, else0) => visit(cond, known) match {
+      case Const(_, Val.True) => visit(then, known)
+      case Const(_, Val.False) => else0.fold[Expr](Const(offset, Val.Null))(visit(_, known))
+      case optimized => IfElse(offset, optimized, visit(then, known), else0.map(visit(_, known)))
+    }
+
+    case Select(offset, value, name) => visit(value, known) match {
+      case target@Const(_, obj: Val.Obj) =>
+        try obj.value(name, offset) match {
+          case selected@(_: Val.Func | _: Val.Obj) => Const(offset, selected)
+          case _ => Select(offset, target, name)
+        } catch {
+          case _: Exception => Select(offset, target, name)
+        }
+      case optimized => Select(offset, optimized, name)
+    }
+
+    case Lookup(offset, value, index) => Lookup(offset, visit(value, known), visit(index, known))
+    case Slice(offset, value, start, end, stride) =>
+      Slice(offset, visit(value, known), start.map(visit(_, known)), end.map(visit(_, known)), stride.map(visit(_, known)))
+    case Apply(offset, value, Args(args)) =>
+      prepareArgs(Apply(offset, visit(value, known), Args(args.map { case (name, arg) => (name, visit(arg, known)) })))
+
+    case Function(offset, params, body) =>
+      val inner = known -- params.allIndices
+      Function(offset, visitParams(params, inner), visit(body, inner))
+
+    case LocalExpr(offset, bindings, returned) =>
+      val inner = known -- bindings.map(_.name)
+      LocalExpr(offset, bindings.map(visitBind(_, inner)), visit(returned, inner))
+
+    case AssertExpr(offset, Member.AssertStmt(value, msg), returned) =>
+      AssertExpr(offset, Member.AssertStmt(visit(value, known), msg.map(visit(_, known))), visit(returned, known))
+    case Expr.Error(offset, value) => Expr.Error(offset, visit(value, known))
+    case TryElse(offset, try0, else0) => TryElse(offset, visit(try0, known), visit(else0, known))
+
+    case Comp(offset, value, first, rest) =>
+      val (specs, inner) = visitSpecs(first +: rest, known)
+      Comp(offset, visit(value, inner), specs.head.asInstanceOf[ForSpec], specs.tail)
+
+    case ObjExtend(offset, base, ext) => ObjExtend(offset, visit(base, known), visitBody(ext, known))
+
+    case _ => expr
+  }
+
+  private def visitParams(params: Params, known: Map[Int, Val]): Params =
+    Params(params.args.map { case (name, default, index) => (name, default.map(visit(_, known)), index) })
+
+  private def visitBind(bind: Bind, known: Map[Int, Val]): Bind = bind.args match {
+    case None => bind.copy(rhs = visit(bind.rhs, known))
+    case Some(params) =>
+      val inner = known -- params.allIndices
+      bind.copy(args = Some(visitParams(params, inner)), rhs = visit(bind.rhs, inner))
+  }
+
+  // every `for` binds its variable for the specs that follow it and for the body
+  private def visitSpecs(specs: Seq[CompSpec], known: Map[Int, Val]): (Seq[CompSpec], Map[Int, Val]) = {
+    var inner = known
+    val optimized = specs.map {
+      case ForSpec(offset, name, cond) =>
+        val spec = ForSpec(offset, name, visit(cond, inner))
+        inner = inner - name
+        spec
+      case IfSpec(offset, cond) => IfSpec(offset, visit(cond, inner))
+    }
+    (optimized, inner)
+  }
+
+  private def visitBody(body: ObjBody, known: Map[Int, Val]): ObjBody = body match {
+    case ObjBody.MemberList(members) =>
+      // field names are evaluated outside of the object, everything else sees its locals
+      val inner = known -- members.collect { case Member.BindStmt(b) => b.name }
+      ObjBody.MemberList(members.map {
+        case Member.Field(offset, fieldName, plus, args, sep, rhs) =>
+          val name = fieldName match {
+            case FieldName.Dyn(expr) => FieldName.Dyn(visit(expr, known))
+            case fixed => fixed
+          }
+          args match {
+            case None => Member.Field(offset, name, plus, None, sep, visit(rhs, inner))
+            case Some(params) =>
+              val fieldInner = inner -- params.allIndices
+              Member.Field(offset, name, plus, Some(visitParams(params, fieldInner)), sep, visit(rhs, fieldInner))
+          }
+        case Member.BindStmt(b) => Member.BindStmt(visitBind(b, inner))
+        case Member.AssertStmt(value, msg) => Member.AssertStmt(visit(value, inner), msg.map(visit(_, inner)))
+      })
+
+    case ObjBody.ObjComp(preLocals, key, value, postLocals, first, rest) =>
+      val (specs, forInner) = visitSpecs(first +: rest, known)
+      val inner = forInner -- (preLocals ++ postLocals).map(_.value.name)
+      ObjBody.ObjComp(
+        preLocals.map(b => Member.BindStmt(visitBind(b.value, inner))),
+        visit(key, forInner),
+        visit(value, inner),
+        postLocals.map(b => Member.BindStmt(visitBind(b.value, inner))),
+        specs.head.asInstanceOf[ForSpec],
+        specs.tail
+      )
+  }
+
+  private def isConstantField(member: Member): Boolean = member match {
+    case Member.Field(_, FieldName.Fixed(_), false, None, _, Const(_, _)) => true
+    case _ => false
+  }
+
+  // the members are not cached: their values are already built, and a shared object must not collect cache entries
+  private def constantObject(members: Seq[Member]): Val.Obj = {
+    val builder = mutable.LinkedHashMap.newBuilder[String, Val.Obj.Member]
+    members.foreach {
+      case Member.Field(_, FieldName.Fixed(name), _, _, sep, Const(_, value)) =>
+        builder += (name -> Val.Obj.Member(false, sep, (_, _, _, _) => value, cached = false))
+      case _ =>
+    }
+    new Val.Obj(builder.result(), _ => (), None)
+  }
+
+  // a constant argument to a resolved builtin, such as the expression of ds.match, is prepared once here,
+  // and the call site keeps the function that the builtin prepared for it
+  private def prepareArgs(apply: Apply): Apply = apply match {
+    case Apply(offset, Const(funcOffset, f: Val.Func), Args(args)) if f.prepareArg != null =>
+      val prepared = args.zipWithIndex.foldLeft(f) {
+        case (func, ((name, Const(_, value)), position)) if func.prepareArg != null =>
+          val index = name.fold(position)(n => func.params.args.indexWhere(_._1 == n))
+          // a bad argument is reported when the call is evaluated
+          val replaced = if (index < 0) null else try func.prepareArg(index, value) catch {
+            case _: Exception => null
+          }
+          if (replaced == null) func else replaced
+        case (func, _) => func
+      }
+      if (prepared eq f) apply else Apply(offset, Const(funcOffset, prepared), Args(args))
+    case _ => apply
+  }
+
+  private def isPrimitive(expr: Expr): Boolean = expr match {
+    case Const(_, Val.Null | Val.True | Val.False | _: Val.Str | _: Val.Num) => true
+    case _ => false
+  }
+
+  // an operation on primitive constants always evaluates to the same value, unless it fails
+  private def fold(expr: Expr): Expr = {
+    val operands = expr match {
+      case UnaryOp(_, _, value) => Seq(value)
+      case BinaryOp(_, lhs, _, rhs) => Seq(lhs, rhs)
+      case _ => Seq.empty
+    }
+    if (operands.nonEmpty && operands.forall(isPrimitive)) {
+      try Const(expr.offset, evaluator.visitExpr(expr)(constantScope, fileScope))
+      catch {
+        case _: Exception => expr
+      }
+    } else expr
+  }
+}
+
+object ExprOptimizer {
+  /**
+    * Optimizes the expression, unless the evaluator is instrumented: its hooks need the tree as written, for example
+    * to stop the debugger on every expression.
+    */
+  def optimize(expr: Expr, roots: Map[Int, Val])(implicit evaluator: Evaluator, fileScope: FileScope): Expr =
+    if (evaluator.instrumentation.isDefined) expr
+    else new ExprOptimizer(roots).optimize(expr)
+}
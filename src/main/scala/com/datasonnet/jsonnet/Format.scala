@@ -98,7 +98,7 @@ object Format{
     val values = values0 match{
       case x: Val.Arr => x
       case x: Val.Obj => x
-      case x => Val.Arr(Seq(Val.Lazy(x)))
+      case x => Val.Arr(Seq(Val.Lazy.strict(x)))
     }
     val (leading, chunks) = fastparse.parse(s, format(_)).get.value
     val output = new StringBuilder
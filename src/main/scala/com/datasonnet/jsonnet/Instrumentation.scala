@@ -0,0 +1,61 @@
+package com.datasonnet.jsonnet
+
+/*-
+ * Copyright 2019-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import com.datasonnet.debugger.DataSonnetDebugger
+
+/**
+  * Hooks that an [[Evaluator]] calls around every expression it visits.
+  *
+  * The hooks are chosen when the evaluator is created. An evaluator without
+  * hooks makes no per-expression checks at all, and it also evaluates
+  * scripts with the [[ExprOptimizer]] and the [[ClosureCompiler]], since
+  * the hooks need the expressions as they were written.
+  */
+trait Instrumentation {
+  def beforeExpr(expr: Expr, scope: ValScope, fileScope: FileScope, evalScope: EvalScope): Unit
+
+  def afterExpr(expr: Expr, value: Val): Unit
+}
+
+object Instrumentation {
+
+  /**
+    * Lets the [[DataSonnetDebugger]] stop on the expressions while a
+    * debugging session is attached, and records the source position of every
+    * value for the variables view.
+    */
+  object Debugger extends Instrumentation {
+    def beforeExpr(expr: Expr, scope: ValScope, fileScope: FileScope, evalScope: EvalScope): Unit = {
+      val debugger = DataSonnetDebugger.getDebugger
+      if (debugger.isAttached) {
+        debugger.probeExpr(expr, scope, fileScope, evalScope)
+      }
+    }
+
+    def afterExpr(expr: Expr, value: Val): Unit = {
+      val diffOffset = DataSonnetDebugger.getDebugger.getDiffOffset
+      value.setSourcePosition(expr.offset - (if (diffOffset != -1) diffOffset + 1 else 0))
+    }
+  }
+
+  /**
+    * The debugger hooks when debugging was asked for, or when a debugging
+    * session is already attached; no hooks otherwise.
+    */
+  def apply(debuggable: Boolean): Option[Instrumentation] =
+    if (debuggable || DataSonnetDebugger.getDebugger.isAttached) Some(Debugger) else None
+}
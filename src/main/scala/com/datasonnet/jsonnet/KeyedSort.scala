@@ -0,0 +1,88 @@
+package com.datasonnet.jsonnet
+
+/*-
+ * Copyright 2019-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.util.{Arrays, Comparator}
+
+/**
+  * Sorting by keys that were computed up front, so that a key function runs
+  * once per element instead of twice per comparison. The keys must all be
+  * numbers, all strings or all booleans, and are compared as primitives.
+  * Elements with equal keys keep their order.
+  */
+object KeyedSort {
+
+  // below this size a parallel sort only adds overhead
+  val ParallelThreshold = 8192
+
+  private final class Key(val num: Double, val str: String, val index: Int)
+
+  private val ByNum: Comparator[Key] = (a: Key, b: Key) => java.lang.Double.compare(a.num, b.num)
+
+  private val ByStr: Comparator[Key] = (a: Key, b: Key) => a.str.compareTo(b.str)
+
+  /**
+    * Returns the positions of the keys in ascending order of the keys. The keys of fewer than two elements are not
+    * checked, as they are never compared.
+    *
+    * @param unsupported fails for a key that is neither a number, a string nor a boolean
+    */
+  def order(keys: Array[Val], unsupported: Val => Nothing): Array[Int] = {
+    // a single element is already in order, whatever its key
+    if (keys.length <= 1) return Array.range(0, keys.length)
+    val first = keys(0)
+    val strings = first match {
+      case _: Val.Num | _: Val.Bool => false
+      case _: Val.Str => true
+      case _ => unsupported(first)
+    }
+    val decorated = new Array[Key](keys.length)
+    var i = 0
+    while (i < keys.length) {
+      val key = keys(i)
+      if (key.prettyName != first.prettyName) key match {
+        case _: Val.Num | _: Val.Str | _: Val.Bool =>
+          throw Error.Delegate(s"Cannot sort by keys that are both ${first.prettyName}s and ${key.prettyName}s")
+        case _ => unsupported(key)
+      }
+      decorated(i) = key match {
+        case n: Val.Num => new Key(n.value, null, i)
+        case s: Val.Str => new Key(0, s.value, i)
+        case b => new Key(if (b == Val.True) 1 else 0, null, i)
+      }
+      i += 1
+    }
+
+    // both sorts are stable
+    val comparator = if (strings) ByStr else ByNum
+    if (decorated.length < ParallelThreshold) Arrays.sort(decorated, comparator)
+    else Arrays.parallelSort(decorated, comparator)
+
+    val positions = new Array[Int](decorated.length)
+    i = 0
+    while (i < decorated.length) {
+      positions(i) = decorated(i).index
+      i += 1
+    }
+    positions
+  }
+
+  /**
+    * The items in ascending order of their keys, see [[order]].
+    */
+  def sortBy[T](items: IndexedSeq[T], keys: Array[Val], unsupported: Val => Nothing): IndexedSeq[T] =
+    order(keys, unsupported).toIndexedSeq.map(items)
+}
@@ -20,6 +20,7 @@ import com.datasonnet.jsonnet.Expr.{FieldName, Member, ObjBody}
 import com.datasonnet.jsonnet.Expr.Member.Visibility
 import upickle.core.Visitor
 
+import java.util.concurrent.atomic.AtomicReferenceArray
 import scala.collection.mutable
 
 /**
@@ -42,12 +43,23 @@ object Materializer {
       case Val.Num(n) => visitor.visitFloat64(n, -1)
       case Val.Str(s) => visitor.visitString(s, -1)
       case Val.Arr(xs) =>
-        val arrVisitor = visitor.visitArray(xs.length, -1)
-        for(x <- xs) {
-          arrVisitor.visitValue(
-            apply0(x.force, visitor),
-            -1
-          )
+        // the size of streamed contents is unknown until they have been consumed
+        val arrVisitor = visitor.visitArray(if (xs.isInstanceOf[StreamedSeq[_]]) -1 else xs.length, -1)
+        val elementVisitor = arrVisitor.subVisitor.asInstanceOf[Visitor[T, T]]
+        xs match {
+          case packed: PackedSeq =>
+            var i = 0
+            while (i < packed.length) {
+              arrVisitor.visitValue(apply0(packed.value(i), elementVisitor), -1)
+              i += 1
+            }
+          case _ =>
+            for(x <- xs) {
+              arrVisitor.visitValue(
+                apply0(x.force, elementVisitor),
+                -1
+              )
+            }
         }
         arrVisitor.visitEnd(-1)
 
@@ -57,6 +69,7 @@ object Materializer {
         val keysUnsorted = obj.getVisibleKeys().toArray
         val keys = if (!evaluator.preserveOrder) keysUnsorted.sortBy(_._1) else keysUnsorted
         val objVisitor = visitor.visitObject(keys.length , -1)
+        val fieldVisitor = objVisitor.subVisitor.asInstanceOf[Visitor[T, T]]
 
         for(t <- keys) {
           val (k, hidden) = t
@@ -65,7 +78,7 @@ object Materializer {
             objVisitor.visitValue(
               apply0(
                 obj.value(k, -1)(evaluator.emptyMaterializeFileScope, implicitly),
-                visitor
+                fieldVisitor
               ),
               -1
             )
@@ -84,22 +97,79 @@ object Materializer {
     throw Error.Delegate("Stackoverflow while materializing, possibly due to recursive value")
   }
 
+  /**
+    * Wraps the given [[ujson.Value]] as a [[Val]]. Arrays and objects are views
+    * over the ujson tree: their elements and fields are only converted when
+    * they are accessed, so the cost depends on what the script reads rather
+    * than on the size of the document. The tree must not be modified afterwards.
+    */
   def reverse(v: ujson.Value): Val = v match{
     case ujson.True => Val.True
     case ujson.False => Val.False
     case ujson.Null => Val.Null
     case ujson.Num(n) => Val.Num(n)
     case ujson.Str(s) => Val.Str(s)
-    case ujson.Arr(xs) => Val.Arr(xs.map(x => Val.Lazy(reverse(x))).toArray[Val.Lazy])
-    case ujson.Obj(xs) =>
-      val builder = mutable.LinkedHashMap.newBuilder[String, Val.Obj.Member]
-      for(x <- xs){
-        val v = Val.Obj.Member(false, Visibility.Normal,
-          (_: Val.Obj, _: Option[Val.Obj], _, _) => reverse(x._2)
-        )
-        builder += (x._1 -> v)
+    case ujson.Arr(xs) => Val.Arr(new JsonArrayView(xs))
+    case ujson.Obj(xs) => new Val.Obj(new JsonObjectMembers(xs), _ => (), None)
+  }
+
+  /**
+    * The elements of a ujson array, converted on first access and remembered.
+    * The inputs of a batch are shared by its transformations, so the values
+    * are published safely; concurrent readers may both convert the same
+    * element, which is harmless since the conversion is deterministic.
+    */
+  private final class JsonArrayView(items: mutable.ArrayBuffer[ujson.Value]) extends IndexedSeq[Val.Lazy] {
+    private[this] val values = new AtomicReferenceArray[Val](items.length)
+
+    def length: Int = values.length()
+
+    def apply(i: Int): Val.Lazy = {
+      if (i < 0 || i >= values.length()) throw new IndexOutOfBoundsException(s"$i is out of bounds (min 0, max ${values.length() - 1})")
+      Val.Lazy.strict(value(i))
+    }
+
+    private def value(i: Int): Val = {
+      val cached = values.get(i)
+      if (cached != null) cached
+      else {
+        val converted = Materializer.reverse(items(i))
+        values.set(i, converted)
+        converted
       }
-      new Val.Obj(builder.result(), _ => (), None)
+    }
+  }
+
+  /**
+    * Read-only members of an object backed by a ujson object. Members are
+    * created when a field is looked up; the resulting values are cached by the
+    * owning [[Val.Obj]].
+    */
+  private final class JsonObjectMembers(fields: mutable.LinkedHashMap[String, ujson.Value])
+    extends mutable.AbstractMap[String, Val.Obj.Member] {
+
+    private def member(value: ujson.Value) = Val.Obj.Member(false, Visibility.Normal,
+      (_: Val.Obj, _: Option[Val.Obj], _, _) => reverse(value)
+    )
+
+    def get(key: String): Option[Val.Obj.Member] = fields.get(key) match {
+      case Some(value) => Some(member(value))
+      case None => None
+    }
+
+    override def contains(key: String): Boolean = fields.contains(key)
+
+    def iterator: Iterator[(String, Val.Obj.Member)] = fields.iterator.map(t => (t._1, member(t._2)))
+
+    override def size: Int = fields.size
+
+    override def knownSize: Int = fields.size
+
+    def addOne(elem: (String, Val.Obj.Member)): this.type =
+      throw new UnsupportedOperationException("Input objects are read-only")
+
+    def subtractOne(key: String): this.type =
+      throw new UnsupportedOperationException("Input objects are read-only")
   }
 
   def toExpr(v: ujson.Value): Expr = v match{
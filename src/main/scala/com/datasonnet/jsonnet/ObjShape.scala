@@ -0,0 +1,87 @@
+package com.datasonnet.jsonnet
+
+/*-
+ * Copyright 2019-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import com.datasonnet.jsonnet.Expr.Member.Visibility
+
+import scala.collection.mutable
+
+/**
+  * The keys of the objects built by one object literal with fixed field
+  * names, shared by all of them: every object only holds its members in a
+  * flat array, in the order of the keys, and [[Val.Obj]] caches its values
+  * by the same position. The visible keys of an object that extends nothing
+  * are the same for the whole shape and are computed once.
+  */
+final class ObjShape(val keys: Array[String], visibilities: Array[Visibility]) {
+  private[this] val slots = new java.util.HashMap[String, Integer](keys.length * 2)
+  keys.indices.foreach(i => slots.put(keys(i), i))
+
+  def size: Int = keys.length
+
+  /**
+    * The position of the key, or -1 when the shape does not have it.
+    */
+  def slot(k: String): Int = {
+    val i = slots.get(k)
+    if (i == null) -1 else i
+  }
+
+  val visibleKeys: collection.Map[String, Boolean] = {
+    val mapping = mutable.LinkedHashMap.empty[String, Boolean]
+    keys.indices.foreach(i => mapping(keys(i)) = visibilities(i) == Visibility.Hidden)
+    mapping
+  }
+
+  def members(values: Array[Val.Obj.Member]): ObjShape.Members = new ObjShape.Members(this, values)
+}
+
+object ObjShape {
+
+  /**
+    * The members of one object of a shape.
+    */
+  final class Members(val shape: ObjShape, values: Array[Val.Obj.Member])
+    extends mutable.AbstractMap[String, Val.Obj.Member] {
+
+    def get(key: String): Option[Val.Obj.Member] = {
+      val i = shape.slot(key)
+      if (i < 0) None else Some(values(i))
+    }
+
+    override def contains(key: String): Boolean = shape.slot(key) >= 0
+
+    def iterator: Iterator[(String, Val.Obj.Member)] = shape.keys.indices.iterator.map(i => (shape.keys(i), values(i)))
+
+    override def foreach[U](f: ((String, Val.Obj.Member)) => U): Unit = {
+      var i = 0
+      while (i < values.length) {
+        f((shape.keys(i), values(i)))
+        i += 1
+      }
+    }
+
+    override def size: Int = values.length
+
+    override def knownSize: Int = values.length
+
+    def addOne(elem: (String, Val.Obj.Member)): this.type =
+      throw new UnsupportedOperationException("Object members are read-only")
+
+    def subtractOne(key: String): this.type =
+      throw new UnsupportedOperationException("Object members are read-only")
+  }
+}
@@ -0,0 +1,82 @@
+package com.datasonnet.jsonnet
+
+/*-
+ * Copyright 2019-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import scala.collection.immutable.AbstractSeq
+
+/**
+  * Array contents held as primitives, such as the numbers of a range, the
+  * positions of a search or the bytes of a decoded binary, instead of one evaluated [[Val.Lazy]] per
+  * element. An element is wrapped when it is read, and [[Materializer]] reads
+  * the values without wrapping them at all.
+  */
+sealed abstract class PackedSeq extends AbstractSeq[Val.Lazy] with IndexedSeq[Val.Lazy] {
+  def value(i: Int): Val
+
+  def apply(i: Int): Val.Lazy = {
+    if (i < 0 || i >= length) throw new IndexOutOfBoundsException(s"$i is out of bounds (min 0, max ${length - 1})")
+    val v = value(i)
+    Val.Lazy.strict(v)
+  }
+
+  override protected[this] def className: String = "PackedSeq"
+}
+
+object PackedSeq {
+
+  /**
+    * Computed numbers, such as the positions found by `ds.find`.
+    */
+  final class Numbers(values: Array[Double]) extends PackedSeq {
+    def length: Int = values.length
+
+    def value(i: Int): Val = Val.Num(values(i))
+  }
+
+  final class Strings(values: Array[String]) extends PackedSeq {
+    def length: Int = values.length
+
+    def value(i: Int): Val = Val.Str(values(i))
+  }
+
+  /**
+    * The integers from `from` to `to`, both included.
+    */
+  final class Range(from: Int, to: Int) extends PackedSeq {
+    val length: Int = if (to < from) 0 else to - from + 1
+
+    def value(i: Int): Val = Val.Num(from + i)
+  }
+
+  /**
+    * Bytes, read as numbers from -128 to 127, or from 0 to 255 when unsigned.
+    */
+  final class Bytes(bytes: Array[Byte], unsigned: Boolean) extends PackedSeq {
+    def length: Int = bytes.length
+
+    def value(i: Int): Val = Val.Num(if (unsigned) bytes(i) & 0xff else bytes(i))
+
+    def toByteArray: Array[Byte] = bytes.clone()
+  }
+
+  /**
+    * The bytes of an array of numbers, as written by `encodeUTF8` or `base64DecodeBytes`.
+    */
+  def toBytes(values: Seq[Val.Lazy]): Array[Byte] = values match {
+    case bytes: Bytes => bytes.toByteArray
+    case _ => values.map(_.force.cast[Val.Num].value.toByte).toArray
+  }
+}
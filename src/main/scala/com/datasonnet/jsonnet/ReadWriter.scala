@@ -57,6 +57,20 @@ object ReadWriter{
     def apply(t: Val, ev: EvalScope, fs: FileScope) = Right(t)
     def write(t: Val) = t
   }
+  implicit object StrRead extends ReadWriter[Val.Str]{
+    def apply(t: Val, ev: EvalScope, fs: FileScope) = t match{
+      case v: Val.Str => Right(v)
+      case _ => Left("String")
+    }
+    def write(t: Val.Str) = t
+  }
+  implicit object NumRead extends ReadWriter[Val.Num]{
+    def apply(t: Val, ev: EvalScope, fs: FileScope) = t match{
+      case v: Val.Num => Right(v)
+      case _ => Left("Number")
+    }
+    def write(t: Val.Num) = t
+  }
   implicit object ObjRead extends ReadWriter[Val.Obj]{
     def apply(t: Val, ev: EvalScope, fs: FileScope) = t match{
       case v: Val.Obj => Right(v)
@@ -88,7 +102,11 @@ object ReadWriter{
   }
 }
 case class Applyer(f: Val.Func, ev: EvalScope, fs: FileScope){
-  def apply(args: Val.Lazy*) = {
-    f.apply(args.map((None, _)), "(memory)", -1)(fs, ev)
+  // library callbacks mostly pass one to three arguments, which take the positional path of the function
+  def apply(a: Val.Lazy): Val = f.apply1(a, "(memory)", -1)(fs, ev)
+  def apply(a: Val.Lazy, b: Val.Lazy): Val = f.apply2(a, b, "(memory)", -1)(fs, ev)
+  def apply(a: Val.Lazy, b: Val.Lazy, c: Val.Lazy): Val = f.apply3(a, b, c, "(memory)", -1)(fs, ev)
+  def apply(args: Val.Lazy*): Val = {
+    f.applyPositional(args.toArray, "(memory)", -1)(fs, ev)
   }
 }
\ No newline at end of file
@@ -54,7 +54,7 @@ object Std {
     },
     builtin("length", "x"){ (ev, fs, v1: Val) =>
       v1 match{
-        case Val.Str(s) => s.length
+        case s: Val.Str => s.length
         case Val.Arr(s) => s.length
         case o: Val.Obj => o.getVisibleKeys().count(!_._2)
         case o: Val.Func => o.params.args.length
@@ -100,7 +100,7 @@ object Std {
       } else {
         keys.sorted
       }
-      Val.Arr(maybeSorted.map(k => Val.Lazy(Val.Str(k))))
+      Val.Arr(maybeSorted.map(k => Val.Lazy.strict(Val.Str(k))))
     },
     builtin("objectFieldsAll", "o"){ (ev, fs, v1: Val.Obj) =>
       val keys = v1.getVisibleKeys()
@@ -111,7 +111,7 @@ object Std {
       } else {
         keys.sorted
       }
-      Val.Arr(maybeSorted.map(k => Val.Lazy(Val.Str(k))))
+      Val.Arr(maybeSorted.map(k => Val.Lazy.strict(Val.Str(k))))
     },
     builtin("objectValues", "o"){ (ev, fs, v1: Val.Obj) =>
       val keys = v1.getVisibleKeys()
@@ -167,7 +167,7 @@ object Std {
       var current = init
       for(item <- arr.value){
         val c = current
-        current = func.apply(Val.Lazy(c), item)
+        current = func.apply(Val.Lazy.strict(c), item)
       }
       current
     },
@@ -175,14 +175,12 @@ object Std {
       var current = init
       for(item <- arr.value.reverse){
         val c = current
-        current = func.apply(item, Val.Lazy(c))
+        current = func.apply(item, Val.Lazy.strict(c))
       }
       current
     },
     builtin("range", "from", "to"){ (ev, fs, from: Int, to: Int) =>
-      Val.Arr(
-        (from to to).map(i => Val.Lazy(Val.Num(i)))
-      )
+      Val.Arr(new PackedSeq.Range(from, to))
     },
     builtin("mergePatch", "target", "patch"){ (ev, fs, target: Val, patch: Val) =>
       def rec(l: ujson.Value, r: ujson.Value): ujson.Value = {
@@ -222,7 +220,7 @@ object Std {
     builtin("makeArray", "sz", "func"){ (ev, fs, sz: Int, func: Applyer) =>
       Val.Arr(
         (0 until sz).map(i =>
-          Val.Lazy(func.apply(Val.Lazy(Val.Num(i))))
+          Val.Lazy(func.apply(Val.Lazy.strict(Val.Num(i))))
         )
       )
     },
@@ -326,7 +324,7 @@ object Std {
         allKeys.map{ k =>
           k._1 -> (Val.Obj.Member(false, Visibility.Normal, (self: Val.Obj, sup: Option[Val.Obj], _, _) =>
             func.apply(
-              Val.Lazy(Val.Str(k._1)),
+              Val.Lazy.strict(Val.Str(k._1)),
               Val.Lazy(obj.value(k._1, -1)(fs,ev))
             )
           ))
@@ -338,7 +336,7 @@ object Std {
     builtin("mapWithIndex", "func", "arr"){ (ev, fs, func: Applyer, arr: Val.Arr) =>
       Val.Arr(
         arr.value.zipWithIndex.map{ case (x, i) =>
-          Val.Lazy(func.apply(Val.Lazy(Val.Num(i)), x))
+          Val.Lazy(func.apply(Val.Lazy.strict(Val.Num(i)), x))
         }
       )
     },
@@ -359,7 +357,7 @@ object Std {
         case s: Val.Str =>
           val builder = new StringBuilder()
           for (c: Char <- s.value) {
-            val fres = func.apply(Val.Lazy(Val.Str(c.toString)))
+            val fres = func.apply(Val.Lazy.strict(Val.Str(c.toString)))
             builder.append(
               fres match {
                 case fstr: Val.Str => fstr.value
@@ -377,8 +375,8 @@ object Std {
       Val.Arr(
         arr.value.flatMap { i =>
           val x = i.force
-          if (filter_func.apply(Val.Lazy(x)) != Val.True) None
-          else Some(Val.Lazy(map_func.apply(Val.Lazy(x))))
+          if (filter_func.apply(Val.Lazy.strict(x)) != Val.True) None
+          else Some(Val.Lazy(map_func.apply(Val.Lazy.strict(x))))
         }
       )
     },
@@ -387,7 +385,7 @@ object Std {
         for (
           (v, i) <- arr.value.zipWithIndex
           if Materializer(v.force)(ev) == Materializer(value)(ev)
-        ) yield Val.Lazy(Val.Num(i))
+        ) yield Val.Lazy.strict(Val.Num(i))
       )
     },
     builtin("findSubstr", "pat", "str") { (ev, fs, pat: String, str: String) =>
@@ -399,7 +397,7 @@ object Std {
           indices.append(matchIndex)
           matchIndex = str.indexOf(pat, matchIndex + 1)
         }
-        Val.Arr(indices.map(x => Val.Lazy(Val.Num(x))).toSeq)
+        Val.Arr(indices.map(x => Val.Lazy.strict(Val.Num(x))).toSeq)
       }
     },
     builtin("substr", "s", "from", "len"){ (ev, fs, s: String, from: Int, len: Int) =>
@@ -440,16 +438,19 @@ object Std {
     builtin("join", "sep", "arr"){ (ev, fs, sep: Val, arr: Val.Arr) =>
       val res: Val = sep match{
         case Val.Str(s) =>
-          Val.Str(
-            arr.value
-              .map(_.force)
-              .filter(_ != Val.Null)
-              .map{
-                case Val.Str(x) => x
-                case x => throw new Error.Delegate("Cannot join " + x.prettyName)
-              }
-              .mkString(s)
-          )
+          val out = new java.lang.StringBuilder
+          var first = true
+          for(x <- arr.value){
+            x.force match{
+              case Val.Null => // do nothing
+              case Val.Str(v) =>
+                if (!first) out.append(s)
+                out.append(v)
+                first = false
+              case x => throw new Error.Delegate("Cannot join " + x.prettyName)
+            }
+          }
+          Val.Str(out.toString)
         case Val.Arr(sep) =>
           val out = collection.mutable.Buffer.empty[Val.Lazy]
           for(x <- arr.value){
@@ -654,22 +655,22 @@ object Std {
       new String(Base64.getDecoder().decode(s))
     },
     builtin("base64DecodeBytes", "s"){ (ev, fs, s: String) =>
-      Val.Arr(Base64.getDecoder().decode(s).map(i => Val.Lazy(Val.Num(i))))
+      Val.Arr(new PackedSeq.Bytes(Base64.getDecoder().decode(s), unsigned = false))
     },
 
     builtin("gzip", "v"){ (ev, fs, v: Val) =>
       v match{
         case Val.Str(value) => Platform.gzipString(value)
-        case Val.Arr(bytes) => Platform.gzipBytes(bytes.map(_.force.cast[Val.Num].value.toByte).toArray)
+        case Val.Arr(bytes) => Platform.gzipBytes(PackedSeq.toBytes(bytes))
         case x => throw new Error.Delegate("Cannot gzip encode " + x.prettyName)
       }
     },
 
     builtin("encodeUTF8", "s"){ (ev, fs, s: String) =>
-      Val.Arr(s.getBytes(UTF_8).map(i => Val.Lazy(Val.Num(i & 0xff))))
+      Val.Arr(new PackedSeq.Bytes(s.getBytes(UTF_8), unsigned = true))
     },
     builtin("decodeUTF8", "arr"){ (ev, fs, arr: Val.Arr) =>
-      new String(arr.value.map(_.force.cast[Val.Num].value.toByte).toArray, UTF_8)
+      new String(PackedSeq.toBytes(arr.value), UTF_8)
     },
 
     builtinWithDefaults("uniq", "arr" -> None, "keyF" -> Some(Expr.False(0))) { (args, ev) =>
@@ -817,17 +818,17 @@ object Std {
     },
 
     builtin("split", "str", "c"){ (ev, fs, str: String, c: String) =>
-      Val.Arr(str.split(java.util.regex.Pattern.quote(c), -1).map(s => Val.Lazy(Val.Str(s))))
+      Val.Arr(str.split(java.util.regex.Pattern.quote(c), -1).map(s => Val.Lazy.strict(Val.Str(s))))
     },
     builtin("splitLimit", "str", "c", "maxSplits"){ (ev, fs, str: String, c: String, maxSplits: Int) =>
-      Val.Arr(str.split(java.util.regex.Pattern.quote(c), maxSplits + 1).map(s => Val.Lazy(Val.Str(s))))
+      Val.Arr(str.split(java.util.regex.Pattern.quote(c), maxSplits + 1).map(s => Val.Lazy.strict(Val.Str(s))))
     },
     builtin("splitLimitR", "str", "c", "maxSplits"){ (ev, fs, str: String, c: String, maxSplits: Int) =>
       if (maxSplits == -1) {
-        Val.Arr(str.split(java.util.regex.Pattern.quote(c), maxSplits + 1).map(s => Val.Lazy(Val.Str(s))))
+        Val.Arr(str.split(java.util.regex.Pattern.quote(c), maxSplits + 1).map(s => Val.Lazy.strict(Val.Str(s))))
       } else {
         val split = str.reverse.split(java.util.regex.Pattern.quote(c.reverse), maxSplits + 1)
-        Val.Arr(split.map(s => Val.Lazy(Val.Str(s.reverse))).reverse)
+        Val.Arr(split.map(s => Val.Lazy.strict(Val.Str(s.reverse))).reverse)
       }
     },
     builtin("stringChars", "str"){ (ev, fs, str: String) =>
@@ -1034,7 +1035,7 @@ object Std {
       Params(paramData),
       {(scope, thisFile, ev, fs, outerOffset) =>
         implicitly[ReadWriter[R]].write(
-          eval(paramIndices.map(i => scope.bindings(i).get.force), ev, fs)
+          eval(paramIndices.map(i => scope.frame(i).force), ev, fs)
         )
       }
     )
@@ -1112,24 +1113,19 @@ object Std {
       case Val.Arr(vs) =>
         Val.Arr(
 
-          if (vs.forall(_.force.isInstanceOf[Val.Str])){
-            vs.map(_.force.cast[Val.Str]).sortBy(_.value).map(Val.Lazy(_))
-          }else if (vs.forall(_.force.isInstanceOf[Val.Num])) {
-            vs.map(_.force.cast[Val.Num]).sortBy(_.value).map(Val.Lazy(_))
+          if (vs.forall(_.force.isInstanceOf[Val.Str]) || vs.forall(_.force.isInstanceOf[Val.Num])){
+            KeyedSort.sortBy(vs.toIndexedSeq, vs.map(_.force).toArray, k => throw new Error.Delegate("Cannot sort " + k.prettyName + "s"))
           }else if (vs.forall(_.force.isInstanceOf[Val.Obj])){
             if (keyF == Val.False) {
               throw new Error.Delegate("Unable to sort array of objects without key function")
             } else {
-              val objs = vs.map(_.force.cast[Val.Obj])
-
               val keyFFunc = keyF.asInstanceOf[Val.Func]
               val keyFApplyer = Applyer(keyFFunc, ev, null)
-              val keys = objs.map((v) => keyFApplyer(Val.Lazy(v)))
+              // every key is computed once, not on every comparison
+              val keys = vs.map(keyFApplyer(_)).toArray
 
-              if (keys.forall(_.isInstanceOf[Val.Str])){
-                objs.sortBy((v) => keyFApplyer(Val.Lazy(v)).cast[Val.Str].value).map(Val.Lazy(_))
-              } else if (keys.forall(_.isInstanceOf[Val.Num])) {
-                objs.sortBy((v) => keyFApplyer(Val.Lazy(v)).cast[Val.Num].value).map(Val.Lazy(_))
+              if (keys.forall(_.isInstanceOf[Val.Str]) || keys.forall(_.isInstanceOf[Val.Num])){
+                KeyedSort.sortBy(vs.toIndexedSeq, keys, k => throw new Error.Delegate("Cannot sort with key values that are " + k.prettyName + "s"))
               } else {
                 throw new Error.Delegate("Cannot sort with key values that are " + keys(0).prettyName + "s")
               }
@@ -1138,7 +1134,7 @@ object Std {
             ???
           }
         )
-      case Val.Str(s) => Val.Arr(s.sorted.map(c => Val.Lazy(Val.Str(c.toString))))
+      case Val.Str(s) => Val.Arr(s.sorted.map(c => Val.Lazy.strict(Val.Str(c.toString))))
       case x => throw new Error.Delegate("Cannot sort " + x.prettyName)
     }
   }
@@ -1146,6 +1142,6 @@ object Std {
   def stringChars(str: String): Val.Arr = {
     var offset = 0
     val output = str.toSeq.sliding(1).toList
-    Val.Arr(output.map(s => Val.Lazy(Val.Str(s.toString()))).toSeq)
+    Val.Arr(output.map(s => Val.Lazy.strict(Val.Str(s.toString()))).toSeq)
   }
 }
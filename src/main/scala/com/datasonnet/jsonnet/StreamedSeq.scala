@@ -0,0 +1,61 @@
+package com.datasonnet.jsonnet
+
+/*-
+ * Copyright 2019-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.util.concurrent.atomic.AtomicBoolean
+import scala.collection.SeqFactory
+import scala.collection.immutable.AbstractSeq
+import scala.collection.mutable
+
+/**
+  * Array contents produced by an iterator, typically the records of a streamed
+  * input. It can only be traversed once: `map`, `filter`, `zipWithIndex` and
+  * similar operations are applied lazily and return another [[StreamedSeq]],
+  * so a row-wise mapping can be written out while its input is still being
+  * read. Operations that need the size or random access fail with an error.
+  */
+final class StreamedSeq[+A](underlying: Iterator[A]) extends AbstractSeq[A] {
+  private[this] val consumed = new AtomicBoolean(false)
+
+  def iterator: Iterator[A] =
+    if (consumed.compareAndSet(false, true)) underlying
+    else throw Error.Delegate("Streamed arrays can only be traversed once")
+
+  def apply(i: Int): A = throw Error.Delegate("Streamed arrays do not support access by index")
+
+  def length: Int = throw Error.Delegate("The length of streamed arrays is not known")
+
+  override def knownSize: Int = -1
+
+  override def iterableFactory: SeqFactory[Seq] = StreamedSeq
+
+  override protected[this] def className: String = "StreamedSeq"
+
+  // the default implementations would consume the elements
+  override def toString: String = "StreamedSeq(<not computed>)"
+
+  override def equals(o: Any): Boolean = this eq o.asInstanceOf[AnyRef]
+
+  override def hashCode(): Int = System.identityHashCode(this)
+}
+
+object StreamedSeq extends SeqFactory[Seq] {
+  def from[A](source: IterableOnce[A]): Seq[A] = new StreamedSeq(source.iterator)
+
+  def empty[A]: Seq[A] = Seq.empty
+
+  def newBuilder[A]: mutable.Builder[A, Seq[A]] = Seq.newBuilder
+}
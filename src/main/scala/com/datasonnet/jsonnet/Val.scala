@@ -19,8 +19,11 @@ import com.datasonnet.jsonnet.Expr.Member.Visibility
 import com.datasonnet.jsonnet.Expr.Params
 import ujson.Value
 
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicReferenceArray
 import scala.annotation.tailrec
 import scala.collection.mutable
+import scala.jdk.CollectionConverters.ConcurrentMapHasAsScala
 import scala.reflect.ClassTag
 
 /**
@@ -56,23 +59,43 @@ object Val{
   /**
     * [[Lazy]] models lazy evaluation within a Jsonnet program. Lazily
     * evaluated dictionary values, array contents, or function parameters
-    * are all wrapped in [[Lazy]] and only truly evaluated on-demand
+    * are all wrapped in [[Lazy]] and only truly evaluated on-demand.
+    *
+    * The value is computed at most once, even when several threads force it
+    * at the same time, and the computation is released afterwards so that
+    * the scope it captured can be collected. A computation that fails is
+    * retried by the next force.
     */
-  class Lazy(calc0: => Val){
-    // WIP debugger support. This flags can be used to show on the client whether the value is now present or has not been evaluated lazily
-    var isSet = false;
-    def force =
-      if (sys.props.getOrElse("debug", "false") == "true") {
-        isSet = true;
-        val forceE = calc0
-        forceE
-      } else {
-        lazy val forceL = calc0
-        forceL
+  final class Lazy private (value0: Val, calc0: () => Val){
+    @volatile private[this] var value: Val = value0
+    private[this] var calc: () => Val = calc0
+
+    def force: Val = {
+      val v = value
+      if (v != null) v else compute()
+    }
+
+    private[this] def compute(): Val = synchronized {
+      if (value == null) {
+        value = calc()
+        calc = null
       }
+      value
+    }
+
+    // used by the debugger to show whether the value has been evaluated yet
+    def isSet: Boolean = value != null
   }
   object Lazy{
-    def apply(calc0: => Val) = new Lazy(calc0)
+    // the thunk of the by-name argument is the one stored, it is not wrapped again
+    def apply(calc0: => Val): Lazy = new Lazy(null, () => calc0)
+
+    /**
+      * A value that is already computed, such as an input or an element built
+      * by a library function: it needs neither a thunk nor the lock of a first
+      * [[Lazy.force]].
+      */
+    def strict(value: Val): Lazy = new Lazy(value, null)
   }
 
   def bool(b: Boolean) = if (b) True else False
@@ -87,12 +110,117 @@ object Val{
   case object Null extends Val{
     def prettyName = "null"
   }
-  case class Str(value: String) extends Val{
+  /**
+    * A string, either flat or the concatenation of two strings that is only
+    * copied into one [[String]] when its value is read. Building a long
+    * string with `+` one piece at a time thus takes linear time instead of
+    * copying everything built so far for every piece.
+    *
+    * Strings are shared between concurrent evaluations. The flat string or
+    * the concatenation is held in a final field, so it is always seen fully
+    * built; a concatenation keeps its pieces until it is joined, and then
+    * only the joined string.
+    */
+  final class Str private (private val repr: AnyRef, val length: Int) extends Val{
+    def this(value: String) = this(value, value.length)
+
     def prettyName = "string"
+
+    def value: String = repr match {
+      case s: String => s
+      case c: Str.Concat => c.value(length)
+    }
+
+    override def equals(other: Any): Boolean = other match {
+      case s: Str => (this eq s) || (length == s.length && value == s.value)
+      case _ => false
+    }
+
+    override def hashCode: Int = value.hashCode
+
+    override def toString: String = s"Str($value)"
+  }
+  object Str{
+    // joining short strings right away is cheaper than keeping their pieces
+    private final val MinRopeLength = 256
+
+    def apply(value: String): Str = new Str(value)
+
+    def unapply(s: Str): Some[String] = Some(s.value)
+
+    def concat(l: Str, r: Str): Str = {
+      if (r.length == 0) l
+      else if (l.length == 0) r
+      else if (l.length + r.length < MinRopeLength) new Str(l.value + r.value)
+      else new Str(new Concat(l, r), l.length + r.length)
+    }
+
+    /**
+      * Two pieces, released once they are joined. The joined string is
+      * written before the pieces are cleared, so a reader that finds a
+      * cleared piece finds the joined string instead.
+      */
+    private final class Concat(@volatile private var left: Str, @volatile private var right: Str) {
+      @volatile private var flat: String = null
+
+      def value(length: Int): String = {
+        val f = flat
+        if (f != null) f
+        else {
+          val s = flatten(length)
+          flat = s
+          left = null
+          right = null
+          s
+        }
+      }
+
+      // iterative, as a string built by a fold is as deep as it has pieces
+      private def flatten(length: Int): String = {
+        val out = new java.lang.StringBuilder(length)
+        val pending = new java.util.ArrayDeque[AnyRef]()
+        pending.push(this)
+        while (!pending.isEmpty) {
+          pending.pop() match {
+            case s: String => out.append(s)
+            case c: Concat =>
+              val f = c.flat
+              if (f != null) out.append(f)
+              else {
+                val l = c.left
+                val r = c.right
+                if (l == null || r == null) out.append(c.flat)
+                else {
+                  pending.push(r.repr)
+                  pending.push(l.repr)
+                }
+              }
+          }
+        }
+        out.toString
+      }
+    }
   }
   case class Num(value: Double) extends Val{
     def prettyName = "number"
   }
+  object Num{
+    private final val MinCached = -128
+    private final val MaxCached = 1024
+    private val cached = Array.tabulate(MaxCached - MinCached + 1)(i => new Num(i + MinCached))
+
+    /**
+      * Small integers, such as counters, indices and quantities, are shared
+      * instead of allocated for every result. Negative zero is not an
+      * integer here, it keeps its own instance so that its sign survives.
+      */
+    def apply(value: Double): Num = {
+      val i = value.toInt
+      if (i == value && i >= MinCached && i <= MaxCached &&
+          (i != 0 || java.lang.Double.doubleToRawLongBits(value) == 0L)) cached(i - MinCached)
+      else new Num(value)
+    }
+  }
   case class Arr(value: Seq[Lazy]) extends Val{
     def prettyName = "array"
   }
@@ -128,12 +256,22 @@ object Val{
 
     def prettyName = "object"
 
+    // the members of an object literal with fixed field names, see ObjShape
+    private[this] val shaped = value0 match {
+      case members: ObjShape.Members => members
+      case _ => null
+    }
+    // the values of a shaped object by slot; objects extending another one share its members, but not their values,
+    // and like the valueCache it is read and written by concurrent evaluations of shared objects
+    private[this] val slotCache = if (shaped == null) null else new AtomicReferenceArray[Val](shaped.size)
+
     def foreachVisibleKey(output: (String, Visibility) => Unit): Unit = {
       for(s <- this.`super`) s.foreachVisibleKey(output)
       for(t <- value0) output(t._1, t._2.visibility)
     }
 
-    def getVisibleKeys() = {
+    def getVisibleKeys(): collection.Map[String, Boolean] = {
+      if (shaped != null && `super`.isEmpty) return shaped.shape.visibleKeys
       val mapping = mutable.LinkedHashMap.empty[String, Boolean]
       foreachVisibleKey{ (k, sep) =>
         (mapping.get(k), sep) match{
@@ -149,7 +287,8 @@ object Val{
     }
     // made accessible to the Debugger
     //    private[this]
-    val valueCache = collection.mutable.Map.empty[Any, Val]
+    // objects such as libraries and imports are shared between concurrent evaluations
+    lazy val valueCache: collection.concurrent.Map[Any, Val] = new ConcurrentHashMap[Any, Val]().asScala
 
     def value(k: String,
               offset: Int)
@@ -163,6 +302,17 @@ object Val{
               defaultValue: Value)
              (implicit fileScope: FileScope, evaluator: EvalScope): Val = {
 
+      if ((self eq this) && shaped != null) {
+        val slot = shaped.shape.slot(k)
+        if (slot >= 0) {
+          val cached = slotCache.get(slot)
+          if (cached != null) return cached
+          val (x, cache) = valueRaw(k, self, offset).get
+          if (cache) slotCache.set(slot, x)
+          return x
+        }
+      }
+
       val cacheKey = if(self eq this) k else (k, self)
 
       valueCache.get(cacheKey) match{
@@ -183,15 +333,15 @@ object Val{
                     r: Val,
                     offset: Int)
                    (implicit fileScope: FileScope, evaluator: EvalScope) = (l, r) match{
-      case (Val.Str(l), Val.Str(r)) => Val.Str(l + r)
+      case (l: Val.Str, r: Val.Str) => Val.Str.concat(l, r)
       case (Val.Num(l), Val.Num(r)) => Val.Num(l + r)
       case (Val.Arr(l), Val.Arr(r)) => Val.Arr(l ++ r)
       case (l: Val.Obj, r: Val.Obj) => r.addSuper(l)
-      case (Val.Str(l), r) =>
-        try Val.Str(l + evaluator.materialize(r).transform(new Renderer()).toString)
+      case (l: Val.Str, r) =>
+        try Val.Str.concat(l, Val.Str(evaluator.materialize(r).transform(new Renderer()).toString))
         catch Error.tryCatchWrap(offset)
-      case (l, Val.Str(r)) =>
-        try Val.Str(evaluator.materialize(l).transform(new Renderer()).toString + r)
+      case (l, r: Val.Str) =>
+        try Val.Str.concat(Val.Str(evaluator.materialize(l).transform(new Renderer()).toString), r)
         catch Error.tryCatchWrap(offset)
     }
 
@@ -241,29 +391,36 @@ object Val{
     }
   }
 
+  /**
+    * @param prepareArg called by the [[ExprOptimizer]] with the position and value of every argument that a script
+    *                   passes as a constant, so that a builtin can prepare work that only depends on it, such as
+    *                   compiling a regular expression; returns the function to call at that call site instead, or
+    *                   null to keep this one
+    */
   case class Func(defSiteScopes: Option[(ValScope, FileScope)],
                   params: Params,
                   evalRhs: (ValScope, String, EvalScope, FileScope, Int) => Val,
-                  evalDefault: (Expr, ValScope, EvalScope) => Val = null) extends Val{
+                  evalDefault: (Expr, ValScope, EvalScope) => Val = null,
+                  prepareArg: (Int, Val) => Func = null) extends Val{
     def prettyName = "function"
     def apply(args: Seq[(Option[String], Lazy)],
               thisFile: String,
               outerOffset: Int)
              (implicit fileScope: FileScope, evaluator: EvalScope) = {
 
-      lazy val defaultArgsBindings = params
-        .defaults
-        .map{ case (index, default) => (index, Lazy(evalDefault(default, newScope, evaluator)))}
-
-      lazy val passedArgsBindings = try
+      val positions = new Array[Int](args.length)
+      val passedArgsBindings = try
         args.zipWithIndex.map{
-          case ((Some(name), v), _) =>
-            val argIndex = params.argIndices.getOrElse(
+          case ((Some(name), v), i) =>
+            val position = params.argPositions.getOrElse(
               name,
               Error.fail(s"Function has no parameter $name", outerOffset)
             )
-            (argIndex, v)
-          case ((None, v), i) => (params.args(i)._3, v)
+            positions(i) = position
+            (params.args(position)._3, v)
+          case ((None, v), i) =>
+            positions(i) = i
+            (params.args(i)._3, v)
         }
       catch{ case e: IndexOutOfBoundsException =>
         Error.fail(
@@ -272,38 +429,89 @@ object Val{
         )
       }
 
-      lazy val newScope: ValScope = {
-        var max = -1
-        val builder = Array.newBuilder[(Int, (Option[Val.Obj], Option[Val.Obj]) => Lazy)]
-        for(t <- defaultArgsBindings){
-          val (i, v) = t
-          if (i > max) max = i
-          builder += (i, (self: Option[Val.Obj], sup: Option[Val.Obj]) => v)
-        }
+      val funDefFileScope: FileScope = defSiteScopes match {case None => fileScope case Some((s, fs)) => fs}
+      validateFunctionCall(passedArgsBindings, params, outerOffset, funDefFileScope)
 
-        for(t <- passedArgsBindings){
-          val (i, v) = t
-          if (i > max) max = i
-          builder += (i, (self: Option[Val.Obj], sup: Option[Val.Obj]) => v)
-        }
+      val frame = new Array[Lazy](params.args.length)
+      var i = 0
+      for ((_, v) <- passedArgsBindings) {
+        frame(positions(i)) = v
+        i += 1
+      }
+      call(frame, thisFile, outerOffset)
+    }
 
-        defSiteScopes match{
-          case None => new ValScope(
-            None,
-            None,
-            None,
-            {
-              val arr = new Array[Lazy](max + 1)
-              for((i, v) <- builder.result()) arr(i) = v(null, None)
-              arr
-            }
-          )
-          case Some((s, fs)) => s.extend(builder.result())
-        }
+    /**
+      * Calls the function with one positional argument. A positional call can
+      * only fail by passing too few or too many arguments, so it is checked
+      * against the arity and binds the argument into the frame directly,
+      * leaving the general [[apply]] to report the failures.
+      */
+    def apply1(a: Lazy, thisFile: String, outerOffset: Int)
+              (implicit fileScope: FileScope, evaluator: EvalScope): Val = {
+      if (!acceptsPositional(1)) apply(Seq((None, a)), thisFile, outerOffset)
+      else {
+        val frame = new Array[Lazy](params.args.length)
+        frame(0) = a
+        call(frame, thisFile, outerOffset)
       }
+    }
 
-      val funDefFileScope: FileScope = defSiteScopes match {case None => fileScope case Some((s, fs)) => fs}
-      validateFunctionCall(passedArgsBindings, params, outerOffset, funDefFileScope)
+    def apply2(a: Lazy, b: Lazy, thisFile: String, outerOffset: Int)
+              (implicit fileScope: FileScope, evaluator: EvalScope): Val = {
+      if (!acceptsPositional(2)) apply(Seq((None, a), (None, b)), thisFile, outerOffset)
+      else {
+        val frame = new Array[Lazy](params.args.length)
+        frame(0) = a
+        frame(1) = b
+        call(frame, thisFile, outerOffset)
+      }
+    }
+
+    def apply3(a: Lazy, b: Lazy, c: Lazy, thisFile: String, outerOffset: Int)
+              (implicit fileScope: FileScope, evaluator: EvalScope): Val = {
+      if (!acceptsPositional(3)) apply(Seq((None, a), (None, b), (None, c)), thisFile, outerOffset)
+      else {
+        val frame = new Array[Lazy](params.args.length)
+        frame(0) = a
+        frame(1) = b
+        frame(2) = c
+        call(frame, thisFile, outerOffset)
+      }
+    }
+
+    /**
+      * Calls the function with any number of positional arguments, see [[apply1]].
+      */
+    def applyPositional(args: Array[Lazy], thisFile: String, outerOffset: Int)
+                       (implicit fileScope: FileScope, evaluator: EvalScope): Val = {
+      if (!acceptsPositional(args.length)) apply(args.toSeq.map((None, _)), thisFile, outerOffset)
+      else {
+        val frame = new Array[Lazy](params.args.length)
+        System.arraycopy(args, 0, frame, 0, args.length)
+        call(frame, thisFile, outerOffset)
+      }
+    }
+
+    private def acceptsPositional(count: Int) = count >= params.minPositional && count <= params.args.length
+
+    // the parameters only see each other and the scope of the definition
+    private def call(frame: Array[Lazy], thisFile: String, outerOffset: Int)
+                    (implicit fileScope: FileScope, evaluator: EvalScope): Val = {
+      var funDefFileScope = fileScope
+      val newScope = defSiteScopes match {
+        case None => new ValScope(None, None, None, frame, params.layout, null)
+        case Some((s, fs)) =>
+          funDefFileScope = fs
+          new ValScope(s.dollar0, s.self0, s.super0, frame, params.layout, s)
+      }
+      val defaults = params.defaultPositions
+      var i = 0
+      while (i < defaults.length) {
+        val (position, default) = defaults(i)
+        if (frame(position) == null) frame(position) = Lazy(evalDefault(default, newScope, evaluator))
+        i += 1
+      }
 
       evalRhs(
         newScope,
@@ -373,29 +581,66 @@ object ValScope{
   * a Jsonnet file that bind variable names to [[Val]]s, as well as other
   * contextual information like `self` `this` or `super`.
   *
-  * Note that scopes are standalone, and nested scopes are done by copying
-  * and updating the array of bindings rather than using a linked list. This
-  * is because the bindings array is typically pretty small and the constant
-  * factor overhead from a cleverer data structure dominates any algorithmic
-  * improvements
+  * Every scope holds a frame with the bindings it adds, chained to the scope
+  * it extends: a `local`, a function call or an object adds a frame as large
+  * as its own bindings, instead of copying the bindings of the whole file.
+  * `layout` holds the binding index of every slot of the frame; the outermost
+  * scope has no layout and is indexed by binding index directly.
+  *
+  * The [[ClosureCompiler]] knows the frames that every expression is
+  * evaluated in, and reads a variable from its frame and slot directly;
+  * [[bindings]] looks a binding index up through the chain instead.
   *
-  * The bindings array is private and only copy-on-write, so for nested scopes
-  * which do not change it (e.g. those just updating `dollar0` or `self0`) the
-  * bindings array can be shared cheaply.
+  * Scopes which do not add bindings (e.g. those just updating `dollar0` or
+  * `self0`) share the frame of the scope they extend.
   */
 class ValScope(val dollar0: Option[Val.Obj],
                val self0: Option[Val.Obj],
                val super0: Option[Val.Obj],
-               bindings0: Array[Val.Lazy]) {
+               val frame: Array[Val.Lazy],
+               val layout: Array[Int],
+               val parent: ValScope) {
 
-  def bindings(k: Int): Option[Val.Lazy] = bindings0(k) match{
-    case null => None
-    case v => Some(v)
+  def this(dollar0: Option[Val.Obj], self0: Option[Val.Obj], super0: Option[Val.Obj], bindings0: Array[Val.Lazy]) =
+    this(dollar0, self0, super0, bindings0, null, null)
+
+  def bindings(k: Int): Option[Val.Lazy] = Option(lookup(k))
+
+  /**
+    * The innermost binding of the index, or null when it is not bound.
+    */
+  def lookup(k: Int): Val.Lazy = {
+    var s = this
+    while (s != null) {
+      val layout = s.layout
+      if (layout == null) {
+        if (k < s.frame.length && s.frame(k) != null) return s.frame(k)
+      } else {
+        // the last binding of an index wins, as it did when bindings were written over each other
+        var i = layout.length - 1
+        while (i >= 0) {
+          if (layout(i) == k) return s.frame(i)
+          i -= 1
+        }
+      }
+      s = s.parent
+    }
+    null
   }
 
   // WIP made accessible to the Debugger
   def getBindings : Array[Val.Lazy] = {
-    bindings0;
+    val chain = Iterator.iterate(this)(_.parent).takeWhile(_ != null).toList.reverse
+    val size = chain.map(s => if (s.layout == null) s.frame.length else if (s.layout.isEmpty) 0 else s.layout.max + 1).max
+    val bindings0 = new Array[Val.Lazy](size)
+    for (s <- chain) {
+      if (s.layout == null) {
+        for (i <- s.frame.indices if s.frame(i) != null) bindings0(i) = s.frame(i)
+      } else {
+        for (i <- s.layout.indices) bindings0(s.layout(i)) = s.frame(i)
+      }
+    }
+    bindings0
   }
 
   def extend(newBindings: TraversableOnce[(Int, (Option[Val.Obj], Option[Val.Obj]) => Val.Lazy)] = Nil,
@@ -405,16 +650,19 @@ class ValScope(val dollar0: Option[Val.Obj],
     val dollar = if (newDollar != null) newDollar else dollar0
     val self = if (newSelf != null) newSelf else self0
     val sup = if (newSuper != null) newSuper else super0
-    new ValScope(
-      dollar,
-      self,
-      sup,
-      if (newBindings.isEmpty) bindings0
-      else{
-        val newArr = java.util.Arrays.copyOf(bindings0, bindings0.length)
-        for((i, v) <- newBindings) newArr(i) = v.apply(self, sup)
-        newArr
+    if (newBindings.isEmpty) new ValScope(dollar, self, sup, frame, layout, parent)
+    else {
+      val added = newBindings.iterator.toArray
+      val newFrame = new Array[Val.Lazy](added.length)
+      val newLayout = new Array[Int](added.length)
+      var i = 0
+      while (i < added.length) {
+        val (k, v) = added(i)
+        newLayout(i) = k
+        newFrame(i) = v.apply(self, sup)
+        i += 1
       }
-    )
+      new ValScope(dollar, self, sup, newFrame, newLayout, this)
+    }
   }
 }
@@ -0,0 +1,79 @@
+package com.datasonnet.spi
+
+/*-
+ * Copyright 2019-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import upickle.core.{ArrVisitor, ObjVisitor, Visitor}
+
+import java.util.function.Consumer
+
+/**
+  * Helps row oriented formats write their output while it is being materialized.
+  *
+  * When the top level value is an array, each element is materialized on its own and handed to `onElement` as soon as
+  * it is complete, so only one element is held in memory at a time. Any other top level value is materialized
+  * completely and handed to `onValue`. `onEnd` runs once the top level value has been visited.
+  */
+class ElementStreamingVisitor(onElement: Consumer[ujson.Value],
+                              onValue: Consumer[ujson.Value],
+                              onEnd: Runnable) extends Visitor[Any, Any] {
+
+  private val whole: Visitor[ujson.Value, Any] = ujson.Value.map { value =>
+    onValue.accept(value)
+    onEnd.run()
+  }
+
+  override def visitArray(length: Int, index: Int): ArrVisitor[Any, Any] = new ArrVisitor[Any, Any] {
+    override def subVisitor: Visitor[_, _] = ujson.Value
+
+    override def visitValue(v: Any, index: Int): Unit = onElement.accept(v.asInstanceOf[ujson.Value])
+
+    override def visitEnd(index: Int): Any = onEnd.run()
+  }
+
+  override def visitObject(length: Int, index: Int): ObjVisitor[Any, Any] =
+    whole.visitObject(length, index).asInstanceOf[ObjVisitor[Any, Any]]
+
+  override def visitNull(index: Int): Any = whole.visitNull(index)
+
+  override def visitFalse(index: Int): Any = whole.visitFalse(index)
+
+  override def visitTrue(index: Int): Any = whole.visitTrue(index)
+
+  override def visitFloat64StringParts(s: CharSequence, decIndex: Int, expIndex: Int, index: Int): Any =
+    whole.visitFloat64StringParts(s, decIndex, expIndex, index)
+
+  override def visitFloat64(d: Double, index: Int): Any = whole.visitFloat64(d, index)
+
+  override def visitFloat32(d: Float, index: Int): Any = whole.visitFloat32(d, index)
+
+  override def visitInt32(i: Int, index: Int): Any = whole.visitInt32(i, index)
+
+  override def visitInt64(i: Long, index: Int): Any = whole.visitInt64(i, index)
+
+  override def visitUInt64(i: Long, index: Int): Any = whole.visitUInt64(i, index)
+
+  override def visitFloat64String(s: String, index: Int): Any = whole.visitFloat64String(s, index)
+
+  override def visitString(s: CharSequence, index: Int): Any = whole.visitString(s, index)
+
+  override def visitChar(s: Char, index: Int): Any = whole.visitChar(s, index)
+
+  override def visitBinary(bytes: Array[Byte], offset: Int, len: Int, index: Int): Any =
+    whole.visitBinary(bytes, offset, len, index)
+
+  override def visitExt(tag: Byte, bytes: Array[Byte], offset: Int, len: Int, index: Int): Any =
+    whole.visitExt(tag, bytes, offset, len, index)
+}
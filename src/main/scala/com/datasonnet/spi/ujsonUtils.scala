@@ -18,14 +18,16 @@ package com.datasonnet.spi
 
 import com.fasterxml.jackson.databind.node._
 import com.fasterxml.jackson.databind.{DeserializationFeature, JsonNode, ObjectMapper, SerializationFeature}
-import com.fasterxml.jackson.core.{JsonFactory, JsonParser}
+import com.fasterxml.jackson.core.{JsonFactory, JsonParser, JsonToken}
 import ujson._
 
+import scala.collection.mutable
 import scala.jdk.CollectionConverters.{IteratorHasAsScala, MapHasAsJava, SeqHasAsJava}
 import scala.util.control.TailCalls.{TailRec, done, tailcall}
 
 object ujsonUtils {
   private val DIGIT_THRESHOLD = 15
+  private val LARGE_INT_PREFIX = "__LARGE_INT__"
   // Create JsonFactory with configuration for large numbers
   private val jsonFactory = new JsonFactory()
 
@@ -39,9 +41,81 @@ object ujsonUtils {
 
   def stringValueOf(value: ujson.Value): String = String.valueOf(value.value)
 
+  /**
+    * Parses a JSON document in a single pass, building the ujson tree straight from the Jackson tokens.
+    *
+    * Numbers with more than 15 significant digits cannot be represented exactly by a Double, so they are kept as
+    * `__LARGE_INT__` tagged strings, exactly like `replaceLargeNumbers` does.
+    */
   def parse(jsonData: String): Value = {
-    val processedJson = replaceLargeNumbers(jsonData)
-    ujson.read(ujson.Readable.fromString(processedJson))
+    val parser = jsonFactory.createParser(jsonData)
+    try {
+      if (parser.nextToken() == null) throw new Exception("Failed to parse JSON: No content to map due to end-of-input")
+      readValue(parser)
+    } catch {
+      case e: com.fasterxml.jackson.core.JacksonException =>
+        throw new Exception(s"Failed to parse JSON: ${e.getMessage}", e)
+    } finally {
+      parser.close()
+    }
+  }
+
+  private def readValue(parser: JsonParser): Value = parser.currentToken() match {
+    case JsonToken.START_OBJECT =>
+      val fields = mutable.LinkedHashMap.empty[String, Value]
+      var name = parser.nextFieldName()
+      while (name != null) {
+        parser.nextToken()
+        // duplicated keys keep their first position and their last value, like Jackson's ObjectNode
+        fields.update(name, readValue(parser))
+        name = parser.nextFieldName()
+      }
+      Obj(fields)
+    case JsonToken.START_ARRAY =>
+      val items = mutable.ArrayBuffer.empty[Value]
+      while (parser.nextToken() != JsonToken.END_ARRAY) {
+        items += readValue(parser)
+      }
+      Arr(items)
+    case JsonToken.VALUE_STRING => Str(parser.getText)
+    case JsonToken.VALUE_NUMBER_INT => readInt(parser)
+    case JsonToken.VALUE_NUMBER_FLOAT => readFloat(parser)
+    case JsonToken.VALUE_TRUE => True
+    case JsonToken.VALUE_FALSE => False
+    case JsonToken.VALUE_NULL => Null
+    case token => throw new Exception(s"Failed to parse JSON: unexpected token $token")
+  }
+
+  private def readInt(parser: JsonParser): Value = {
+    val text = parser.getText
+    val digits = if (text.charAt(0) == '-') text.length - 1 else text.length
+    if (digits > DIGIT_THRESHOLD) Str(LARGE_INT_PREFIX + text)
+    else Num(parser.getLongValue.toDouble)
+  }
+
+  private def readFloat(parser: JsonParser): Value = {
+    val text = parser.getText
+    // a plain number that is short enough can never be large once normalized
+    if (countDigits(text) <= DIGIT_THRESHOLD && text.indexOf('e') < 0 && text.indexOf('E') < 0) {
+      Num(parser.getDoubleValue)
+    } else {
+      val decimal = parser.getDecimalValue
+      // same normalization as Jackson's JsonNodeFactory, so the tagged text matches replaceLargeNumbers
+      val normalized = if (decimal.signum() == 0) java.math.BigDecimal.ZERO else decimal.stripTrailingZeros()
+      val normalizedText = normalized.toString
+      if (countDigits(normalizedText) > DIGIT_THRESHOLD) Str(LARGE_INT_PREFIX + normalizedText)
+      else Num(normalized.doubleValue())
+    }
+  }
+
+  private def countDigits(text: String): Int = {
+    var count = 0
+    var i = 0
+    while (i < text.length) {
+      if (Character.isDigit(text.charAt(i))) count += 1
+      i += 1
+    }
+    count
   }
   //
   //  private def quoteLargeIntegers(json: String): String = {
@@ -15,7 +15,7 @@ package com.datasonnet.wrap
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-import com.datasonnet.jsonnet.{Evaluator, Expr, Path}
+import com.datasonnet.jsonnet.{Evaluator, Expr, Instrumentation, Path}
 import ujson.Value
 
 class NoFileEvaluator(jsonnet: String,
@@ -23,6 +23,7 @@ class NoFileEvaluator(jsonnet: String,
                       parseCache: collection.mutable.Map[String, fastparse.Parsed[(Expr, Map[String, Int])]],
                       importer: (Path, String) => Option[(Path, String)],
                       preserveOrder: Boolean = true,
-                      defaultValue: Value) extends Evaluator(parseCache, Map(), path, importer, preserveOrder, defaultValue) {
+                      defaultValue: Value,
+                      instrumentation: Option[Instrumentation] = None) extends Evaluator(parseCache, Map(), path, importer, preserveOrder, defaultValue, instrumentation) {
   this.loadedFileContents(path) = jsonnet
 }
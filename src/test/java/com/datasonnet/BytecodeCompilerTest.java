@@ -0,0 +1,155 @@
+package com.datasonnet;
+
+/*-
+ * Copyright 2019-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import com.datasonnet.debugger.DataSonnetDebugger;
+import com.datasonnet.document.DefaultDocument;
+import com.datasonnet.document.MediaTypes;
+import com.datasonnet.jsonnet.BytecodeCompiler;
+import org.junit.jupiter.api.Test;
+
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BytecodeCompilerTest {
+
+    private static final String PAYLOAD = "{\"name\":\"ann\",\"items\":[{\"n\":1,\"p\":2.5},{\"n\":3,\"p\":1}],\"flag\":true}";
+
+    private static String transform(String script, boolean bytecode) {
+        return new MapperBuilder(script).enableBytecodeCompilation(bytecode).build()
+                .transform(new DefaultDocument<>(PAYLOAD, MediaTypes.APPLICATION_JSON)).getContent();
+    }
+
+    // the debugger evaluates with the tree-walking evaluator, which the compiled class must agree with
+    private static <T> T interpreted(Supplier<T> body) {
+        DataSonnetDebugger.getDebugger().attach();
+        try {
+            return body.get();
+        } finally {
+            DataSonnetDebugger.getDebugger().detach();
+        }
+    }
+
+    private static void assertSameResult(String script) {
+        assertEquals(interpreted(() -> transform(script, true)), transform(script, true), script);
+    }
+
+    @Test
+    void testMatchesTreeWalkingEvaluator() {
+        assertSameResult("{ total: std.foldl(function(acc, i) acc + i.n * i.p, payload.items, 0), " +
+                "names: [i.n for i in payload.items if i.n > 1], upper: ds.upper(payload.name) }");
+        assertSameResult("local f(x, y=2) = x * y; { a: f(3), b: f(3, y=4), c: payload.flag && !false || 1 < 0 }");
+        assertSameResult("local base = { a: 1, h:: 'hidden', m(x):: x + self.a }; " +
+                "[base + { b: super.a + 1, a: 5 }, base.m(2), base { [if payload.flag then 'on' else null]: $.a }]");
+        assertSameResult("{ local k = 'v' + payload.name, [payload.name]: k + self.x, x: payload.items[1].n, s: payload.name[0], " +
+                "sl: payload.items[0:1], miss: payload.nothing default 'dflt', t: try payload.x.y else 'caught' }");
+        assertSameResult("{ [i.n + '']: i for i in payload.items }");
+        assertSameResult("'%s has %d items' % [payload.name, std.length(payload.items)]");
+    }
+
+    @Test
+    void testOperatorsMatchTreeWalkingEvaluator() {
+        assertSameResult("local n = payload.items[0].n, p = payload.items[0].p; " +
+                "[n + p, n - p, n * p, n / p, 7 % 3, -7 % 3, n < p, n <= 1, n > p, p >= 2.5, n == 1, n != 1, " +
+                "'a' + n, n + 'a', 'a' < 'b', [1] + [2], { a: 1 } + { b: 2 }, 'x' == 'x', null == n, 1 << 3, 5 & 3, ~n, -p]");
+        assertSameResult("local nan = std.parseJson('1e400') - std.parseJson('1e400'); " +
+                "[nan < 1, nan <= 1, nan > 1, nan >= 1, nan == nan, nan != nan]");
+        assertSameResult("[true && true, true && false, false && error 'lazy', true || error 'lazy', false || true, " +
+                "if payload.flag then 'yes', if !payload.flag then 'yes', 'ann' in { ann: 1 }]");
+    }
+
+    @Test
+    void testScopesMatchTreeWalkingEvaluator() {
+        assertSameResult("local x = 1, add(y) = function(z) x + y + z; local x = 10; [add(2)(3), x]");
+        assertSameResult("local f(a, b=a * 2, c=b + 1) = [a, b, c]; [f(1), f(1, c=0), f(b=5, a=2)]");
+        assertSameResult("local x = 'outer'; [[x, y] for x in [1, 2] for y in [x * 10] if y > 10] + [x]");
+        assertSameResult("{ local x = self.base * 2, base: 3, nested: { local x = 'inner', v: x }, v: x, " +
+                "m(x):: x + 1, call: self.m(x) }");
+        assertSameResult("local counter(n) = if n == 0 then [] else counter(n - 1) + [n]; " +
+                "std.map(function(i) local i2 = i * i; i2, counter(5))");
+        assertSameResult("local payload = 'shadowed'; [payload, ds.upper(payload)]");
+        assertSameResult("local f(a, b, c, d=0, e=a) = a + b + c + d + e; [f(1, 2, 3), f(1, 2, 3, 4), f(1, 2, 3, 4, 5)]");
+        assertSameResult("local f() = 42, g(x=1) = x; local o = { m():: self.v, v: 7 }; [f(), g(), o.m(), std.thisFile]");
+        assertSameResult("local o = { a: 1, b: 2 }; [o + { b:: 3 }, std.objectHas(o + { b:: 3 }, 'b'), { a: 1 } + { a+: 1 }]");
+    }
+
+    @Test
+    void testCatchingMatchesTreeWalkingEvaluator() {
+        assertSameResult("[payload.a.b default payload.c default 'last', try error 'x' else try payload.y.z else 'inner', " +
+                "[1, payload.missing default 2, 3], std.length([try error 'a' else 1, 2])]");
+    }
+
+    @Test
+    void testErrorsMatchTreeWalkingEvaluator() {
+        String[] scripts = {
+                "{ a: payload.items[5] }",
+                "payload.items[0].n + {}",
+                "local o = { assert self.a > 1 : 'a too small', a: 1 }; o.a",
+                "if payload.name then 1 else 2",
+                "payload.name && true",
+                "false || payload.items",
+                "[x for x in payload.name]",
+                "error 'custom ' + payload.name",
+                "local f(a, b) = a; f(1)",
+                "local f(a, b=2) = a; f(1, 2, 3)",
+                "std.map(function(a, b) a + b, payload.items)",
+                "payload.items[0].n / 0",
+                "self.a",
+                "{ [payload.items]: 1 }",
+        };
+        for (String script : scripts) {
+            IllegalArgumentException expected = assertThrows(IllegalArgumentException.class,
+                    () -> interpreted(() -> transform(script, true)));
+            IllegalArgumentException actual = assertThrows(IllegalArgumentException.class, () -> transform(script, true));
+            assertEquals(expected.getMessage(), actual.getMessage(), script);
+        }
+    }
+
+    @Test
+    void testMatchesClosureCompiler() {
+        String script = "local total(items) = std.foldl(function(acc, i) acc + i.n * i.p, items, 0); " +
+                "{ name: payload.name, total: total(payload.items), big: [i for i in payload.items if i.n * i.p > 2] }";
+        assertEquals(transform(script, false), transform(script, true));
+    }
+
+    @Test
+    void testClassIsCachedByScript() {
+        String script = "{ cached: payload.items[1].n * 14 }";
+        long before = BytecodeCompiler.definedClasses();
+        // the first mapper keeps the class from being unloaded
+        Mapper first = new MapperBuilder(script).enableBytecodeCompilation(true).build();
+        assertEquals(before + 1, BytecodeCompiler.definedClasses());
+        Mapper second = new MapperBuilder(script).enableBytecodeCompilation(true).build();
+        assertEquals(before + 1, BytecodeCompiler.definedClasses());
+        for (Mapper mapper : new Mapper[]{first, second}) {
+            assertEquals("{\"cached\":42}", mapper.transform(
+                    new DefaultDocument<>(PAYLOAD, MediaTypes.APPLICATION_JSON)).getContent());
+        }
+
+        transform("{ other: payload.items[1].n * 14 }", true);
+        assertEquals(before + 2, BytecodeCompiler.definedClasses());
+    }
+
+    @Test
+    void testErrorPosition() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> transform("local x = 1;\n{ a: x,\n  b: payload.missing.field }", true));
+        assertTrue(e.getMessage().contains("line 3"), e.getMessage());
+    }
+}
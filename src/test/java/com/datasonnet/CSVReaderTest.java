@@ -18,15 +18,21 @@ package com.datasonnet;
 
 import com.datasonnet.document.DefaultDocument;
 import com.datasonnet.document.Document;
+import com.datasonnet.document.MediaType;
 import com.datasonnet.document.MediaTypes;
 import com.datasonnet.util.TestResourceReader;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class CSVReaderTest {
 
@@ -61,5 +67,39 @@ public class CSVReaderTest {
         assertEquals("{\"fName\":\"Eugene\",\"num\":\"234\"}", mapped.getContent());
     }
 
+    @Test
+    void testStreamingCSVReader() {
+        String csv = "id,name\n1,a\n2,b\n3,c\n";
+        Document<ByteArrayInputStream> data = new DefaultDocument<>(
+                new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)),
+                MediaType.parseMediaType("application/csv; streaming=true")
+        );
+
+        Mapper mapper = new Mapper("ds.map(payload, function(row, idx) { id: row.id, upper: ds.upper(row.name), idx: idx })");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        mapper.transform(data, Collections.emptyMap(), MediaTypes.APPLICATION_CSV, out);
+
+        assertEquals("id,upper,idx\n1,A,0\n2,B,1\n3,C,2\n", out.toString());
+    }
+
+    @Test
+    void testStreamingCSVReaderAverage() {
+        Document<String> data = new DefaultDocument<>("x\n1\n2\n3\n", MediaType.parseMediaType("application/csv; streaming=true"));
 
+        Mapper mapper = new Mapper("ds.math.avg(ds.map(payload, function(r) std.parseInt(r.x)))");
+
+        assertEquals("2", mapper.transform(data, Collections.emptyMap(), MediaTypes.APPLICATION_JSON).getContent());
+    }
+
+    @Test
+    void testStreamingCSVReaderSingleTraversal() {
+        Document<String> data = new DefaultDocument<>("id\n1\n2\n", MediaType.parseMediaType("application/csv; streaming=true"));
+
+        Mapper mapper = new Mapper("{ first: ds.map(payload, function(row) row.id), second: ds.map(payload, function(row) row.id) }");
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> mapper.transform(data, Collections.emptyMap(), MediaTypes.APPLICATION_JSON));
+        assertTrue(e.getMessage().contains("Streamed arrays can only be traversed once"));
+    }
 }
@@ -18,15 +18,23 @@ package com.datasonnet;
 
 import com.datasonnet.document.DefaultDocument;
 import com.datasonnet.document.Document;
+import com.datasonnet.document.MediaType;
 import com.datasonnet.document.MediaTypes;
+import com.datasonnet.spi.PluginException;
 import com.datasonnet.util.TestResourceReader;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class CSVWriterTest {
 
@@ -96,4 +104,60 @@ public class CSVWriterTest {
         assertEquals(expected.trim(), mapped.trim());
     }
 
+
+    @Test
+    void testCSVStreamingWriter() throws URISyntaxException, IOException {
+        Document<String> data = new DefaultDocument<>(
+                TestResourceReader.readFileAsString("writeCSVExtTest.json"),
+                MediaTypes.APPLICATION_JSON
+        );
+        Mapper mapper = new Mapper(TestResourceReader.readFileAsString("writeCSVExtTest.ds"));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        mapper.transform(data, Collections.emptyMap(), MediaTypes.APPLICATION_CSV, out);
+
+        String expected = TestResourceReader.readFileAsString("writeCSVExtTest.csv");
+        assertEquals(expected.trim(), out.toString().trim());
+    }
+
+    @Test
+    void testCSVStreamingWriterWithHeader() throws URISyntaxException, IOException {
+        Document<String> data = new DefaultDocument<>(
+                TestResourceReader.readFileAsString("writeCSVTest.json"),
+                MediaTypes.APPLICATION_JSON
+        );
+        Mapper mapper = new Mapper("payload");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        mapper.transform(data, Collections.emptyMap(), MediaTypes.APPLICATION_CSV, out);
+
+        String expected = TestResourceReader.readFileAsString("writeCSVTest.csv");
+        assertEquals(expected.trim(), out.toString().trim());
+    }
+
+    @Test
+    void testCSVStreamingWriterCharset() {
+        Mapper mapper = new Mapper("[{ name: 'Zoë', city: 'Málaga' }]");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        mapper.transform(new DefaultDocument<>("{}", MediaTypes.APPLICATION_JSON), Collections.emptyMap(),
+                MediaType.valueOf("application/csv; charset=ISO-8859-1"), out);
+
+        assertArrayEquals("name,city\nZoë,Málaga\n".getBytes(StandardCharsets.ISO_8859_1), out.toByteArray());
+    }
+
+    @Test
+    void testCSVStreamingWriterFailure() {
+        Mapper mapper = new Mapper("[{ name: 'a' }]");
+        OutputStream failing = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("disk full");
+            }
+        };
+
+        Exception e = assertThrows(IllegalArgumentException.class, () -> mapper.transform(
+                new DefaultDocument<>("{}", MediaTypes.APPLICATION_JSON), Collections.emptyMap(), MediaTypes.APPLICATION_CSV, failing));
+        assertTrue(e.getMessage().contains(PluginException.class.getName()), e.getMessage());
+    }
 }
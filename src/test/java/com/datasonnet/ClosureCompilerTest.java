@@ -0,0 +1,130 @@
+package com.datasonnet;
+
+/*-
+ * Copyright 2019-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import com.datasonnet.debugger.DataSonnetDebugger;
+import com.datasonnet.document.DefaultDocument;
+import com.datasonnet.document.MediaTypes;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ClosureCompilerTest {
+
+    private static final String PAYLOAD = "{\"name\":\"ann\",\"items\":[{\"n\":1,\"p\":2.5},{\"n\":3,\"p\":1}],\"flag\":true}";
+
+    private static String transform(String script) {
+        return new Mapper(script).transform(new DefaultDocument<>(PAYLOAD, MediaTypes.APPLICATION_JSON),
+                Collections.emptyMap(), MediaTypes.APPLICATION_JSON).getContent();
+    }
+
+    // the debugger evaluates with the tree-walking evaluator, which the compiled nodes must agree with
+    private static <T> T interpreted(Supplier<T> body) {
+        DataSonnetDebugger.getDebugger().attach();
+        try {
+            return body.get();
+        } finally {
+            DataSonnetDebugger.getDebugger().detach();
+        }
+    }
+
+    private static void assertSameResult(String script) {
+        assertEquals(interpreted(() -> transform(script)), transform(script), script);
+    }
+
+    @Test
+    void testMatchesTreeWalkingEvaluator() {
+        assertSameResult("{ total: std.foldl(function(acc, i) acc + i.n * i.p, payload.items, 0), " +
+                "names: [i.n for i in payload.items if i.n > 1], upper: ds.upper(payload.name) }");
+        assertSameResult("local f(x, y=2) = x * y; { a: f(3), b: f(3, y=4), c: payload.flag && !false || 1 < 0 }");
+        assertSameResult("local base = { a: 1, h:: 'hidden', m(x):: x + self.a }; " +
+                "[base + { b: super.a + 1, a: 5 }, base.m(2), base { [if payload.flag then 'on' else null]: $.a }]");
+        assertSameResult("{ local k = 'v' + payload.name, [payload.name]: k + self.x, x: payload.items[1].n, s: payload.name[0], " +
+                "sl: payload.items[0:1], miss: payload.nothing default 'dflt', t: try payload.x.y else 'caught' }");
+        assertSameResult("{ [i.n + '']: i for i in payload.items }");
+        assertSameResult("'%s has %d items' % [payload.name, std.length(payload.items)]");
+    }
+
+    @Test
+    void testScopesMatchTreeWalkingEvaluator() {
+        assertSameResult("local x = 1, add(y) = function(z) x + y + z; local x = 10; [add(2)(3), x]");
+        assertSameResult("local f(a, b=a * 2, c=b + 1) = [a, b, c]; [f(1), f(1, c=0), f(b=5, a=2)]");
+        assertSameResult("local x = 'outer'; [[x, y] for x in [1, 2] for y in [x * 10] if y > 10] + [x]");
+        assertSameResult("{ local x = self.base * 2, base: 3, nested: { local x = 'inner', v: x }, v: x, " +
+                "m(x):: x + 1, call: self.m(x) }");
+        assertSameResult("local counter(n) = if n == 0 then [] else counter(n - 1) + [n]; " +
+                "std.map(function(i) local i2 = i * i; i2, counter(5))");
+        assertSameResult("local payload = 'shadowed'; [payload, ds.upper(payload)]");
+    }
+
+    @Test
+    void testPositionalCallsMatchTreeWalkingEvaluator() {
+        assertSameResult("local f(a, b=10, c=a + b) = [a, b, c]; [f(1), f(1, 2), f(1, 2, 3)]");
+        assertSameResult("local f(a, b, c, d=0, e=a) = a + b + c + d + e; [f(1, 2, 3), f(1, 2, 3, 4), f(1, 2, 3, 4, 5)]");
+        assertSameResult("[std.foldl(function(acc, i) acc + i.n, payload.items, 0), " +
+                "std.mapWithIndex(function(i, x) i + x.n, payload.items), std.filter(function(i, flag=true) flag, [1, 2])]");
+    }
+
+    @Test
+    void testObjectsOfOneLiteralMatchTreeWalkingEvaluator() {
+        assertSameResult("local mk(n) = { a: n, b: self.a * 2, h:: 'hidden', l: [1] }; local o = mk(1); " +
+                "[o.b, (o + { a: 5 }).b, o.b, o { l+: [2] }, std.objectFields(o), std.objectFieldsAll(o), o.h, " +
+                "[mk(i) for i in [1, 2]], std.map(function(i) { id: i, sq: i * i }, [3, 4]), mk(2) == mk(2)]");
+        assertSameResult("local o = { a: 1, b: 2 }; [o + { b:: 3 }, std.objectHas(o + { b:: 3 }, 'b'), { a: 1 } + { a+: 1 }]");
+    }
+
+    @Test
+    void testErrorsMatchTreeWalkingEvaluator() {
+        String[] scripts = {
+                "{ a: payload.items[5] }",
+                "payload.items[0].n + {}",
+                "local o = { assert self.a > 1 : 'a too small', a: 1 }; o.a",
+                "if payload.name then 1 else 2",
+                "[x for x in payload.name]",
+                "error 'custom ' + payload.name",
+                "local f(a, b) = a; f(1)",
+                "local f(a, b=2) = a; f(1, 2, 3)",
+                "std.map(function(a, b) a + b, payload.items)",
+        };
+        for (String script : scripts) {
+            IllegalArgumentException expected = assertThrows(IllegalArgumentException.class,
+                    () -> interpreted(() -> transform(script)));
+            IllegalArgumentException actual = assertThrows(IllegalArgumentException.class, () -> transform(script));
+            assertEquals(expected.getMessage(), actual.getMessage(), script);
+        }
+    }
+
+    @Test
+    void testCompiledFunctionsAreReused() {
+        Mapper mapper = new Mapper("local double(x) = x * 2; { n: double(payload.n) }");
+        for (int n = 0; n < 3; n++) {
+            assertEquals("{\"n\":" + n * 2 + "}", mapper.transform(
+                    new DefaultDocument<>("{\"n\":" + n + "}", MediaTypes.APPLICATION_JSON)).getContent());
+        }
+    }
+
+    @Test
+    void testErrorPosition() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> transform("local x = 1;\n{ a: x,\n  b: payload.missing.field }"));
+        assertTrue(e.getMessage().contains("line 3"), e.getMessage());
+    }
+}
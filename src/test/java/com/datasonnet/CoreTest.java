@@ -160,6 +160,15 @@ public class CoreTest {
          */
     }
 
+    @Test
+    void test_findPositionsAsArrays() {
+        Mapper mapper = new Mapper("local p = " + lib + ".find('abcabc', 'b'), r = " + lib + ".range(2, 4); " +
+                "[p[1], std.length(p), p + [9], std.map(function(x) x * 10, p), " + lib + ".find([], 1), " +
+                "r[0], r + p, " + lib + ".range(3, 2)]", new ArrayList<>(), new HashMap<>(), true);
+        String value = mapper.transform("{}");
+        assertEquals("[4,2,[1,4,9],[10,40],[],2,[2,3,4,1,4],[]]", value);
+    }
+
     @Test
     void test_flatMap() {
         Mapper mapper = new Mapper(lib + ".flatMap([[3,5],[1,2,5]], function(value) value)", new ArrayList<>(), new HashMap<>(), true);
@@ -232,6 +241,23 @@ public class CoreTest {
 
     }
 
+    @Test
+    void test_groupByKeysWithTheSameName() {
+        Mapper mapper = new Mapper("local g = " + lib + ".groupBy([1, \"1\", 2.5, true, \"true\", 1.0, null], function(item) item);\n" +
+                "[g[\"1\"], g[\"2.5\"], g[\"true\"], g[\"null\"], std.length(g)]");
+        String value = mapper.transform("{}").replaceAll("\"", "");
+        assertEquals("[[1,1,1],[2.5],[true,true],[null],4]", value);
+
+        mapper = new Mapper("local o = " + lib + ".arrays.occurrences([1, \"1\", \"a\", 1], function(item) item);\n" +
+                "[o[\"1\"], o.a, std.length(o)]");
+        value = mapper.transform("{}").replaceAll("\"", "");
+        assertEquals("[3,1,2]", value);
+
+        mapper = new Mapper(lib + ".distinctBy([{k:1,i:0},{k:\"1\",i:1},{k:1,i:2}], function(item) item.k)\n", new ArrayList<>(), new HashMap<>(), true);
+        value = mapper.transform("{}").replaceAll("\"", "");
+        assertEquals("[{k:1,i:0},{k:1,i:1}]", value);
+    }
+
     @Test
     void test_isBlank() {
         Mapper mapper = new Mapper(lib + ".isBlank(null)\n", new ArrayList<>(), new HashMap<>(), true);
@@ -519,6 +545,38 @@ public class CoreTest {
 
     }
 
+    @Test
+    void test_orderByKeepsEqualKeysInOrder() {
+        Mapper mapper = new Mapper(lib + ".orderBy([{k:2,n:\"a\"},{k:1,n:\"b\"},{k:2,n:\"c\"},{k:1,n:\"d\"}], function(item) item.k)\n", new ArrayList<>(), new HashMap<>(), true);
+        String value = mapper.transform("{}").replaceAll("\"", "");
+        assertEquals("[{k:1,n:b},{k:1,n:d},{k:2,n:a},{k:2,n:c}]", value);
+
+        mapper = new Mapper(lib + ".orderBy([true,false,true,false], function(item,ind) item)\n", new ArrayList<>(), new HashMap<>(), true);
+        value = mapper.transform("{}").replaceAll("\"", "");
+        assertEquals("[false,false,true,true]", value);
+
+        mapper = new Mapper(lib + ".orderBy(std.range(1, 20000), function(item) -item)[0:3]\n", new ArrayList<>(), new HashMap<>(), true);
+        value = mapper.transform("{}").replaceAll("\"", "");
+        assertEquals("[20000,19999,19998]", value);
+
+        mapper = new Mapper("std.sort([{k:\"b\",i:1},{k:\"a\",i:2},{k:\"b\",i:3}], function(o) o.k)\n", new ArrayList<>(), new HashMap<>(), true);
+        value = mapper.transform("{}").replaceAll("\"", "");
+        assertEquals("[{k:a,i:2},{k:b,i:1},{k:b,i:3}]", value);
+
+        Mapper mixed = new Mapper(lib + ".orderBy([1, \"a\"], function(item) item)\n", new ArrayList<>(), new HashMap<>(), true);
+        Exception e = assertThrows(IllegalArgumentException.class, () -> mixed.transform("{}"));
+        assertTrue(e.getMessage().contains("Cannot sort by keys that are both numbers and strings"), e.getMessage());
+    }
+
+    @Test
+    void test_orderBySingleElementAnyKey() {
+        Mapper mapper = new Mapper("[" + lib + ".orderBy([{a:1}], function(x) x), " + lib + ".orderBy([null], function(x) x), " +
+                lib + ".orderBy({a: {x:1}}, function(v) v), " + lib + ".orderBy([], function(x) x)]\n",
+                new ArrayList<>(), new HashMap<>(), true);
+        String value = mapper.transform("{}").replaceAll("\"", "");
+        assertEquals("[[{a:1}],[null],{a:{x:1}},[]]", value);
+    }
+
     @Test
     void test_mapEntries() {
         Mapper mapper = new Mapper(lib + ".mapEntries({\"a\":\"b\",\"c\":\"d\"}, function(value,key,index) index )\n", new ArrayList<>(), new HashMap<>(), true);
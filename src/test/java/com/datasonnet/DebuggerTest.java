@@ -80,6 +80,43 @@ public class DebuggerTest {
         assertEquals(5, spc.getSourcePos().getLine());
     }
 
+    @Test
+    void testDebuggableMapperBuiltBeforeAttaching() throws IOException, URISyntaxException, InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        final String dsScript = TestResourceReader.readFileAsString("debug.ds");
+        String camelFunctions = "local cml = { exchangeProperty(str): exchangeProperty[str], header(str): header[str], properties(str): properties[str] };\n";
+        final Mapper mapper = new MapperBuilder(camelFunctions + dsScript).enableDebugging(true).build();
+
+        final DataSonnetDebugger debugger = DataSonnetDebugger.getDebugger();
+        debugger.attach();
+        debugger.addBreakpoint(5);
+        debugger.setLineCount(dsScript.split("\\R").length);
+        debugger.setDebuggerAdapter(new DataSonnetDebugListener() {
+            @Override
+            public void stopped(StoppedProgramContext stoppedProgramContext) {
+                DataSonnetDebugger.getDebugger().detach();
+                latch.countDown();
+            }
+        });
+
+        Thread runMap = new Thread(() -> mapper.transform(new DefaultDocument<>("{}", MediaTypes.APPLICATION_JSON)));
+        runMap.start();
+
+        if (!latch.await(5L, TimeUnit.SECONDS)) {
+            fail("The debugger did not stop at the breakpoint");
+        }
+        assertEquals(5, debugger.getStoppedProgramContext().getSourcePos().getLine());
+
+        // let the mapping finish, so that a later resume() does not release it and clear another test's context
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (runMap.isAlive() && System.currentTimeMillis() < deadline) {
+            debugger.resume();
+            runMap.join(100L);
+        }
+        assertFalse(runMap.isAlive());
+    }
+
     @AfterAll
     public static void cleanUp() {
         DataSonnetDebugger.getDebugger().detach();
@@ -0,0 +1,83 @@
+package com.datasonnet;
+
+/*-
+ * Copyright 2019-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class IndexTest {
+
+    private final String lib = "ds";
+    private final String pack = ".index";
+
+    private final String products = "[{sku:\"a\",name:\"Apple\"},{sku:\"b\",name:\"Banana\"},{sku:\"a\",name:\"Apricot\"},{sku:1,name:\"One\"}]";
+    private final String lines = "[{sku:\"b\",qty:2},{sku:\"c\",qty:1},{sku:\"a\",qty:3}]";
+
+    private String transform(String script) {
+        Mapper mapper = new Mapper(script, new ArrayList<>(), new HashMap<>(), true);
+        return mapper.transform("{}").replaceAll("\"", "");
+    }
+
+    @Test
+    void testIndex_build() {
+        assertEquals("{a:[{sku:a,name:Apple},{sku:a,name:Apricot}],b:[{sku:b,name:Banana}],1:[{sku:1,name:One}]}",
+                transform(lib + pack + ".build(" + products + ", function(p) p.sku)"));
+    }
+
+    @Test
+    void testIndex_lookup() {
+        String index = "local idx = " + lib + pack + ".build(" + products + ", function(p) p.sku); ";
+        assertEquals("[[Banana],[],[One]]", transform(index + "[std.map(function(p) p.name, " + lib + pack + ".lookup(idx, k)) for k in [\"b\", \"x\", 1]]"));
+    }
+
+    @Test
+    void testIndex_innerJoin() {
+        assertEquals("[{l:{sku:b,qty:2},r:{sku:b,name:Banana}},{l:{sku:a,qty:3},r:{sku:a,name:Apple}},{l:{sku:a,qty:3},r:{sku:a,name:Apricot}}]",
+                transform(lib + pack + ".innerJoin(" + lines + ", " + products + ", function(l) l.sku, function(p) p.sku)"));
+    }
+
+    @Test
+    void testIndex_leftJoin() {
+        assertEquals("[{l:{sku:b,qty:2},r:{sku:b,name:Banana}},{l:{sku:c,qty:1}},{l:{sku:a,qty:3},r:{sku:a,name:Apple}},{l:{sku:a,qty:3},r:{sku:a,name:Apricot}}]",
+                transform(lib + pack + ".leftJoin(" + lines + ", " + products + ", function(l) l.sku, function(p) p.sku)"));
+        // keys are compared as strings, as in build
+        assertEquals("[{l:{sku:1},r:{sku:1,name:One}}]", transform(lib + pack + ".leftJoin([{sku:\"1\"}], " + products + ", function(l) l.sku, function(p) p.sku)"));
+    }
+
+    @Test
+    void testIndex_lookupMatchesJoin() {
+        String numbers = "[{id:1,name:\"one\"},{id:\"2\",name:\"two\"},{id:2.5,name:\"half\"}]";
+        String keys = "[{k:\"1\"},{k:2},{k:\"2.5\"},{k:3}]";
+        String index = "local idx = " + lib + pack + ".build(" + numbers + ", function(n) n.id); ";
+        String lookedUp = transform(index + "std.flattenArrays([[{l: key, r: item} for item in " + lib + pack + ".lookup(idx, key.k)] for key in " + keys + "])");
+        String joined = transform(lib + pack + ".innerJoin(" + keys + ", " + numbers + ", function(key) key.k, function(n) n.id)");
+        assertEquals("[{l:{k:1},r:{id:1,name:one}},{l:{k:2},r:{id:2,name:two}},{l:{k:2.5},r:{id:2.5,name:half}}]", joined);
+        assertEquals(joined, lookedUp);
+    }
+
+    @Test
+    void testIndex_unsupportedKey() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> transform(lib + pack + ".build([{}], function(p) p)"));
+        assertTrue(e.getMessage().contains("Expected key to be a String, Number, Boolean or null, got: object"), e.getMessage());
+    }
+}
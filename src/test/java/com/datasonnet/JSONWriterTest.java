@@ -17,12 +17,21 @@ package com.datasonnet;
  */
 import com.datasonnet.document.DefaultDocument;
 import com.datasonnet.document.Document;
+import com.datasonnet.document.MediaType;
 import com.datasonnet.document.MediaTypes;
+import com.datasonnet.spi.PluginException;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class JSONWriterTest {
 
@@ -51,4 +60,40 @@ public class JSONWriterTest {
 
         assertEquals("null", mapped.getContent().trim());
     }
+
+    @Test
+    public void testJSONStreamingWriter() {
+        Mapper mapper = new Mapper("{ str: 'välue', arr: [1, 2.5, [true]], obj: { b: {}, a: [] }, 'null': null }");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        mapper.transform(DefaultDocument.NULL_INSTANCE, Collections.emptyMap(), MediaType.parseMediaType("application/json; charset=UTF-8"), out);
+
+        String expected = mapper.transform(DefaultDocument.NULL_INSTANCE, Collections.emptyMap(), MediaTypes.APPLICATION_JSON).getContent();
+        assertEquals(expected, new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testJSONStreamingWriterDefaultCharset() {
+        Mapper mapper = new Mapper("{ name: 'Zoë', city: 'Málaga' }");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        mapper.transform(DefaultDocument.NULL_INSTANCE, Collections.emptyMap(), MediaTypes.APPLICATION_JSON, out);
+
+        assertArrayEquals("{\"name\":\"Zoë\",\"city\":\"Málaga\"}".getBytes(StandardCharsets.UTF_8), out.toByteArray());
+    }
+
+    @Test
+    public void testJSONStreamingWriterFailure() {
+        Mapper mapper = new Mapper("{ a: 1 }");
+        OutputStream failing = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("disk full");
+            }
+        };
+
+        Exception e = assertThrows(IllegalArgumentException.class, () -> mapper.transform(
+                DefaultDocument.NULL_INSTANCE, Collections.emptyMap(), MediaTypes.APPLICATION_JSON, failing));
+        assertTrue(e.getMessage().contains(PluginException.class.getName()), e.getMessage());
+    }
 }
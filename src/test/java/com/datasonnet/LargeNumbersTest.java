@@ -19,7 +19,10 @@ package com.datasonnet;
 import com.datasonnet.document.DefaultDocument;
 import com.datasonnet.document.Document;
 import com.datasonnet.document.MediaTypes;
+import com.datasonnet.spi.ujsonUtils;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -57,4 +60,16 @@ public class LargeNumbersTest {
         assertEquals(java.math.BigInteger.class, ((List)objValues.get("array")).get(0).getClass());
         assertEquals("12345678901234567890", ((List)objValues.get("array")).get(0).toString());
     }
-}
\ No newline at end of file
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "0", "-0.0", "100.0", "1e400", "1.5e-7", "1000000000000000000.0", "123456789012345.6",
+            "1234567890123456", "-1234567890123456", "0.1234567890123456789", "1.10000000000000000000",
+            "12345678901234567890e-5", "[1, 2.50, {\"a\": 1, \"b\": 12345678901234567890, \"a\": 2}]",
+            "{\"s\": \"\\u00e9\\n\", \"x\": [true, false, null]}"
+    })
+    void testSinglePassParseMatchesRewrite(String json) throws Exception {
+        ujson.Value expected = ujsonUtils.read(ujson.Readable.fromString(ujsonUtils.replaceLargeNumbers(json)), false);
+        assertEquals(ujsonUtils.write(expected, -1, false), ujsonUtils.write(ujsonUtils.parse(json), -1, false));
+    }
+}
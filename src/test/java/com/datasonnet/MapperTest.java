@@ -17,6 +17,7 @@ package com.datasonnet;
  */
 import com.datasonnet.document.DefaultDocument;
 import com.datasonnet.document.Document;
+import com.datasonnet.document.MediaType;
 import com.datasonnet.document.MediaTypes;
 import com.datasonnet.util.TestResourceReader;
 import org.junit.jupiter.api.Disabled;
@@ -24,10 +25,16 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.MethodSource;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -196,4 +203,125 @@ public class MapperTest {
         assertEquals("{\"hello\":\"world\"}", mapped.getContent());
         assertEquals(MediaTypes.APPLICATION_JSON, mapped.getMediaType());
     }
+
+    @Test
+    void testConcurrentTransform() throws Exception {
+        Mapper mapper = new Mapper("local lib = { twice(n): n * 2 };\n" +
+                "{ \"uid\": lib.twice(payload.user_id), \"name\": ds.strings.capitalize(payload.name) }");
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                final String json = "{ \"user_id\": " + i + ", \"name\": \"user" + i + "\" }";
+                results.add(executor.submit(() ->
+                        mapper.transform(new DefaultDocument<>(json, MediaTypes.APPLICATION_JSON)).getContent()));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                assertEquals("{\"uid\":" + (i * 2) + ",\"name\":\"User" + i + "\"}", results.get(i).get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testTransformAll() {
+        Mapper mapper = new Mapper("{ \"uid\": payload.user_id * factor, \"name\": payload.name }", Collections.singleton("factor"));
+        Map<String, Document<?>> inputs = Collections.singletonMap("factor", new DefaultDocument<>("3", MediaTypes.APPLICATION_JSON));
+
+        List<Document<?>> payloads = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            String json = i == 42 ? "{ \"user_id\": \"oops\" }" : "{ \"user_id\": " + i + ", \"name\": \"user" + i + "\" }";
+            payloads.add(new DefaultDocument<>(json, MediaTypes.APPLICATION_JSON));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<TransformResult<String>> results = mapper.transformAll(payloads, inputs, MediaTypes.APPLICATION_JSON, executor);
+            assertEquals(payloads.size(), results.size());
+            for (int i = 0; i < results.size(); i++) {
+                TransformResult<String> result = results.get(i);
+                assertEquals(i, result.getIndex());
+                if (i == 42) {
+                    assertFalse(result.isSuccess());
+                    assertTrue(result.getError() instanceof IllegalArgumentException);
+                } else {
+                    assertEquals("{\"uid\":" + (i * 3) + ",\"name\":\"user" + i + "\"}", result.getDocument().getContent());
+                }
+            }
+
+            List<String> streamed = mapper.transformAllAsStream(payloads.subList(0, 3), inputs, MediaTypes.APPLICATION_JSON, String.class, executor)
+                    .map(result -> result.getDocument().getContent())
+                    .collect(Collectors.toList());
+            assertEquals(Arrays.asList("{\"uid\":0,\"name\":\"user0\"}", "{\"uid\":3,\"name\":\"user1\"}", "{\"uid\":6,\"name\":\"user2\"}"), streamed);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testTransformAllKeepsErrorsPerPayload() {
+        Mapper mapper = new Mapper("payload.id");
+        List<Document<?>> payloads = Arrays.asList(
+                new DefaultDocument<>("{ \"id\": 1 }", MediaTypes.APPLICATION_JSON),
+                new DefaultDocument<String>("{ \"id\": 2 }", MediaTypes.APPLICATION_JSON) {
+                    @Override
+                    public MediaType getMediaType() {
+                        throw new AssertionError("unreadable payload");
+                    }
+                },
+                new DefaultDocument<>("{ \"id\": 3 }", MediaTypes.APPLICATION_JSON));
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<TransformResult<String>> results = mapper.transformAll(payloads, Collections.emptyMap(), MediaTypes.APPLICATION_JSON, executor);
+            assertEquals("1", results.get(0).getDocument().getContent());
+            assertFalse(results.get(1).isSuccess());
+            assertTrue(results.get(1).getError().getMessage().contains("unreadable payload"));
+            assertEquals("3", results.get(2).getDocument().getContent());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testCompiledTemplate() {
+        MapperTemplate template = new MapperBuilder("{ \"uid\": payload.user_id, \"role\": role }")
+                .withInputNames("role")
+                .compile();
+
+        Map<String, Document<?>> inputs = Collections.singletonMap("role", new DefaultDocument<>("\"admin\"", MediaTypes.APPLICATION_JSON));
+        Mapper first = template.newMapper();
+        Mapper second = template.newMapper();
+
+        assertNotSame(first, second);
+        assertSame(template, first.template());
+        assertEquals("{\"uid\":7,\"role\":\"admin\"}", first.transform(new DefaultDocument<>("{ \"user_id\": 7 }", MediaTypes.APPLICATION_JSON), inputs, MediaTypes.APPLICATION_JSON).getContent());
+        assertEquals("{\"uid\":8,\"role\":\"admin\"}", second.transform(new DefaultDocument<>("{ \"user_id\": 8 }", MediaTypes.APPLICATION_JSON), inputs, MediaTypes.APPLICATION_JSON).getContent());
+    }
+
+    @Test
+    void testInputsBoundAsValues() {
+        Mapper mapper = new MapperBuilder("function(payload, greeting=\"hi\", name) { msg: greeting + \" \" + name, id: payload.id }")
+                .wrapAsFunction(false)
+                .build();
+
+        Map<String, Document<?>> inputs = new HashMap<>();
+        inputs.put("name", new DefaultDocument<>("\"world\"", MediaTypes.APPLICATION_JSON));
+        inputs.put("unused", new DefaultDocument<>("{}", MediaTypes.APPLICATION_JSON));
+
+        assertEquals("{\"msg\":\"hi world\",\"id\":3}",
+                mapper.transform(new DefaultDocument<>("{\"id\": 3}", MediaTypes.APPLICATION_JSON), inputs, MediaTypes.APPLICATION_JSON).getContent());
+    }
+
+    @Test
+    void testInputViews() {
+        Mapper mapper = new Mapper("{ second: payload.items[1].name, again: payload.items[1].name, count: std.length(payload.items),\n" +
+                "  extended: payload.meta + { b: 2 }, keys: std.objectFields(payload.meta), has: std.objectHas(payload.meta, \"a\") }");
+
+        assertEquals("{\"second\":\"y\",\"again\":\"y\",\"count\":3,\"extended\":{\"a\":1,\"b\":2},\"keys\":[\"a\"],\"has\":true}",
+                mapper.transform(new DefaultDocument<>("{\"items\": [{\"name\": \"x\"}, {\"name\": \"y\"}, {\"name\": \"z\"}], \"meta\": {\"a\": 1}}",
+                        MediaTypes.APPLICATION_JSON)).getContent());
+    }
 }
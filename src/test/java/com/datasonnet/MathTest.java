@@ -36,6 +36,21 @@ public class MathTest {
         assertEquals("0.5", value);
     }
 
+    @Test
+    void testMath_sumAndAvg() {
+        Mapper mapper = new Mapper("[" + lib + pack + ".sum([1, 2.5, 3]), " + lib + pack + ".avg([1, 2, 6]), " + lib + pack + ".sum([])]");
+        String value = mapper.transform("{}").replaceAll("\"", "");
+        assertEquals("[6.5,3,0]", value);
+    }
+
+    @Test
+    void testMath_arithmetic() {
+        Mapper mapper = new Mapper("local total(items) = std.foldl(function(acc, i) acc + i.qty * i.price, items, 0); " +
+                "[total([{qty: 2, price: 10}, {qty: 1, price: 0.5}]), 7 % 3, 9 / 2, 2 < 3, 3 == 3.0, 3 != 3, 1024 + 1, -128 - 1, std.pow(0 * -1, -1) < 0]");
+        String value = mapper.transform("{}").replaceAll("\"", "");
+        assertEquals("[20.5,1,4.5,true,true,false,1025,-129,true]", value);
+    }
+
     @Test
     void testMath_exponent() {
         Mapper mapper = new Mapper(lib + pack + ".exponent(5)");
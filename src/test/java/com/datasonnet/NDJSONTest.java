@@ -0,0 +1,138 @@
+package com.datasonnet;
+
+/*-
+ * Copyright 2019-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import com.datasonnet.document.DefaultDocument;
+import com.datasonnet.document.Document;
+import com.datasonnet.document.MediaType;
+import com.datasonnet.document.MediaTypes;
+import com.datasonnet.spi.PluginException;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class NDJSONTest {
+
+    private static final String EVENTS = "{\"id\":1,\"type\":\"click\"}\n" +
+            "\n" +
+            "{\"id\":2,\"type\":\"view\"}\n" +
+            "{\"id\":3,\"type\":\"click\"}";
+
+    @Test
+    void testNDJSONReader() {
+        Mapper mapper = new Mapper("std.map(function(e) e.id, payload)");
+        Document<String> result = mapper.transform(new DefaultDocument<>(EVENTS, MediaTypes.APPLICATION_NDJSON),
+                Collections.emptyMap(), MediaTypes.APPLICATION_JSON);
+
+        assertEquals("[1,2,3]", result.getContent());
+    }
+
+    @Test
+    void testNDJSONWriter() {
+        Mapper mapper = new Mapper("[{ id: 1, tags: ['a'] }, 'two', null]");
+        Document<String> result = mapper.transform(new DefaultDocument<>("{}", MediaTypes.APPLICATION_JSON),
+                Collections.emptyMap(), MediaTypes.APPLICATION_NDJSON);
+
+        assertEquals("{\"id\":1,\"tags\":[\"a\"]}\n\"two\"\nnull\n", result.getContent());
+    }
+
+    @Test
+    void testTransformStream() {
+        Mapper mapper = new Mapper("{ id: payload.id, click: payload.type == 'click' }");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        mapper.transformStream(new ByteArrayInputStream(EVENTS.getBytes(StandardCharsets.UTF_8)), out,
+                MediaTypes.APPLICATION_NDJSON);
+
+        assertEquals("{\"id\":1,\"click\":true}\n{\"id\":2,\"click\":false}\n{\"id\":3,\"click\":true}\n",
+                out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testTransformStreamWithInputsToCSV() {
+        Mapper mapper = new Mapper("{ id: payload.id, source: source.name }", Collections.singleton("source"));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        mapper.transformStream(new ByteArrayInputStream(EVENTS.getBytes(StandardCharsets.UTF_8)),
+                Collections.singletonMap("source", new DefaultDocument<>("{\"name\":\"web\"}", MediaTypes.APPLICATION_JSON)),
+                out, MediaTypes.APPLICATION_CSV);
+
+        assertEquals("id,source\n1,web\n2,web\n3,web\n", out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testTransformStreamToNonStreamingFormat() {
+        Mapper mapper = new Mapper("payload.type");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        mapper.transformStream(new ByteArrayInputStream(EVENTS.getBytes(StandardCharsets.UTF_8)), out,
+                MediaType.valueOf("application/x-yaml"));
+
+        assertEquals("--- \"click\"\n--- \"view\"\n--- \"click\"", out.toString(StandardCharsets.UTF_8).trim());
+    }
+
+    @Test
+    void testTransformStreamReportsFailingRecord() {
+        Mapper mapper = new Mapper("if payload.id == 2 then error 'bad event' else payload.id");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> mapper.transformStream(new ByteArrayInputStream(EVENTS.getBytes(StandardCharsets.UTF_8)), out,
+                        MediaTypes.APPLICATION_NDJSON));
+
+        assertTrue(e.getMessage().contains("bad event"), e.getMessage());
+    }
+
+    @Test
+    void testNDJSONReaderFailure() {
+        Mapper mapper = new Mapper("payload");
+        InputStream failing = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("connection reset");
+            }
+        };
+
+        PluginException e = assertThrows(PluginException.class, () -> mapper.transform(
+                new DefaultDocument<>(failing, MediaTypes.APPLICATION_NDJSON), Collections.emptyMap(), MediaTypes.APPLICATION_JSON));
+        assertEquals("Unable to read NDJSON input", e.getMessage());
+    }
+
+    @Test
+    void testNDJSONStreamingWriterFailure() {
+        Mapper mapper = new Mapper("[{ id: 1 }]");
+        OutputStream failing = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("disk full");
+            }
+        };
+
+        Exception e = assertThrows(IllegalArgumentException.class, () -> mapper.transform(
+                new DefaultDocument<>("{}", MediaTypes.APPLICATION_JSON), Collections.emptyMap(), MediaTypes.APPLICATION_NDJSON, failing));
+        assertTrue(e.getMessage().contains(PluginException.class.getName()), e.getMessage());
+    }
+}
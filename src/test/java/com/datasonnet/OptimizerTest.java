@@ -0,0 +1,70 @@
+package com.datasonnet;
+
+/*-
+ * Copyright 2019-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import com.datasonnet.document.DefaultDocument;
+import com.datasonnet.document.MediaTypes;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class OptimizerTest {
+
+    private static String transform(String script, String payload) {
+        return new Mapper(script).transform(new DefaultDocument<>(payload, MediaTypes.APPLICATION_JSON),
+                Collections.emptyMap(), MediaTypes.APPLICATION_JSON).getContent();
+    }
+
+    @Test
+    void testConstantExpressions() {
+        assertEquals("{\"n\":7,\"s\":\"ab1\",\"b\":true,\"neg\":-2,\"cond\":\"yes\",\"arr\":[1,\"x\",{\"k\":[true]}]}",
+                transform("{ n: (1 + 2) * 2 + 1, s: 'a' + 'b' + 1, b: !(1 > 2) && 'a' < 'b', neg: -(2), " +
+                        "cond: if 1 == 1 then 'yes' else error 'no', arr: [1, 'x', { k: [true] }] }", "{}"));
+    }
+
+    @Test
+    void testConstantObjectsAreNotShared() {
+        Mapper mapper = new Mapper("local base = { a: 1, h:: 'hidden' };\n" +
+                "[base + { b: super.a + payload.n }, base + { a: payload.n }, base.h]");
+
+        assertEquals("[{\"a\":1,\"b\":3},{\"a\":2},\"hidden\"]", mapper.transform(
+                new DefaultDocument<>("{\"n\":2}", MediaTypes.APPLICATION_JSON)).getContent());
+        assertEquals("[{\"a\":1,\"b\":6},{\"a\":5},\"hidden\"]", mapper.transform(
+                new DefaultDocument<>("{\"n\":5}", MediaTypes.APPLICATION_JSON)).getContent());
+    }
+
+    @Test
+    void testShadowedLibrary() {
+        assertEquals("[\"ABC\",\"local\",\"param\",\"field\"]",
+                transform("[ds.upper('abc'), local ds = { upper(s): 'local' }; ds.upper('x'), " +
+                        "(function(std) std.upper)({ upper: 'param' }), { ds:: { upper: 'field' }, r: self.ds.upper }.r]", "{}"));
+        assertEquals("[\"a\",\"b\"]", transform("[x for ds in [{ upper: 'a' }, { upper: 'b' }] for x in [ds.upper]]", "{}"));
+    }
+
+    @Test
+    void testErrorsAreReportedAtRuntime() {
+        String script = "if payload.fail then 1 / 0 else 'ok'";
+        assertEquals("\"ok\"", transform(script, "{\"fail\": false}"));
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> transform(script, "{\"fail\": true}"));
+        assertTrue(e.getMessage().contains("division by zero"), e.getMessage());
+        assertTrue(e.getMessage().contains("line 1"), e.getMessage());
+    }
+}
@@ -16,6 +16,8 @@ package com.datasonnet;
  * limitations under the License.
  */
 
+import com.datasonnet.modules.PatternCache;
+import com.datasonnet.modules.Regex;
 import com.datasonnet.util.TestResourceReader;
 import org.json.JSONException;
 import org.junit.jupiter.api.Test;
@@ -26,6 +28,7 @@ import org.skyscreamer.jsonassert.JSONAssert;
 import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class RegexTest {
 
@@ -78,4 +81,59 @@ public class RegexTest {
         assertEquals("\"xxx4yyy16zzz36aaa\"", result);
     }
 
+
+    @Test
+    void testLiteralPatternsAreCompiledOnce() {
+        PatternCache<?> patterns = DSLowercase.Regexes();
+        long misses = patterns.missCount();
+        long hits = patterns.hitCount();
+        // compiled when the script is optimized, and kept by the call site rather than the cache
+        Mapper mapper = new Mapper("[ds.splitBy(s, '[;|]+') for s in ['a;b', 'c||d', 'e']]");
+        assertEquals("[[\"a\",\"b\"],[\"c\",\"d\"],[\"e\"]]", mapper.transform("{}"));
+        assertEquals(misses, patterns.missCount());
+        assertEquals(hits, patterns.hitCount());
+
+        mapper = new Mapper("local sep = '[' + ';|' + ']+'; [ds.splitBy(s, sep) for s in ['a;b', 'c||d', 'e']]");
+        assertEquals("[[\"a\",\"b\"],[\"c\",\"d\"],[\"e\"]]", mapper.transform("{}"));
+        assertEquals(misses + 1, patterns.missCount());
+        assertEquals(hits + 2, patterns.hitCount());
+
+        misses = Regex.PATTERNS.missCount();
+        hits = Regex.PATTERNS.hitCount();
+        mapper = new Mapper("[ds.regex.regexGlobalReplace(replace='0', pattern=@'o{2,}', str=s) for s in ['foo', 'boooo']]");
+        assertEquals("[\"f0\",\"b0\"]", mapper.transform("{}"));
+        assertEquals(misses, Regex.PATTERNS.missCount());
+        assertEquals(hits, Regex.PATTERNS.hitCount());
+    }
+
+    @Test
+    void testLiteralPatternsOutnumberingTheCache() {
+        int count = DSLowercase.Regexes().maximumSize() + 1;
+        StringBuilder script = new StringBuilder("[");
+        for (int i = 0; i < count; i++) {
+            script.append("ds.matches('a").append(i).append("', 'a").append(i).append("+'), ");
+        }
+        script.append("ds.matches('b', 'a+')]");
+        Mapper mapper = new Mapper(script.toString());
+
+        long misses = DSLowercase.Regexes().missCount();
+        String result = mapper.transform("{}");
+        assertEquals(misses, DSLowercase.Regexes().missCount());
+        assertTrue(result.startsWith("[true,true,"));
+        assertTrue(result.endsWith(",true,false]"));
+    }
+
+    @Test
+    void testPatternCacheKeepsMostRecentlyCompiled() {
+        PatternCache<String> cache = new PatternCache<>(2, String::toUpperCase);
+        assertEquals("A", cache.get("a"));
+        cache.get("b");
+        cache.get("a");
+        cache.get("c");
+        cache.get("a");
+        cache.get("c");
+        assertEquals(2, cache.size());
+        assertEquals(2, cache.hitCount());
+        assertEquals(4, cache.missCount());
+    }
 }
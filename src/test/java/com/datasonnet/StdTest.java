@@ -57,6 +57,36 @@ public class StdTest {
         JSONAssert.assertEquals("[\"Hello\",{\"Hello\":\"World\"},[1,2,3],\"HiddenMessage\"]", response.getContent(), true);
     }
 
+    @Test
+    void testStdPackedArrays() throws JSONException {
+        Mapper mapper = new Mapper("local r = std.range(3, 6), u = std.encodeUTF8('hé'), b = std.base64DecodeBytes('/wA='); " +
+                "[r, r[1], std.length(r), std.range(2, 1), r + [7], std.map(function(x) x * 2, r), " +
+                "u, std.decodeUTF8(u), b, std.base64(b), std.decodeUTF8(std.encodeUTF8('abc') + [100])]");
+        Document<String> response = mapper.transform(new DefaultDocument<>("{}", MediaTypes.APPLICATION_JSON));
+        JSONAssert.assertEquals("[[3,4,5,6],4,4,[],[3,4,5,6,7],[6,8,10,12],[104,195,169],\"hé\",[-1,0],\"/wA=\",\"abcd\"]",
+                response.getContent(), true);
+    }
+
+    @Test
+    void testStdConcatenatedStrings() throws JSONException {
+        Mapper mapper = new Mapper("local s = std.foldl(function(acc, i) acc + 'segment-' + i + ';', std.range(1, 100000), ''), " +
+                "p = std.join('', ['x' for i in std.range(1, 300)]) + 'y'; " +
+                "[std.length(s), std.substr(s, 0, 20), s[std.length(s) - 1], s == std.join('', ['segment-' + i + ';' for i in std.range(1, 100000)]), " +
+                "{ [p]: 1 }[p], p + 1 == p + '1', p < p + 'a', std.join(',', ['a', null, 'b', null]), std.join(', ', [])]");
+        Document<String> response = mapper.transform(new DefaultDocument<>("{}", MediaTypes.APPLICATION_JSON));
+        JSONAssert.assertEquals("[1388895,\"segment-1;segment-2;\",\";\",true,1,true,true,\"a,b\",\"\"]",
+                response.getContent(), true);
+    }
+
+    @Test
+    void testStdConcatenatedStringsJoinedInParts() throws JSONException {
+        // the inner strings are joined first, the outer ones then read their joined values
+        Mapper mapper = new Mapper("local a = std.join('', ['a' for i in std.range(1, 300)]) + 'b', c = a + a, d = c + a; " +
+                "[std.length(a), std.length(c), std.length(d), d == a + a + a, c == a + a, std.substr(d, 600, 3)]");
+        Document<String> response = mapper.transform(new DefaultDocument<>("{}", MediaTypes.APPLICATION_JSON));
+        JSONAssert.assertEquals("[301,602,903,true,true,\"aba\"]", response.getContent(), true);
+    }
+
     @Test
     void testStdReverse() throws IOException, URISyntaxException, JSONException {
         Mapper mapper = new Mapper("std.reverse([1,2,3])");
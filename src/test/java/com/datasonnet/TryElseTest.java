@@ -74,4 +74,11 @@ public class TryElseTest {
         JSONAssert.assertEquals("{\"tryNonexistent\":\"OK\",\"tryObj\":{\"x\":\"OK\"},\"tryOverride\":\"OverrideOK\",\"tryElseOverride\":\"OverrideOK\"}", response.getContent(), true);
     }
 
+    @Test
+    void testDefaultHeaderInsideParentheses() throws JSONException {
+        Mapper mapper = new Mapper("/** DataSonnet\nversion=3.0\ndefault=\"D\"\n*/\n" +
+                "{ x: (payload.missing) default \"R\", y: (payload.a.b) default \"R\", z: payload.missing default \"R\" }");
+        JSONAssert.assertEquals("{\"x\":\"D\",\"y\":\"D\",\"z\":\"R\"}", mapper.transform("{}"), true);
+    }
+
 }